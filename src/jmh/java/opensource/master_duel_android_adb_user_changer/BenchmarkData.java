@@ -0,0 +1,67 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class BenchmarkData {
+    private static final String[] OTHER_ENTRIES = {"Unity", "il2cpp", "cache", "PlayerPrefs", "shaders.bin"};
+
+    private BenchmarkData() {
+    }
+
+    static String devicesOutput(int count) {
+        StringBuilder builder = new StringBuilder("List of devices attached\n");
+        for (int i = 0; i < count; i++) {
+            builder.append("emulator-").append(5554 + i * 2)
+                    .append(i % 17 == 0 ? "\toffline" : "\tdevice")
+                    .append(" product:sdk_gphone64_x86_64 model:sdk_gphone64_x86_64 device:emu64x transport_id:")
+                    .append(i + 1).append('\n');
+        }
+        return builder.toString();
+    }
+
+    static List<String> folders(int count) {
+        List<String> folders = new ArrayList<>();
+        folders.add("persistent");
+        for (int i = 1; i < count; i++) {
+            folders.add("persistent_archived_" + (1700000000000L + i * 86_400_000L));
+        }
+        return folders;
+    }
+
+    static String lsOutput(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (String entry : OTHER_ENTRIES) {
+            builder.append(entry).append('\n');
+        }
+        for (String folder : folders(count)) {
+            builder.append(folder).append('\n');
+        }
+        return builder.toString();
+    }
+
+    static String alias(int index) {
+        return index % 5 == 0 ? "Rank Duel #" + index + " (Jake's)" : "Profile " + index;
+    }
+
+    static String metadata(int index) {
+        return "alias=" + alias(index) + "\n"
+                + "lastUpdatedUtc=2024-05-0" + (index % 9 + 1) + "T12\\:34\\:56.789Z\n"
+                + "lastSwitchUtc=2024-06-1" + (index % 9) + "T08\\:00\\:00Z\n";
+    }
+
+    static String enumerationOutput(int count) {
+        StringBuilder builder = new StringBuilder();
+        List<String> folders = folders(count);
+        for (int i = 0; i < folders.size(); i++) {
+            builder.append("@@MDAUC_PROFILE:").append(folders.get(i)).append('\n');
+            if (i % 50 == 49) {
+                builder.append("@@MDAUC_NO_METADATA\n");
+            } else {
+                builder.append(metadata(i));
+            }
+            builder.append("\n@@MDAUC_END\n");
+        }
+        return builder.toString();
+    }
+}
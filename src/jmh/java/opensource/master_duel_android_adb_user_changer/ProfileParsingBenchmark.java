@@ -0,0 +1,69 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileParsingBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int profiles;
+
+    private String devicesOutput;
+    private String lsOutput;
+    private List<String> folders;
+    private String[] metadata;
+    private String enumerationOutput;
+
+    @Setup
+    public void setUp() {
+        devicesOutput = BenchmarkData.devicesOutput(profiles);
+        lsOutput = BenchmarkData.lsOutput(profiles);
+        folders = BenchmarkData.folders(profiles);
+        metadata = new String[profiles];
+        for (int i = 0; i < profiles; i++) {
+            metadata[i] = BenchmarkData.metadata(i);
+        }
+        enumerationOutput = BenchmarkData.enumerationOutput(profiles);
+    }
+
+    @Benchmark
+    public List<DeviceInfo> parseDeviceList() {
+        return AdbService.parseDevices(devicesOutput);
+    }
+
+    @Benchmark
+    public List<String> scanProfileFolders() {
+        return AdbService.profileFolders(lsOutput);
+    }
+
+    @Benchmark
+    public void loadProfileMetadata(Blackhole blackhole) {
+        for (int i = 0; i < profiles; i++) {
+            blackhole.consume(AdbService.toProfile(folders.get(i), metadata[i], ""));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> parseEnumerationOutput() {
+        return ProfileEnumeration.parse(enumerationOutput);
+    }
+}
@@ -0,0 +1,68 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int profiles;
+
+    private final MetadataSerializer serializer = new MetadataSerializer();
+    private Properties[] metadata;
+    private String[] aliases;
+    private CommandResult listingResult;
+
+    @Setup
+    public void setUp() {
+        metadata = new Properties[profiles];
+        aliases = new String[profiles];
+        for (int i = 0; i < profiles; i++) {
+            aliases[i] = BenchmarkData.alias(i);
+            metadata[i] = AdbService.loadMetadata(BenchmarkData.metadata(i));
+        }
+        String listing = BenchmarkData.enumerationOutput(profiles);
+        List<CommandResult.Step> steps = List.of(new CommandResult.Step("enter-files-dir", 0),
+                new CommandResult.Step("check-target", 0), new CommandResult.Step("activate-target", 0));
+        listingResult = new CommandResult(0, listing, "warning: linker: unused DT entry\n",
+                "adb -s emulator-5554 shell su -c 'ls -1 /data/data/jp.konami.masterduel/files'", steps);
+    }
+
+    @Benchmark
+    public void serializeMetadata(Blackhole blackhole) {
+        for (Properties properties : metadata) {
+            blackhole.consume(serializer.serialize(properties));
+        }
+    }
+
+    @Benchmark
+    public void quoteAliases(Blackhole blackhole) {
+        for (String alias : aliases) {
+            blackhole.consume(ShellEscaper.quote(alias));
+        }
+    }
+
+    @Benchmark
+    public String displayListingResult() {
+        return listingResult.toDisplayString();
+    }
+}
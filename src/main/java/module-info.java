@@ -2,6 +2,7 @@ module opensource.master_duel_android_adb_user_changer {
     requires javafx.controls;
     requires javafx.graphics;
     requires javafx.fxml;
+    requires java.management;
 
     exports opensource.master_duel_android_adb_user_changer;
 }
@@ -6,8 +6,8 @@ import java.util.List;
 public class AdbFileWriter {
     private final AdbClient client;
 
-    public AdbFileWriter(String adbPath) {
-        this.client = new AdbClient(adbPath);
+    public AdbFileWriter(AdbClient client) {
+        this.client = client;
     }
 
     public CommandResult writeAsRoot(String serial, String path, byte[] data) {
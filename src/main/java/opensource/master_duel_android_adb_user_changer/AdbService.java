@@ -1,21 +1,65 @@
 package opensource.master_duel_android_adb_user_changer;
 
-import javafx.beans.property.StringProperty;
-
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
-public class AdbService {
+public class AdbService implements AutoCloseable {
     private static final String MASTER_DUEL_FILES = "/data/data/jp.konami.masterduel/files";
     private static final String METADATA_FILE = "master-duel-android-adb-user-changer-metadata.properties";
+    private static final String LISTING_SEPARATOR = "--";
+    private static final DateTimeFormatter BACKUP_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+            .withZone(ZoneId.systemDefault());
+
+    private final AdbSettings settings;
+    private final RootShellSessionPool rootShells = new RootShellSessionPool();
+    private final Map<String, Map<String, String>> deviceProperties = new ConcurrentHashMap<>();
+    private final RootCapabilityCache rootCache = new RootCapabilityCache();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final MetadataStore metadataStore;
+    private final Map<String, ManifestListing> manifestListings = new ConcurrentHashMap<>();
+    private volatile CommandLogListener logListener = CommandLogListener.NONE;
+    private volatile BiConsumer<String, String> liveOutputListener;
+    private DeviceTracker deviceTracker;
 
-    private final StringProperty adbPath;
-    private final MetadataSerializer metadataSerializer = new MetadataSerializer();
+    public AdbService(AdbSettings settings) {
+        this(settings, MetadataStore.defaultJournal());
+    }
 
-    public AdbService(StringProperty adbPath) {
-        this.adbPath = adbPath;
+    public AdbService(AdbSettings settings, Path metadataJournal) {
+        this.settings = settings;
+        this.metadataStore = new MetadataStore(metadataJournal, MASTER_DUEL_FILES, METADATA_FILE, (serial, script) -> {
+            long startedAt = System.nanoTime();
+            manifestListings.remove(serial);
+            CommandResult result = runSu(serial, script);
+            metrics.record("metadata-flush", serial, System.nanoTime() - startedAt, result.isSuccess());
+            logListener.onCommand(serial, "metadata flush", result);
+            return result;
+        }, fields -> manifestUpdate(new ProfileManifest.Change(Map.of(), fields, List.of())),
+                (serial, operation, result) -> logListener.onCommand(serial, operation, result));
+        settings.adbPathProperty().addListener((obs, oldValue, newValue) -> rootShells.closeAll());
+        settings.transportProperty().addListener((obs, oldValue, newValue) -> rootShells.closeAll());
+        settings.serverAddressProperty().addListener((obs, oldValue, newValue) -> {
+            rootShells.closeAll();
+            restartDeviceTracking();
+        });
+        settings.persistentRootShellProperty().addListener((obs, oldValue, newValue) -> rootShells.closeAll());
     }
 
     public CommandResult getAdbVersion() {
@@ -23,60 +67,136 @@ public class AdbService {
     }
 
     public List<DeviceInfo> listDevices() {
-        CommandResult result = client().run(List.of("devices", "-l"));
         List<DeviceInfo> list = new ArrayList<>();
+        listDevices(list);
+        return list;
+    }
+
+    // Adds the devices to the given list and returns the "adb devices" result, so callers can tell a failed query
+    // from an empty device list.
+    public CommandResult listDevices(List<DeviceInfo> devices) {
+        CommandResult result = client().run(List.of("devices", "-l"));
         if (!result.isSuccess()) {
-            return list;
+            return result;
         }
 
-        String[] lines = result.getStdout().split("\\R");
-        for (String line : lines) {
-            if (line.startsWith("List of devices") || line.isBlank()) {
-                continue;
-            }
-            String[] parts = line.trim().split("\\s+");
-            if (parts.length >= 2) {
-                list.add(new DeviceInfo(parts[0], parts[1], line.trim()));
+        List<DeviceInfo> list = parseDevices(result.getStdout());
+        retainOnlineDevices(list);
+        devices.addAll(list);
+        return result;
+    }
+
+    // Subscribes to the adb server's device stream. Devices that disconnect or leave the "device" state lose their
+    // root session and cached root check and properties before the listener hears about it.
+    public void startDeviceTracking(DeviceTracker.Listener listener) {
+        synchronized (this) {
+            if (deviceTracker != null) {
+                deviceTracker.close();
             }
+            deviceTracker = new DeviceTracker(settings::getServerHost, settings::getServerPort, this::startServer,
+                    new DeviceTracker.Listener() {
+                        @Override
+                        public void onDevices(List<DeviceInfo> devices) {
+                            retainOnlineDevices(devices);
+                            listener.onDevices(devices);
+                        }
+
+                        @Override
+                        public void onStatus(boolean tracking, String message) {
+                            listener.onStatus(tracking, message);
+                        }
+                    });
         }
-        return list;
+    }
+
+    private synchronized void restartDeviceTracking() {
+        if (deviceTracker != null) {
+            deviceTracker.restart();
+        }
+    }
+
+    private void startServer() {
+        if (settings.getTransport() == AdbTransport.PROCESS) {
+            client().run(List.of("start-server"));
+        }
+    }
+
+    private void retainOnlineDevices(List<DeviceInfo> devices) {
+        List<String> online = devices.stream()
+                .filter(device -> "device".equals(device.getState()))
+                .map(DeviceInfo::getSerial)
+                .toList();
+        rootShells.retainOnly(online);
+        rootCache.retainOnly(online);
+        deviceProperties.keySet().retainAll(online);
     }
 
     public CommandResult checkRoot(String serial) {
-        return runSu(serial, "id");
+        CommandResult result = runSu(serial, "id");
+        if (result.isSuccess() && result.getStdout().contains("uid=0")) {
+            rootCache.markVerified(serial);
+        } else {
+            rootCache.invalidate(serial);
+        }
+        return result;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public void setLogListener(CommandLogListener logListener) {
+        this.logListener = logListener == null ? CommandLogListener.NONE : logListener;
+    }
+
+    public void setLiveOutputListener(BiConsumer<String, String> liveOutputListener) {
+        this.liveOutputListener = liveOutputListener;
     }
 
     public CommandResult getDeviceInfo(String serial) {
-        List<DeviceProp> props = List.of(
+        List<DeviceProp> props = new ArrayList<>(List.of(
                 new DeviceProp("Model", "ro.product.model"),
                 new DeviceProp("Manufacturer", "ro.product.manufacturer"),
                 new DeviceProp("Android", "ro.build.version.release"),
                 new DeviceProp("SDK", "ro.build.version.sdk"),
                 new DeviceProp("Build", "ro.build.display.id")
-        );
-
-        StringBuilder stdout = new StringBuilder();
-        StringBuilder stderr = new StringBuilder();
-        int exitCode = 0;
+        ));
+        for (String key : settings.getExtraDeviceProperties()) {
+            props.add(new DeviceProp(key, key));
+        }
 
-        for (DeviceProp prop : props) {
-            CommandResult result = runShell(serial, "getprop", prop.key());
-            String value = result.isSuccess() ? result.getStdout().strip() : "(error)";
+        Map<String, String> properties = deviceProperties.get(serial);
+        String commandLine = "adb shell getprop (cached)";
+        if (properties == null) {
+            long startedAt = System.nanoTime();
+            CommandResult result = runShell(serial, DeviceProperties.dumpCommand());
+            metrics.record("getprop", serial, System.nanoTime() - startedAt, result.isSuccess());
             if (!result.isSuccess()) {
-                exitCode = 1;
-                if (!stderr.isEmpty()) {
-                    stderr.append("\n");
-                }
-                stderr.append(prop.label()).append(" -> ").append(result.toDisplayString());
+                return new CommandResult(1, "", "getprop -> " + result.toDisplayString(), result.getCommandLine());
             }
-            stdout.append(prop.label()).append(": ").append(value).append("\n");
+            properties = DeviceProperties.parse(result.getStdout());
+            deviceProperties.put(serial, properties);
+            commandLine = result.getCommandLine();
         }
 
-        return new CommandResult(exitCode, stdout.toString(), stderr.toString(), "adb shell getprop (multi)");
+        StringBuilder stdout = new StringBuilder();
+        for (DeviceProp prop : props) {
+            String value = properties.getOrDefault(prop.key(), "");
+            stdout.append(prop.label()).append(": ").append(value.isBlank() ? "(unknown)" : value).append("\n");
+        }
+
+        return new CommandResult(0, stdout.toString(), "", commandLine);
     }
 
     public List<UserProfile> listUsers(String serial) {
-        CommandResult rootCheck = checkRoot(serial);
+        if (settings.getProfileEnumeration() == ProfileEnumerationMode.MANIFEST) {
+            return listUsersFromManifest(serial);
+        }
+        if (settings.getProfileEnumeration() == ProfileEnumerationMode.SINGLE_COMMAND) {
+            return listUsersInOneCommand(serial);
+        }
+
+        CommandResult rootCheck = verifyRoot(serial);
         if (!rootCheck.isSuccess() || !rootCheck.getStdout().contains("uid=0")) {
             return List.of(UserProfile.error("Root access not available"));
         }
@@ -86,41 +206,171 @@ public class AdbService {
             return List.of(UserProfile.error(listResult.toDisplayString()));
         }
 
+        List<String> folders = profileFolders(listResult.getStdout());
+        List<String> commands = new ArrayList<>();
+        for (String folder : folders) {
+            commands.add("cat " + ShellEscaper.quote(metadataPath(folder)));
+        }
+
+        List<CommandResult> results = runSuAll(serial, commands);
         List<UserProfile> profiles = new ArrayList<>();
-        String[] entries = listResult.getStdout().split("\\R");
-        for (String entry : entries) {
-            String trimmed = entry.trim();
-            if (trimmed.startsWith("persistent")) {
-                profiles.add(loadProfile(serial, trimmed));
+        for (int i = 0; i < folders.size(); i++) {
+            CommandResult result = results.get(i);
+            profiles.add(toProfile(folders.get(i), metadataStore.merge(serial, folders.get(i),
+                            loadMetadata(result.isSuccess() ? result.getStdout() : null)),
+                    result.isSuccess() ? "" : result.getStderr()));
+        }
+        metadataStore.scheduleFlush(serial);
+        return profiles;
+    }
+
+    private List<UserProfile> listUsersInOneCommand(String serial) {
+        CommandResult result = runSu(serial, ProfileEnumeration.script(MASTER_DUEL_FILES, METADATA_FILE));
+        if (!result.isSuccess()) {
+            return List.of(UserProfile.error(result.toDisplayString()));
+        }
+
+        List<UserProfile> profiles = new ArrayList<>();
+        ProfileEnumeration.parse(result.getStdout()).forEach((folder, metadata) ->
+                profiles.add(toProfile(folder, metadataStore.merge(serial, folder, loadMetadata(metadata)),
+                        metadata == null ? "Metadata file not found." : "")));
+        metadataStore.scheduleFlush(serial);
+        return profiles;
+    }
+
+    // Reads the generation and folder names first; the result of the previous refresh is kept when neither changed, and
+    // the per-folder metadata is only read when the manifest is missing, damaged or behind.
+    private List<UserProfile> listUsersFromManifest(String serial) {
+        ManifestListing cached = manifestListings.get(serial);
+        CommandResult result = runSu(serial, ProfileManifest.checkScript(MASTER_DUEL_FILES,
+                cached == null ? null : cached.manifest().generation()));
+        if (!result.isSuccess()) {
+            return List.of(UserProfile.error(result.toDisplayString()));
+        }
+        ProfileManifest.Check check = ProfileManifest.parseCheck(result.getStdout());
+        ManifestListing listing;
+        if (cached != null && check.matches(cached.manifest())) {
+            listing = cached;
+        } else if (check.matches(check.manifest())) {
+            listing = new ManifestListing(check.manifest(), toProfiles(serial, check.manifest()));
+        } else {
+            CommandResult enumeration = runSu(serial, ProfileEnumeration.script(MASTER_DUEL_FILES, METADATA_FILE));
+            if (!enumeration.isSuccess()) {
+                return List.of(UserProfile.error(enumeration.toDisplayString()));
+            }
+            List<ProfileManifest.Entry> entries = new ArrayList<>();
+            ProfileEnumeration.parse(enumeration.getStdout()).forEach((folder, metadata) -> {
+                Properties properties = loadMetadata(metadata);
+                entries.add(new ProfileManifest.Entry(folder, properties.getProperty("alias"),
+                        properties.getProperty("lastUpdatedUtc", ""), properties.getProperty("lastSwitchUtc", ""),
+                        metadata == null));
+            });
+            ProfileManifest rebuilt = new ProfileManifest(check.nextGeneration(), entries);
+            listing = new ManifestListing(rebuilt, toProfiles(serial, rebuilt));
+            if (!installManifest(serial, rebuilt, check.generation())) {
+                manifestListings.remove(serial);
+                metadataStore.scheduleFlush(serial);
+                return listing.profiles();
             }
         }
+        manifestListings.put(serial, listing);
+        metadataStore.scheduleFlush(serial);
+        return metadataStore.hasPending(serial) ? toProfiles(serial, listing.manifest()) : listing.profiles();
+    }
+
+    private List<UserProfile> toProfiles(String serial, ProfileManifest manifest) {
+        List<UserProfile> profiles = new ArrayList<>(manifest.entries().size());
+        for (ProfileManifest.Entry entry : manifest.entries()) {
+            profiles.add(toProfile(entry.folder(), metadataStore.merge(serial, entry.folder(), entry.metadata()),
+                    entry.metadataMissing() ? "Metadata file not found." : ""));
+        }
         return profiles;
     }
 
+    // Uploads the rebuilt manifest and swaps it in only if no other change bumped the generation meanwhile.
+    private boolean installManifest(String serial, ProfileManifest manifest, String expectedGeneration) {
+        String uploaded = MASTER_DUEL_FILES + "/" + ProfileManifest.FILE + ".new";
+        CommandResult written = new AdbFileWriter(client()).writeAsRoot(serial, uploaded, manifest.serialize());
+        CommandResult installed = written.isSuccess()
+                ? runSu(serial, ProfileManifest.installScript(MASTER_DUEL_FILES, uploaded, expectedGeneration))
+                : written;
+        if (!installed.isSuccess()) {
+            logListener.onCommand(serial, "profile manifest", installed);
+        }
+        return installed.isSuccess();
+    }
+
+    // The device scripts of every change carry their own manifest update; only the cached listing is dropped here.
+    private CommandResult afterProfileChange(String serial, CommandResult result) {
+        manifestListings.remove(serial);
+        return result;
+    }
+
+    // Shell code appended to a change that succeeded. Outside manifest mode the manifest is removed instead, since it
+    // would not record the change.
+    private String manifestUpdate(ProfileManifest.Change change) {
+        return settings.getProfileEnumeration() == ProfileEnumerationMode.MANIFEST
+                ? ProfileManifest.updateScript(MASTER_DUEL_FILES, METADATA_FILE, change)
+                : ProfileManifest.discardScript(MASTER_DUEL_FILES);
+    }
+
+    // Moves one folder and, only if that worked, runs the manifest update in the same command.
+    private CommandResult moveFolder(String serial, String from, String to, ProfileManifest.Change change) {
+        return runSu(serial, moveCommand(from, to) + " || exit\n" + manifestUpdate(change));
+    }
+
+    // For the intermediate steps and rollbacks of a switch, which leave the manifest to the final step.
+    private CommandResult moveFolder(String serial, String from, String to) {
+        return runSu(serial, moveCommand(from, to));
+    }
+
+    private static String moveCommand(String from, String to) {
+        return "mv " + ShellEscaper.quote(MASTER_DUEL_FILES + "/" + from) + " "
+                + ShellEscaper.quote(MASTER_DUEL_FILES + "/" + to);
+    }
+
     public CommandResult switchUser(String serial, String targetFolder) {
+        return afterProfileChange(serial, switchUserOnDevice(serial, targetFolder));
+    }
+
+    private CommandResult switchUserOnDevice(String serial, String targetFolder) {
         if ("persistent".equals(targetFolder)) {
             return CommandResult.success("Already active.");
         }
 
-        CommandResult rootCheck = checkRoot(serial);
+        CommandResult rootCheck = verifyRoot(serial);
         if (!rootCheck.isSuccess() || !rootCheck.getStdout().contains("uid=0")) {
             return CommandResult.failure("Root access not available", rootCheck.getStdout());
         }
 
+        CommandResult pendingFailure = flushBeforeChange(serial);
+        if (pendingFailure != null) {
+            return pendingFailure;
+        }
+
         String temp = "persistent__tmp__" + Instant.now().toEpochMilli();
 
-        CommandResult step1 = runSu(serial, "mv " + MASTER_DUEL_FILES + "/persistent " + MASTER_DUEL_FILES + "/" + temp);
+        Map<String, String> swap = Map.of("persistent", targetFolder, targetFolder, "persistent");
+        if (settings.getSwitchMode() == SwitchMode.DEVICE_SCRIPT) {
+            String now = Instant.now().toString();
+            CommandResult result = runSu(serial, SwitchScript.switchUser(MASTER_DUEL_FILES, METADATA_FILE, targetFolder,
+                    temp, now, manifestUpdate(new ProfileManifest.Change(swap,
+                            Map.of("persistent", Map.of("lastSwitchUtc", now)), List.of()))));
+            return SwitchScript.toResult(result, targetFolder, targetFolder);
+        }
+
+        CommandResult step1 = moveFolder(serial, "persistent", temp);
         if (!step1.isSuccess()) {
             return step1;
         }
 
-        CommandResult step2 = runSu(serial, "mv " + MASTER_DUEL_FILES + "/" + targetFolder + " " + MASTER_DUEL_FILES + "/persistent");
+        CommandResult step2 = moveFolder(serial, targetFolder, "persistent");
         if (!step2.isSuccess()) {
-            runSu(serial, "mv " + MASTER_DUEL_FILES + "/" + temp + " " + MASTER_DUEL_FILES + "/persistent");
+            moveFolder(serial, temp, "persistent");
             return step2;
         }
 
-        CommandResult step3 = runSu(serial, "mv " + MASTER_DUEL_FILES + "/" + temp + " " + MASTER_DUEL_FILES + "/" + targetFolder);
+        CommandResult step3 = moveFolder(serial, temp, targetFolder, ProfileManifest.Change.renamed(swap));
         if (!step3.isSuccess()) {
             return step3;
         }
@@ -129,11 +379,41 @@ public class AdbService {
         return CommandResult.success("Switch completed");
     }
 
+    // Journaled locally and written with the next flush; listings show the new alias right away.
     public CommandResult updateAlias(String serial, String folder, String alias) {
-        return writeMetadata(serial, folder, alias, Instant.now().toString(), Instant.now().toString());
+        String now = Instant.now().toString();
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("alias", alias);
+        fields.put("lastUpdatedUtc", now);
+        fields.put("lastSwitchUtc", now);
+        try {
+            metadataStore.update(serial, folder, fields);
+        } catch (IOException ex) {
+            return CommandResult.failure("Cannot record the alias: " + ex.getMessage(), "");
+        }
+        return CommandResult.success("Alias of " + folder + " set to " + alias + ".");
+    }
+
+    public CommandResult flushMetadata(String serial) {
+        return metadataStore.flush(serial);
+    }
+
+    // Pending writes name folders, so they must reach the device before anything renames or copies one. A flush that
+    // gave up on a folder has already reported it and leaves nothing pending, so the change can go ahead.
+    private CommandResult flushBeforeChange(String serial) {
+        if (!metadataStore.hasPending(serial)) {
+            return null;
+        }
+        CommandResult result = metadataStore.flush(serial);
+        return result.isSuccess() || !metadataStore.hasPending(serial) ? null
+                : CommandResult.failure("Pending metadata could not be written first.", result.toDisplayString());
     }
 
     public CommandResult archivePersistent(String serial, String newFolder) {
+        return afterProfileChange(serial, archivePersistentOnDevice(serial, newFolder));
+    }
+
+    private CommandResult archivePersistentOnDevice(String serial, String newFolder) {
         if (newFolder == null || newFolder.isBlank()) {
             return CommandResult.failure("Folder name is required.", "");
         }
@@ -141,11 +421,16 @@ public class AdbService {
             return CommandResult.failure("Folder name must not be persistent.", "");
         }
 
-        CommandResult rootCheck = checkRoot(serial);
+        CommandResult rootCheck = verifyRoot(serial);
         if (!rootCheck.isSuccess() || !rootCheck.getStdout().contains("uid=0")) {
             return CommandResult.failure("Root access not available", rootCheck.getStdout());
         }
 
+        CommandResult pendingFailure = flushBeforeChange(serial);
+        if (pendingFailure != null) {
+            return pendingFailure;
+        }
+
         CommandResult listResult = runSu(serial, "ls -1 " + MASTER_DUEL_FILES);
         if (!listResult.isSuccess()) {
             return listResult;
@@ -156,11 +441,16 @@ public class AdbService {
             }
         }
 
-        return runSu(serial,
-                "mv " + MASTER_DUEL_FILES + "/persistent " + MASTER_DUEL_FILES + "/" + newFolder);
+        return moveFolder(serial, "persistent", newFolder,
+                ProfileManifest.Change.renamed(Map.of("persistent", newFolder)));
     }
 
     public CommandResult switchUserAndArchiveActive(String serial, String targetFolder, String archiveFolder) {
+        return afterProfileChange(serial, switchUserAndArchiveActiveOnDevice(serial, targetFolder, archiveFolder));
+    }
+
+    private CommandResult switchUserAndArchiveActiveOnDevice(String serial, String targetFolder,
+                                                            String archiveFolder) {
         if (targetFolder == null || targetFolder.isBlank()) {
             return CommandResult.failure("Target folder is required.", "");
         }
@@ -177,11 +467,26 @@ public class AdbService {
             return CommandResult.failure("Archive folder must differ from target.", "");
         }
 
-        CommandResult rootCheck = checkRoot(serial);
+        CommandResult rootCheck = verifyRoot(serial);
         if (!rootCheck.isSuccess() || !rootCheck.getStdout().contains("uid=0")) {
             return CommandResult.failure("Root access not available", rootCheck.getStdout());
         }
 
+        CommandResult pendingFailure = flushBeforeChange(serial);
+        if (pendingFailure != null) {
+            return pendingFailure;
+        }
+
+        Map<String, String> renames = Map.of("persistent", archiveFolder, targetFolder, "persistent");
+        if (settings.getSwitchMode() == SwitchMode.DEVICE_SCRIPT) {
+            // Without an active profile the update finds no "persistent" entry and falls back to a bump.
+            String now = Instant.now().toString();
+            CommandResult result = runSu(serial, SwitchScript.switchUserAndArchiveActive(MASTER_DUEL_FILES,
+                    METADATA_FILE, targetFolder, archiveFolder, now, manifestUpdate(new ProfileManifest.Change(renames,
+                            Map.of("persistent", Map.of("lastSwitchUtc", now)), List.of()))));
+            return SwitchScript.toResult(result, targetFolder, archiveFolder);
+        }
+
         CommandResult listResult = runSu(serial, "ls -1 " + MASTER_DUEL_FILES);
         if (!listResult.isSuccess()) {
             return listResult;
@@ -209,8 +514,8 @@ public class AdbService {
         }
 
         if (!persistentExists) {
-            CommandResult promote = runSu(serial,
-                    "mv " + MASTER_DUEL_FILES + "/" + targetFolder + " " + MASTER_DUEL_FILES + "/persistent");
+            CommandResult promote = moveFolder(serial, targetFolder, "persistent",
+                    ProfileManifest.Change.renamed(Map.of(targetFolder, "persistent")));
             if (!promote.isSuccess()) {
                 return promote;
             }
@@ -218,17 +523,14 @@ public class AdbService {
             return CommandResult.success("Switch completed");
         }
 
-        CommandResult step1 = runSu(serial,
-                "mv " + MASTER_DUEL_FILES + "/persistent " + MASTER_DUEL_FILES + "/" + archiveFolder);
+        CommandResult step1 = moveFolder(serial, "persistent", archiveFolder);
         if (!step1.isSuccess()) {
             return step1;
         }
 
-        CommandResult step2 = runSu(serial,
-                "mv " + MASTER_DUEL_FILES + "/" + targetFolder + " " + MASTER_DUEL_FILES + "/persistent");
+        CommandResult step2 = moveFolder(serial, targetFolder, "persistent", ProfileManifest.Change.renamed(renames));
         if (!step2.isSuccess()) {
-            runSu(serial,
-                "mv " + MASTER_DUEL_FILES + "/" + archiveFolder + " " + MASTER_DUEL_FILES + "/persistent");
+            moveFolder(serial, archiveFolder, "persistent");
             return step2;
         }
 
@@ -236,65 +538,583 @@ public class AdbService {
         return CommandResult.success("Switch completed");
     }
 
-    private void updateLastSwitch(String serial, String folder) {
-        String alias = readAlias(serial, folder);
-        writeMetadata(serial, folder, alias, null, Instant.now().toString());
+    public CommandResult activateProfile(String serial, String folderOrAlias) {
+        if (folderOrAlias == null || folderOrAlias.isBlank()) {
+            return CommandResult.failure("Folder or alias is required.", "");
+        }
+        List<UserProfile> profiles = listUsers(serial);
+        CommandResult listingError = listingError(profiles);
+        if (listingError != null) {
+            return listingError;
+        }
+
+        String wanted = folderOrAlias.strip();
+        List<UserProfile> matches = profiles.stream()
+                .filter(profile -> wanted.equals(profile.getFolderName()))
+                .toList();
+        if (matches.isEmpty()) {
+            matches = profiles.stream()
+                    .filter(profile -> wanted.equalsIgnoreCase(profile.getAlias()))
+                    .toList();
+        }
+        if (matches.isEmpty()) {
+            return CommandResult.failure("No profile named " + wanted + ".", "");
+        }
+        if (matches.size() > 1) {
+            return CommandResult.failure("Alias " + wanted + " matches " + matches.size() + " profiles.", "");
+        }
+
+        UserProfile target = matches.get(0);
+        if (target.isActive()) {
+            return CommandResult.success("Already active.");
+        }
+        String archiveFolder = uniqueArchiveName(profiles);
+        return switchUserAndArchiveActive(serial, target.getFolderName(), archiveFolder);
     }
 
-    private UserProfile loadProfile(String serial, String folder) {
-        String path = MASTER_DUEL_FILES + "/" + folder + "/" + METADATA_FILE;
-        CommandResult result = runSu(serial, "cat " + ShellEscaper.quote(path));
-        Properties properties = new Properties();
-        String alias = folder;
-        if (result.isSuccess()) {
-            try {
-                properties.load(new java.io.StringReader(result.getStdout()));
-                alias = properties.getProperty("alias", folder);
-            } catch (Exception ignored) {
-                alias = folder;
+    public CommandResult archiveActive(String serial) {
+        List<UserProfile> profiles = listUsers(serial);
+        CommandResult listingError = listingError(profiles);
+        if (listingError != null) {
+            return listingError;
+        }
+        if (profiles.stream().noneMatch(UserProfile::isActive)) {
+            return CommandResult.failure("No active user found.", "");
+        }
+        String archiveFolder = uniqueArchiveName(profiles);
+        CommandResult result = archivePersistent(serial, archiveFolder);
+        return result.isSuccess() ? CommandResult.success("Renamed to " + archiveFolder + ".") : result;
+    }
+
+    public CommandResult backupProfile(String serial, String folder, Path directory) {
+        return backupProfile(serial, folder, directory, (bytes, expectedBytes) -> { });
+    }
+
+    // Streams "tar -c" of the folder over exec, which is binary-safe, into a .tar.gz under directory.
+    public CommandResult backupProfile(String serial, String folder, Path directory,
+                                       BiConsumer<Long, Long> progress) {
+        CommandResult source = checkBackupSource(serial, folder);
+        if (!source.isSuccess()) {
+            return source;
+        }
+        long expectedBytes = parseDiskUsageKilobytes(source.getStdout()) * 1024;
+
+        Path target = directory.resolve(serial.replaceAll("[^A-Za-z0-9._-]", "_") + "_" + folder + "_"
+                + BACKUP_TIME.format(Instant.now()) + ".tar.gz");
+        String status = tarStatusFile();
+        String command = profileTarCommand(folder, status);
+        long startedAt = System.nanoTime();
+        try (AdbShellChannel channel = client().openExec(serial, command)) {
+            long bytes = ProfileArchiver.writeArchive(channel.getInputStream(), target, expectedBytes, progress);
+            CommandResult tarResult = tarStatus(serial, status);
+            if (!tarResult.isSuccess()) {
+                Files.deleteIfExists(target);
+                metrics.record("backup", serial, System.nanoTime() - startedAt, false);
+                return new CommandResult(1, "Backup of " + folder + " failed: tar reported an error on the device.\n"
+                        + tarResult.getStdout(), "", "exec:" + command);
             }
+            long elapsedNanos = System.nanoTime() - startedAt;
+            metrics.record("backup", serial, elapsedNanos, true);
+            return new CommandResult(0, String.format("Backed up %s to %s (%.1f MB of tar in %.1f s).", folder, target,
+                    bytes / 1_048_576.0, elapsedNanos / 1e9), "", "exec:" + command);
+        } catch (IOException ex) {
+            tarStatus(serial, status);
+            metrics.record("backup", serial, System.nanoTime() - startedAt, false);
+            return new CommandResult(1, "Backup of " + folder + " failed: " + ex.getMessage(), "", "exec:" + command);
         }
-        boolean active = "persistent".equals(folder);
-        return new UserProfile(folder, alias, active, path, result.isSuccess() ? "" : result.getStderr());
     }
 
-    private String readAlias(String serial, String folder) {
-        String path = MASTER_DUEL_FILES + "/" + folder + "/" + METADATA_FILE;
-        CommandResult result = runSu(serial, "cat " + ShellEscaper.quote(path));
+    // Same stream as backupProfile, but split into chunks in the repository so only content it lacks is stored.
+    public CommandResult snapshotProfile(String serial, String folder, BackupRepository repository,
+                                         BiConsumer<Long, Long> progress) {
+        CommandResult source = checkBackupSource(serial, folder);
+        if (!source.isSuccess()) {
+            return source;
+        }
+        long expectedBytes = parseDiskUsageKilobytes(source.getStdout()) * 1024;
+
+        String status = tarStatusFile();
+        String command = profileTarCommand(folder, status);
+        long startedAt = System.nanoTime();
+        try (AdbShellChannel channel = client().openExec(serial, command)) {
+            SnapshotManifest manifest = repository.createSnapshot(serial, folder, channel.getInputStream(),
+                    expectedBytes, progress);
+            CommandResult tarResult = tarStatus(serial, status);
+            if (!tarResult.isSuccess()) {
+                // Its chunks stay until the next garbage collection.
+                repository.deleteSnapshot(manifest.id());
+                metrics.record("snapshot", serial, System.nanoTime() - startedAt, false);
+                return new CommandResult(1, "Snapshot of " + folder + " failed: tar reported an error on the device.\n"
+                        + tarResult.getStdout(), "", "exec:" + command);
+            }
+            long elapsedNanos = System.nanoTime() - startedAt;
+            metrics.record("snapshot", serial, elapsedNanos, true);
+            return new CommandResult(0, String.format(
+                    "Snapshot %s: %d file(s), %.1f MB, %.1f MB new in the repository (%.1f s).", manifest.id(),
+                    manifest.files(), manifest.logicalBytes() / 1_048_576.0, manifest.newBytes() / 1_048_576.0,
+                    elapsedNanos / 1e9), "", "exec:" + command);
+        } catch (IOException ex) {
+            tarStatus(serial, status);
+            metrics.record("snapshot", serial, System.nanoTime() - startedAt, false);
+            return new CommandResult(1, "Snapshot of " + folder + " failed: " + ex.getMessage(), "",
+                    "exec:" + command);
+        }
+    }
+
+    // One find/stat/sha1sum pass lists the folder on the device. Only files that differ from the newest snapshot of
+    // the folder are then sent, as one tar built from a file list; the rest is taken from that snapshot.
+    public CommandResult syncProfile(String serial, String folder, BackupRepository repository,
+                                     BiConsumer<Long, Long> progress) {
+        if (!isPlainFolderName(folder)) {
+            return CommandResult.failure("Invalid profile folder: " + folder, "");
+        }
+        CommandResult rootCheck = verifyRoot(serial);
+        if (!rootCheck.isSuccess() || !rootCheck.getStdout().contains("uid=0")) {
+            return CommandResult.failure("Root access not available", rootCheck.getStdout());
+        }
+        CommandResult pendingFailure = flushBeforeChange(serial);
+        if (pendingFailure != null) {
+            return pendingFailure;
+        }
+        long startedAt = System.nanoTime();
+        CommandResult listing = runSu(serial, profileListingScript(folder));
+        if (!listing.isSuccess()) {
+            return CommandResult.failure("Profile folder not found: " + folder,
+                    listing.getStdout() + listing.getStderr());
+        }
+        List<SnapshotManifest.Entry> entries = parseProfileListing(listing.getStdout());
+        BackupRepository.SyncPlan plan;
+        try {
+            plan = entries == null ? null : repository.planSync(serial, folder, entries);
+        } catch (IOException ex) {
+            return CommandResult.failure("Cannot read the snapshot repository: " + ex.getMessage(), "");
+        }
+        if (plan == null) {
+            CommandResult full = snapshotProfile(serial, folder, repository, progress);
+            String reason = entries == null ? "File names could not be listed reliably"
+                    : "No earlier snapshot of " + folder + " from " + serial;
+            return full.isSuccess()
+                    ? new CommandResult(0, reason + "; took a full snapshot. " + full.getStdout(), full.getStderr(),
+                    full.getCommandLine())
+                    : full;
+        }
+
+        String list = "/data/local/tmp/mdauc-sync-" + Instant.now().toEpochMilli() + ".list";
+        String status = tarStatusFile();
+        String command = "su -c " + ShellEscaper.quote("tar -cf - -C " + MASTER_DUEL_FILES + " -T " + list
+                + tarStatusSuffix(status) + "; rm -f " + list) + " 2>/dev/null";
+        try {
+            SnapshotManifest manifest;
+            if (plan.transfer().isEmpty()) {
+                manifest = repository.createSnapshot(serial, folder, plan, null, 0, progress);
+            } else {
+                byte[] names = (String.join("\n", plan.transfer()) + "\n").getBytes(StandardCharsets.UTF_8);
+                CommandResult written = new AdbFileWriter(client()).writeAsRoot(serial, list, names);
+                if (!written.isSuccess()) {
+                    metrics.record("sync", serial, System.nanoTime() - startedAt, false);
+                    return CommandResult.failure("Cannot write the file list to " + list + ".",
+                            written.getStdout() + written.getStderr());
+                }
+                try (AdbShellChannel channel = client().openExec(serial, command)) {
+                    manifest = repository.createSnapshot(serial, folder, plan, channel.getInputStream(),
+                            plan.transferBytes(), progress);
+                }
+                CommandResult tarResult = tarStatus(serial, status);
+                if (!tarResult.isSuccess()) {
+                    repository.deleteSnapshot(manifest.id());
+                    metrics.record("sync", serial, System.nanoTime() - startedAt, false);
+                    return new CommandResult(1, "Sync of " + folder + " failed: tar reported an error on the device.\n"
+                            + tarResult.getStdout(), "", "exec:" + command);
+                }
+            }
+            long elapsedNanos = System.nanoTime() - startedAt;
+            metrics.record("sync", serial, elapsedNanos, true);
+            long total = plan.transferBytes() + plan.skippedBytes();
+            return new CommandResult(0, String.format(
+                    "Synced %s as %s: sent %d of %d file(s), %.1f MB; skipped %.1f MB of %.1f MB (%.0f%%) already in "
+                            + "%s; %.1f MB new in the repository (%.1f s).", folder, manifest.id(),
+                    plan.transfer().size(), manifest.files(), plan.transferBytes() / 1_048_576.0,
+                    plan.skippedBytes() / 1_048_576.0, total / 1_048_576.0,
+                    total == 0 ? 100.0 : 100.0 * plan.skippedBytes() / total, plan.baseId(),
+                    manifest.newBytes() / 1_048_576.0, elapsedNanos / 1e9), "", "exec:" + command);
+        } catch (IOException ex) {
+            runSu(serial, "rm -f " + list);
+            tarStatus(serial, status);
+            metrics.record("sync", serial, System.nanoTime() - startedAt, false);
+            return new CommandResult(1, "Sync of " + folder + " failed: " + ex.getMessage(), "", "exec:" + command);
+        }
+    }
+
+    private static String profileListingScript(String folder) {
+        String quoted = ShellEscaper.quote(folder);
+        return "cd " + ShellEscaper.quote(MASTER_DUEL_FILES) + " || exit 1\n"
+                + "find " + quoted + " -exec stat -c '%F|%a|%Y|%s|%n' {} + || exit 2\n"
+                + "echo " + LISTING_SEPARATOR + "\n"
+                + "find " + quoted + " -type f -exec sha1sum {} + || exit 3\n";
+    }
+
+    // Returns null when a name cannot be represented, such as one containing a newline, so callers can fall back to
+    // a full snapshot.
+    static List<SnapshotManifest.Entry> parseProfileListing(String output) {
+        List<TarEntry> listed = new ArrayList<>();
+        Map<String, String> checksums = new HashMap<>();
+        boolean inChecksums = false;
+        for (String line : output.split("\\R")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (LISTING_SEPARATOR.equals(line)) {
+                inChecksums = true;
+            } else if (inChecksums) {
+                if (line.length() < 43 || line.charAt(40) != ' ' || line.startsWith("\\")) {
+                    return null;
+                }
+                checksums.put(line.substring(42), line.substring(0, 40));
+            } else {
+                String[] fields = line.split("\\|", 5);
+                if (fields.length != 5) {
+                    return null;
+                }
+                char type = switch (fields[0]) {
+                    case "regular file", "regular empty file" -> TarEntry.FILE;
+                    case "directory" -> TarEntry.DIRECTORY;
+                    case "symbolic link" -> TarEntry.SYMLINK;
+                    default -> 0;
+                };
+                if (type == 0) {
+                    return null;
+                }
+                try {
+                    listed.add(new TarEntry(fields[4], type, Integer.parseInt(fields[1], 8), Long.parseLong(fields[2]),
+                            type == TarEntry.FILE ? Long.parseLong(fields[3]) : 0, ""));
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+            }
+        }
+        if (!inChecksums || listed.isEmpty()) {
+            return null;
+        }
+        List<SnapshotManifest.Entry> entries = new ArrayList<>();
+        for (TarEntry entry : listed) {
+            String sha1 = checksums.get(entry.path());
+            if (entry.isFile() && sha1 == null) {
+                return null;
+            }
+            entries.add(new SnapshotManifest.Entry(entry, entry.isFile() ? sha1 : "", List.of()));
+        }
+        return entries;
+    }
+
+    private CommandResult checkBackupSource(String serial, String folder) {
+        if (!isPlainFolderName(folder)) {
+            return CommandResult.failure("Invalid profile folder: " + folder, "");
+        }
+        CommandResult rootCheck = verifyRoot(serial);
+        if (!rootCheck.isSuccess() || !rootCheck.getStdout().contains("uid=0")) {
+            return CommandResult.failure("Root access not available", rootCheck.getStdout());
+        }
+        CommandResult pendingFailure = flushBeforeChange(serial);
+        if (pendingFailure != null) {
+            return pendingFailure;
+        }
+        CommandResult size = runSu(serial, "du -sk " + ShellEscaper.quote(MASTER_DUEL_FILES + "/" + folder));
+        if (!size.isSuccess()) {
+            return CommandResult.failure("Profile folder not found: " + folder, size.getStdout() + size.getStderr());
+        }
+        return size;
+    }
+
+    // exec has no exit status, and tar's stderr would mix into the archive, so both go to files next to status.
+    private static String profileTarCommand(String folder, String status) {
+        return "su -c " + ShellEscaper.quote("tar -cf - -C " + MASTER_DUEL_FILES + " "
+                + ShellEscaper.quote(folder) + tarStatusSuffix(status)) + " 2>/dev/null";
+    }
+
+    private static String tarStatusFile() {
+        return "/data/local/tmp/mdauc-tar-" + UUID.randomUUID();
+    }
+
+    private static String tarStatusSuffix(String status) {
+        return " 2>" + status + ".err; echo $? > " + status + ".tmp; mv " + status + ".tmp " + status;
+    }
+
+    // Succeeds when tar exited with 0; the output holds what tar printed to stderr. The status files are removed
+    // either way. The exec stream can end just before the status is renamed into place, so it is waited for briefly.
+    private CommandResult tarStatus(String serial, String status) {
+        return runSu(serial, "s=" + status + "\n"
+                + "i=0; while [ ! -f \"$s\" ] && [ $i -lt 50 ]; do sleep 0.2; i=$((i + 1)); done\n"
+                + "rc=$(cat \"$s\" 2>/dev/null); cat \"$s.err\" 2>/dev/null\n"
+                + "rm -f \"$s\" \"$s.tmp\" \"$s.err\"\n"
+                + "[ \"$rc\" = 0 ]\n");
+    }
+
+    private static CommandResult listingError(List<UserProfile> profiles) {
+        for (UserProfile profile : profiles) {
+            if ("(error)".equals(profile.getFolderName())) {
+                return CommandResult.failure("User listing failed.", profile.getWarning());
+            }
+        }
+        return null;
+    }
+
+    private static String uniqueArchiveName(List<UserProfile> profiles) {
+        String base = "persistent_archived_" + Instant.now().toEpochMilli();
+        String candidate = base;
+        int index = 1;
+        while (true) {
+            String name = candidate;
+            if (profiles.stream().noneMatch(profile -> name.equals(profile.getFolderName()))) {
+                return candidate;
+            }
+            candidate = base + "_" + index;
+            index++;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (deviceTracker != null) {
+                deviceTracker.close();
+                deviceTracker = null;
+            }
+        }
+        metadataStore.close();
+        rootShells.close();
+    }
+
+    private void updateLastSwitch(String serial, String folder) {
+        try {
+            metadataStore.update(serial, folder, Map.of("lastSwitchUtc", Instant.now().toString()));
+        } catch (IOException ex) {
+            logListener.onCommand(serial, "metadata journal", CommandResult.failure(
+                    "Cannot record the switch time: " + ex.getMessage(), ""));
+        }
+    }
+
+    private CommandResult verifyRoot(String serial) {
+        Duration ttl = Duration.ofSeconds(settings.getRootCacheTtlSeconds());
+        Duration age = rootCache.age(serial, ttl);
+        if (age != null) {
+            logListener.onCommand(serial, "root cache hit", CommandResult.success(
+                    serial + ": root verified " + age.toSeconds() + "s ago (TTL " + ttl.toSeconds() + "s), uid=0"));
+            return CommandResult.success("uid=0 (cached)");
+        }
+        CommandResult result = checkRoot(serial);
+        logListener.onCommand(serial, "root cache miss", result);
+        return result;
+    }
+
+    public CommandResult restoreProfile(String serial, Path archive, String targetFolder) {
+        return restoreProfile(serial, archive, targetFolder, (bytes, expectedBytes) -> { });
+    }
+
+    // Streams the decompressed archive through exec-in into "tar -x" in a staging folder, so no more than one buffer
+    // of the profile is ever held in memory, then moves it into place as targetFolder.
+    public CommandResult restoreProfile(String serial, Path archive, String targetFolder,
+                                        BiConsumer<Long, Long> progress) {
+        String sourceFolder;
+        try {
+            sourceFolder = ProfileArchiver.topLevelFolder(archive);
+        } catch (IOException ex) {
+            return CommandResult.failure("Cannot read " + archive + ": " + ex.getMessage(), "");
+        }
+        return streamRestore(serial, sourceFolder, targetFolder, archive.getFileName().toString(), "restore",
+                upload -> ProfileArchiver.readArchive(archive, upload, progress));
+    }
+
+    // The tar is rebuilt from the repository's chunks while it is being uploaded.
+    public CommandResult restoreSnapshot(String serial, BackupRepository repository, String snapshotId,
+                                         String targetFolder, BiConsumer<Long, Long> progress) {
+        SnapshotManifest snapshot;
+        try {
+            snapshot = repository.readSnapshot(snapshotId);
+        } catch (IOException ex) {
+            return CommandResult.failure("Cannot read snapshot " + snapshotId + ": " + ex.getMessage(), "");
+        }
+        return streamRestore(serial, snapshot.folder(), targetFolder, "snapshot " + snapshotId, "snapshot-restore",
+                upload -> repository.writeTar(snapshotId, upload, progress));
+    }
+
+    private CommandResult streamRestore(String serial, String sourceFolder, String targetFolder, String source,
+                                        String operation, TarUpload tar) {
+        if (!isPlainFolderName(targetFolder)) {
+            return CommandResult.failure("Invalid profile folder: " + targetFolder, "");
+        }
+        if ("persistent".equals(targetFolder)) {
+            return CommandResult.failure("Restore into a new folder, then activate it.", "");
+        }
+        CommandResult rootCheck = verifyRoot(serial);
+        if (!rootCheck.isSuccess() || !rootCheck.getStdout().contains("uid=0")) {
+            return CommandResult.failure("Root access not available", rootCheck.getStdout());
+        }
+        String targetPath = ShellEscaper.quote(MASTER_DUEL_FILES + "/" + targetFolder);
+        if (!runSu(serial, "[ ! -e " + targetPath + " ]").isSuccess()) {
+            return CommandResult.failure("Folder already exists: " + targetFolder, "");
+        }
+
+        String staging = "/data/local/tmp/mdauc-restore-" + Instant.now().toEpochMilli();
+        String command = "su -c " + ShellEscaper.quote(SwitchScript.extractCommand(staging)) + " 2>/dev/null";
+        long startedAt = System.nanoTime();
+        try (AdbShellChannel channel = client().openExecIn(serial, command)) {
+            IOException uploadFailure = null;
+            try (OutputStream upload = channel.getOutputStream()) {
+                tar.writeTo(upload);
+            } catch (IOException ex) {
+                uploadFailure = ex;
+            }
+            // adb ends the stream once stdin is sent, not when tar exits; the device scripts wait for the extract.
+            channel.getInputStream().transferTo(OutputStream.nullOutputStream());
+            if (uploadFailure != null) {
+                throw uploadFailure;
+            }
+        } catch (IOException ex) {
+            runSu(serial, SwitchScript.discardRestore(staging));
+            metrics.record(operation, serial, System.nanoTime() - startedAt, false);
+            return new CommandResult(1, "Restore of " + source + " failed: " + ex.getMessage(), "",
+                    "exec:" + command);
+        }
+
+        String finish = SwitchScript.restoreProfile(MASTER_DUEL_FILES, staging, sourceFolder, targetFolder,
+                manifestUpdate(new ProfileManifest.Change(Map.of(), Map.of(), List.of(targetFolder))));
+        CommandResult result = afterProfileChange(serial,
+                SwitchScript.restoreResult(runSu(serial, finish), targetFolder));
+        metrics.record(operation, serial, System.nanoTime() - startedAt, result.isSuccess());
         if (!result.isSuccess()) {
-            return folder;
+            return result;
         }
-        Properties properties = new Properties();
+        return new CommandResult(0, String.format("Restored %s from %s as %s in %.1f s.", sourceFolder, source,
+                targetFolder, (System.nanoTime() - startedAt) / 1e9), result.getStderr(), result.getCommandLine(),
+                result.getSteps());
+    }
+
+    private static boolean isPlainFolderName(String folder) {
+        return folder != null && !folder.isBlank() && !folder.contains("/") && !folder.startsWith(".");
+    }
+
+    private static long parseDiskUsageKilobytes(String output) {
+        String[] fields = output.strip().split("\\s+");
         try {
-            properties.load(new java.io.StringReader(result.getStdout()));
-            return properties.getProperty("alias", folder);
-        } catch (Exception ignored) {
-            return folder;
+            return fields.length == 0 ? 0 : Long.parseLong(fields[0]);
+        } catch (NumberFormatException ex) {
+            return 0;
         }
     }
 
-    private CommandResult writeMetadata(String serial, String folder, String alias, String lastUpdatedUtc, String lastSwitchUtc) {
-        String path = MASTER_DUEL_FILES + "/" + folder + "/" + METADATA_FILE;
-        Properties properties = new Properties();
-        properties.setProperty("alias", alias);
-        if (lastUpdatedUtc != null) {
-            properties.setProperty("lastUpdatedUtc", lastUpdatedUtc);
+    static List<DeviceInfo> parseDevices(String output) {
+        List<DeviceInfo> list = new ArrayList<>();
+        for (String line : output.split("\\R")) {
+            if (line.startsWith("List of devices") || line.isBlank()) {
+                continue;
+            }
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length >= 2) {
+                list.add(new DeviceInfo(parts[0], parts[1], line.trim()));
+            }
         }
-        if (lastSwitchUtc != null) {
-            properties.setProperty("lastSwitchUtc", lastSwitchUtc);
+        return list;
+    }
+
+    static List<String> profileFolders(String lsOutput) {
+        List<String> folders = new ArrayList<>();
+        for (String entry : lsOutput.split("\\R")) {
+            String trimmed = entry.trim();
+            if (trimmed.startsWith("persistent")) {
+                folders.add(trimmed);
+            }
+        }
+        return folders;
+    }
+
+    static Properties loadMetadata(String metadata) {
+        Properties properties = new Properties();
+        if (metadata != null) {
+            try {
+                properties.load(new java.io.StringReader(metadata));
+            } catch (Exception ignored) {
+                properties.clear();
+            }
         }
+        return properties;
+    }
 
-        byte[] payload = metadataSerializer.serialize(properties);
-        AdbFileWriter writer = new AdbFileWriter(adbPath.get());
-        return writer.writeAsRoot(serial, path, payload);
+    static String metadataPath(String folder) {
+        return MASTER_DUEL_FILES + "/" + folder + "/" + METADATA_FILE;
+    }
+
+    static UserProfile toProfile(String folder, String metadata, String warning) {
+        return toProfile(folder, loadMetadata(metadata), warning);
+    }
+
+    private static UserProfile toProfile(String folder, Properties properties, String warning) {
+        String path = metadataPath(folder);
+        boolean active = "persistent".equals(folder);
+        return new UserProfile(folder, properties.getProperty("alias", folder), active, path, warning,
+                properties.getProperty("lastUpdatedUtc", ""), properties.getProperty("lastSwitchUtc", ""));
     }
 
     private AdbClient client() {
-        return new AdbClient(adbPath.get());
+        return settings.createClient(metrics);
     }
 
     private CommandResult runSu(String serial, String command) {
-        return runShell(serial, "su", "-c", command);
+        return runSuAll(serial, List.of(command)).get(0);
+    }
+
+    private List<CommandResult> runSuAll(String serial, List<String> commands) {
+        if (commands.isEmpty()) {
+            return List.of();
+        }
+        long startedAt = System.nanoTime();
+        List<CommandResult> results = null;
+        if (settings.isPersistentRootShell()) {
+            try {
+                results = rootShells.executeAll(client(), serial, commands, AdbClient.DEFAULT_TIMEOUT,
+                        outputListener(serial));
+            } catch (IOException ignored) {
+                // No usable su session; fall back to one su process per command.
+            }
+        }
+        if (results == null) {
+            results = new ArrayList<>();
+            for (String command : commands) {
+                results.add(runShell(serial, "su", "-c", ShellEscaper.quote(command)));
+            }
+        }
+        // Batched commands share one round trip, so each one is charged an equal share of it.
+        long share = (System.nanoTime() - startedAt) / commands.size();
+        for (int i = 0; i < commands.size(); i++) {
+            metrics.record(suOperation(commands.get(i)), serial, share, results.get(i).isSuccess());
+        }
+        for (CommandResult result : results) {
+            if (isSuFailure(result)) {
+                rootCache.invalidate(serial);
+                break;
+            }
+        }
+        return results;
+    }
+
+    private static String suOperation(String command) {
+        String trimmed = command.stripLeading();
+        for (String verb : List.of("ls", "cat", "mv")) {
+            if (trimmed.startsWith(verb + " ")) {
+                return verb;
+            }
+        }
+        return trimmed.equals("id") ? "su" : "su-script";
+    }
+
+    private static boolean isSuFailure(CommandResult result) {
+        if (result.isSuccess()) {
+            return false;
+        }
+        if (result.getExitCode() == 127) {
+            return true;
+        }
+        String text = (result.getStdout() + "\n" + result.getStderr()).toLowerCase(Locale.ROOT);
+        return text.contains("su: ") || text.contains("permission denied") || text.contains("root shell session lost");
     }
 
     private CommandResult runShell(String serial, String... shellArgs) {
@@ -305,9 +1125,29 @@ public class AdbService {
         for (String arg : shellArgs) {
             args.add(arg);
         }
-        return client().run(args);
+        return client().run(args, AdbClient.DEFAULT_TIMEOUT, null, outputListener(serial));
+    }
+
+    private CommandOutputListener outputListener(String serial) {
+        BiConsumer<String, String> target = liveOutputListener;
+        if (target == null) {
+            return CommandOutputListener.NONE;
+        }
+        return new CommandOutputListener() {
+            @Override
+            public void onLine(Stream stream, String line) {
+                target.accept(serial, stream == Stream.STDERR ? "! " + line : line);
+            }
+        };
+    }
+
+    private record ManifestListing(ProfileManifest manifest, List<UserProfile> profiles) {
     }
 
     private record DeviceProp(String label, String key) {
     }
+
+    private interface TarUpload {
+        void writeTo(OutputStream upload) throws IOException;
+    }
 }
@@ -0,0 +1,135 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class AdbSettings {
+    public static final String DEFAULT_SERVER_HOST = "localhost";
+    public static final int DEFAULT_SERVER_PORT = 5037;
+
+    private final StringProperty adbPath = new SimpleStringProperty("adb");
+    private final ObjectProperty<AdbTransport> transport = new SimpleObjectProperty<>(AdbTransport.PROCESS);
+    private final StringProperty serverAddress =
+            new SimpleStringProperty(DEFAULT_SERVER_HOST + ":" + DEFAULT_SERVER_PORT);
+    private final BooleanProperty persistentRootShell = new SimpleBooleanProperty(true);
+    private final ObjectProperty<ProfileEnumerationMode> profileEnumeration =
+            new SimpleObjectProperty<>(ProfileEnumerationMode.MANIFEST);
+    private final ObjectProperty<SwitchMode> switchMode = new SimpleObjectProperty<>(SwitchMode.DEVICE_SCRIPT);
+    private final IntegerProperty rootCacheTtlSeconds = new SimpleIntegerProperty(300);
+    private final StringProperty extraDeviceProperties = new SimpleStringProperty(String.join(", ",
+            "ro.product.cpu.abi", DeviceProperties.KERNEL_RELEASE, DeviceProperties.SELINUX_MODE));
+
+    public StringProperty adbPathProperty() {
+        return adbPath;
+    }
+
+    public String getAdbPath() {
+        return adbPath.get();
+    }
+
+    public ObjectProperty<AdbTransport> transportProperty() {
+        return transport;
+    }
+
+    public AdbTransport getTransport() {
+        return transport.get() == null ? AdbTransport.PROCESS : transport.get();
+    }
+
+    public StringProperty serverAddressProperty() {
+        return serverAddress;
+    }
+
+    public String getServerHost() {
+        String address = serverAddress.get();
+        if (address == null || address.isBlank()) {
+            return DEFAULT_SERVER_HOST;
+        }
+        int separator = address.lastIndexOf(':');
+        String host = separator < 0 ? address.strip() : address.substring(0, separator).strip();
+        return host.isEmpty() ? DEFAULT_SERVER_HOST : host;
+    }
+
+    public int getServerPort() {
+        String address = serverAddress.get();
+        if (address == null) {
+            return DEFAULT_SERVER_PORT;
+        }
+        int separator = address.lastIndexOf(':');
+        if (separator < 0) {
+            return DEFAULT_SERVER_PORT;
+        }
+        try {
+            return Integer.parseInt(address.substring(separator + 1).strip());
+        } catch (NumberFormatException ex) {
+            return DEFAULT_SERVER_PORT;
+        }
+    }
+
+    public BooleanProperty persistentRootShellProperty() {
+        return persistentRootShell;
+    }
+
+    public boolean isPersistentRootShell() {
+        return persistentRootShell.get();
+    }
+
+    public ObjectProperty<ProfileEnumerationMode> profileEnumerationProperty() {
+        return profileEnumeration;
+    }
+
+    public ProfileEnumerationMode getProfileEnumeration() {
+        return profileEnumeration.get() == null ? ProfileEnumerationMode.MANIFEST : profileEnumeration.get();
+    }
+
+    public StringProperty extraDevicePropertiesProperty() {
+        return extraDeviceProperties;
+    }
+
+    public List<String> getExtraDeviceProperties() {
+        String value = extraDeviceProperties.get();
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split("[,\\s]+"))
+                .filter(key -> !key.isBlank())
+                .toList();
+    }
+
+    public ObjectProperty<SwitchMode> switchModeProperty() {
+        return switchMode;
+    }
+
+    public SwitchMode getSwitchMode() {
+        return switchMode.get() == null ? SwitchMode.DEVICE_SCRIPT : switchMode.get();
+    }
+
+    public IntegerProperty rootCacheTtlSecondsProperty() {
+        return rootCacheTtlSeconds;
+    }
+
+    public int getRootCacheTtlSeconds() {
+        return Math.max(0, rootCacheTtlSeconds.get());
+    }
+
+    public AdbClient createClient() {
+        return createClient(null);
+    }
+
+    public AdbClient createClient(MetricsRegistry metrics) {
+        ProcessAdbClient processClient = new ProcessAdbClient(getAdbPath(), OutputCollector.DEFAULT_MAX_BYTES, metrics);
+        if (getTransport() == AdbTransport.SOCKET) {
+            return new SocketAdbClient(getServerHost(), getServerPort(), processClient,
+                    OutputCollector.DEFAULT_MAX_BYTES, metrics);
+        }
+        return processClient;
+    }
+}
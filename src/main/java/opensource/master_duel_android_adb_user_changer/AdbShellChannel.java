@@ -0,0 +1,13 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public interface AdbShellChannel extends Closeable {
+    InputStream getInputStream();
+
+    OutputStream getOutputStream();
+
+    boolean isOpen();
+}
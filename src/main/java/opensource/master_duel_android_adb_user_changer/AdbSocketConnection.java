@@ -0,0 +1,267 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+class AdbSocketConnection implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private volatile long deadlineNanos;
+
+    private AdbSocketConnection(SocketChannel channel, Selector selector, long deadlineNanos) {
+        this.channel = channel;
+        this.selector = selector;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    static AdbSocketConnection open(String host, int port, Duration timeout) throws IOException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        SocketChannel channel = SocketChannel.open();
+        Selector selector = null;
+        try {
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            AdbSocketConnection connection = new AdbSocketConnection(channel, selector, deadline);
+            if (!channel.connect(new InetSocketAddress(host, port))) {
+                connection.await(SelectionKey.OP_CONNECT);
+                channel.finishConnect();
+            }
+            return connection;
+        } catch (IOException ex) {
+            if (selector != null) {
+                selector.close();
+            }
+            channel.close();
+            throw ex;
+        }
+    }
+
+    void extendDeadline(Duration timeout) {
+        deadlineNanos = System.nanoTime() + timeout.toNanos();
+    }
+
+    void sendRequest(String request) throws IOException {
+        byte[] payload = request.getBytes(StandardCharsets.UTF_8);
+        String header = String.format("%04x", payload.length);
+        write(header.getBytes(StandardCharsets.US_ASCII));
+        write(payload);
+        readStatus(request);
+    }
+
+    String readLengthPrefixed() throws IOException {
+        int length = Integer.parseInt(readString(4), 16);
+        return readString(length);
+    }
+
+    void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                await(SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    long readToEnd(OutputStream target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long total = 0;
+        while (true) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                return total;
+            }
+            if (read == 0) {
+                await(SelectionKey.OP_READ);
+                continue;
+            }
+            target.write(buffer.array(), 0, read);
+            total += read;
+            buffer.clear();
+        }
+    }
+
+    int read(byte[] target, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(target, offset, length);
+        while (true) {
+            int read = channel.read(buffer);
+            if (read != 0) {
+                return read;
+            }
+            await(SelectionKey.OP_READ);
+        }
+    }
+
+    // Fills target; false when the stream ends before the first byte.
+    boolean readFully(byte[] target) throws IOException {
+        int offset = 0;
+        while (offset < target.length) {
+            int read = read(target, offset, target.length - offset);
+            if (read < 0) {
+                if (offset == 0) {
+                    return false;
+                }
+                throw new AdbProtocolException("Connection closed by adb server.");
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    AdbShellChannel asShellChannel() {
+        return asShellChannel(null);
+    }
+
+    // With an idle timeout every read and write gets a fresh deadline, so a long transfer only fails once the device
+    // stalls.
+    AdbShellChannel asShellChannel(Duration idleTimeout) {
+        InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int read = read(single, 0, 1);
+                return read < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                if (idleTimeout != null) {
+                    extendDeadline(idleTimeout);
+                }
+                return AdbSocketConnection.this.read(target, offset, length);
+            }
+        };
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int value) throws IOException {
+                write(new byte[]{(byte) value}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                if (idleTimeout != null) {
+                    extendDeadline(idleTimeout);
+                }
+                AdbSocketConnection.this.write(data, offset, length);
+            }
+
+            // Half-closes the socket so the remote command sees end of input while its output can still be read.
+            @Override
+            public void close() throws IOException {
+                if (channel.isOpen()) {
+                    shutdownOutput();
+                }
+            }
+        };
+        return new AdbShellChannel() {
+            @Override
+            public InputStream getInputStream() {
+                return input;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return output;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                AdbSocketConnection.this.close();
+            }
+        };
+    }
+
+    private void readStatus(String request) throws IOException {
+        String status = readString(4);
+        if ("OKAY".equals(status)) {
+            return;
+        }
+        if ("FAIL".equals(status)) {
+            throw new AdbProtocolException(readLengthPrefixed());
+        }
+        throw new AdbProtocolException("Unexpected response to " + request + ": " + status);
+    }
+
+    private String readString(int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = read(data, offset, length - offset);
+            if (read < 0) {
+                throw new AdbProtocolException("Connection closed by adb server.");
+            }
+            offset += read;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private void await(int operation) throws IOException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("adb server did not respond in time");
+        }
+        try {
+            SelectionKey key = channel.register(selector, operation);
+            try {
+                int ready = selector.select(Math.max(1, Duration.ofNanos(remaining).toMillis()));
+                if (ready == 0 && System.nanoTime() - deadlineNanos >= 0) {
+                    throw new SocketTimeoutException("adb server did not respond in time");
+                }
+            } finally {
+                if (key.isValid()) {
+                    key.interestOps(0);
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (ClosedSelectorException | CancelledKeyException ex) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    static class AdbProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        AdbProtocolException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package opensource.master_duel_android_adb_user_changer;
+
+public enum AdbTransport {
+    PROCESS("Process (adb binary)"),
+    SOCKET("Socket (adb server)");
+
+    private final String label;
+
+    AdbTransport(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,18 @@
+package opensource.master_duel_android_adb_user_changer;
+
+public enum BackupFormat {
+    ARCHIVE(".tar.gz archive"),
+    SNAPSHOT("Deduplicated snapshot"),
+    INCREMENTAL("Incremental snapshot");
+
+    private final String label;
+
+    BackupFormat(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,64 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+
+public class BackupJob {
+    private final String folder;
+    private final ReadOnlyStringWrapper status = new ReadOnlyStringWrapper("Queued");
+    private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(0);
+    private final ReadOnlyStringWrapper transferred = new ReadOnlyStringWrapper("");
+    private final ReadOnlyStringWrapper detail = new ReadOnlyStringWrapper("");
+    private long startedAt;
+    private CommandResult result;
+
+    public BackupJob(String folder) {
+        this.folder = folder;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public ReadOnlyStringProperty statusProperty() {
+        return status.getReadOnlyProperty();
+    }
+
+    public ReadOnlyDoubleProperty progressProperty() {
+        return progress.getReadOnlyProperty();
+    }
+
+    public ReadOnlyStringProperty transferredProperty() {
+        return transferred.getReadOnlyProperty();
+    }
+
+    public ReadOnlyStringProperty detailProperty() {
+        return detail.getReadOnlyProperty();
+    }
+
+    public CommandResult getResult() {
+        return result;
+    }
+
+    void markRunning() {
+        startedAt = System.nanoTime();
+        status.set("Running");
+        progress.set(-1);
+    }
+
+    // du only estimates the tar size, so progress stays below 100% until the archive is complete.
+    void updateProgress(long bytes, long expectedBytes) {
+        progress.set(expectedBytes > 0 ? Math.min(0.99, (double) bytes / expectedBytes) : -1);
+        double seconds = Math.max(1e-3, (System.nanoTime() - startedAt) / 1e9);
+        transferred.set(String.format("%.1f MB, %.1f MB/s", bytes / 1_048_576.0, bytes / 1_048_576.0 / seconds));
+    }
+
+    void markFinished(CommandResult result) {
+        this.result = result;
+        status.set(result.isSuccess() ? "OK" : "Failed");
+        progress.set(result.isSuccess() ? 1 : 0);
+        detail.set((result.isSuccess() ? result.getStdout() : result.getStdout() + " " + result.getStderr()).strip());
+    }
+}
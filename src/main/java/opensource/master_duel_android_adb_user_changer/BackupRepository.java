@@ -0,0 +1,656 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A local store of profile snapshots that keeps every distinct chunk of file content once, under
+// chunks/<first two hex digits>/<sha256>, and one small manifest per snapshot under snapshots/. Listing, restoring
+// and garbage collection only read manifests and chunks; none of them needs the device.
+class BackupRepository implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = 200_000_000L;
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    private static final DateTimeFormatter SNAPSHOT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+            .withZone(ZoneId.systemDefault());
+    private static final Map<Path, RepositoryLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path chunkDirectory;
+    private final Path snapshotDirectory;
+    private final int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private final ExecutorService workers = Executors.newFixedThreadPool(parallelism,
+            Thread.ofPlatform().daemon().name("backup-repository-", 0).factory());
+    // Snapshots add chunks before their manifest exists, so garbage collection excludes them while it runs, also
+    // when the GUI and the command line use the same repository.
+    private final RepositoryLock lock;
+
+    record GcResult(int removedChunks, long freedBytes, int keptChunks, long keptBytes) {
+    }
+
+    record Usage(int snapshots, long logicalBytes, int chunks, long storedBytes) {
+    }
+
+    record SyncPlan(String baseId, List<SnapshotManifest.Entry> listing, List<String> transfer, long transferBytes,
+                    long skippedBytes) {
+    }
+
+    BackupRepository(Path root) {
+        this.chunkDirectory = root.resolve("chunks");
+        this.snapshotDirectory = root.resolve("snapshots");
+        this.lock = LOCKS.computeIfAbsent(root.resolve("repository.lock").toAbsolutePath().normalize(),
+                RepositoryLock::new);
+    }
+
+    static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".master-duel-android-adb-user-changer", "repository");
+    }
+
+    SnapshotManifest createSnapshot(String serial, String folder, InputStream tar, long expectedBytes,
+                                    BiConsumer<Long, Long> progress) throws IOException {
+        return createSnapshot(serial, folder, null, tar, expectedBytes, progress);
+    }
+
+    // With a plan, tar only carries the plan's changed files and everything else is taken from the base snapshot,
+    // whose manifest is read again under the lock so garbage collection cannot have removed its chunks.
+    SnapshotManifest createSnapshot(String serial, String folder, SyncPlan plan, InputStream tar, long expectedBytes,
+                                    BiConsumer<Long, Long> progress) throws IOException {
+        lock.lockShared();
+        List<ManifestEntry> streamed = new ArrayList<>();
+        try {
+            AtomicLong newBytes = new AtomicLong();
+            long streamedBytes = tar == null ? 0 : ingest(tar, folder, expectedBytes, progress, newBytes, streamed);
+            List<SnapshotManifest.Entry> entries = new ArrayList<>();
+            for (ManifestEntry manifestEntry : streamed) {
+                List<String> ids = new ArrayList<>();
+                for (Future<String> chunk : manifestEntry.chunks()) {
+                    ids.add(await(chunk));
+                }
+                entries.add(new SnapshotManifest.Entry(manifestEntry.tar(), manifestEntry.sha1(), ids));
+            }
+            long skippedBytes = 0;
+            if (plan != null) {
+                entries = merge(plan, readSnapshot(plan.baseId()), entries);
+                skippedBytes = plan.skippedBytes();
+            }
+            if (entries.isEmpty()) {
+                throw new IOException("Snapshot stream contains no files.");
+            }
+            int files = (int) entries.stream().filter(entry -> entry.tar().isFile()).count();
+            long logicalBytes = entries.stream().mapToLong(entry -> entry.tar().size()).sum();
+            SnapshotManifest manifest = writeManifest(serial, folder, files, logicalBytes, newBytes.get(), skippedBytes,
+                    entries);
+            progress.accept(streamedBytes, streamedBytes);
+            return manifest;
+        } finally {
+            // A failed snapshot leaves orphan chunks for garbage collection, but none may still be in flight.
+            for (ManifestEntry manifestEntry : streamed) {
+                for (Future<String> chunk : manifestEntry.chunks()) {
+                    try {
+                        chunk.get();
+                    } catch (ExecutionException ignored) {
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            lock.unlockShared();
+        }
+    }
+
+    // Compares the device's listing with the newest snapshot of the same folder. Files whose size and SHA-1 match
+    // are reused; new and changed files and symlinks have to be transferred.
+    SyncPlan planSync(String serial, String folder, List<SnapshotManifest.Entry> listing) throws IOException {
+        SnapshotManifest base = null;
+        for (SnapshotManifest snapshot : listSnapshots()) {
+            if (snapshot.serial().equals(serial) && snapshot.folder().equals(folder)) {
+                base = snapshot;
+                break;
+            }
+        }
+        if (base == null) {
+            return null;
+        }
+        Map<String, SnapshotManifest.Entry> previous = byPath(readSnapshot(base.id()).entries());
+        List<String> transfer = new ArrayList<>();
+        long transferBytes = 0;
+        long skippedBytes = 0;
+        for (SnapshotManifest.Entry entry : listing) {
+            TarEntry tar = entry.tar();
+            if (tar.isDirectory()) {
+                continue;
+            }
+            SnapshotManifest.Entry known = previous.get(normalize(tar.path()));
+            if (tar.isFile() && known != null && known.tar().size() == tar.size()
+                    && known.sha1().equalsIgnoreCase(entry.sha1())) {
+                skippedBytes += tar.size();
+            } else {
+                transfer.add(tar.path());
+                transferBytes += tar.size();
+            }
+        }
+        return new SyncPlan(base.id(), listing, transfer, transferBytes, skippedBytes);
+    }
+
+    // Reads the tar stream on the calling thread and cuts file content into chunks there; hashing, compressing and
+    // writing chunks runs on the worker pool, with a bounded number of chunks in flight.
+    private long ingest(InputStream tar, String folder, long expectedBytes, BiConsumer<Long, Long> progress,
+                        AtomicLong newBytes, List<ManifestEntry> streamed) throws IOException {
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        CountingInputStream counted = new CountingInputStream(tar);
+        TarReader reader = new TarReader(counted);
+        ContentChunker chunker = new ContentChunker();
+        MessageDigest fileDigest = digest("SHA-1");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long lastReport = System.nanoTime();
+        TarEntry entry;
+        while ((entry = reader.next()) != null) {
+            checkPath(entry.path(), folder);
+            List<Future<String>> chunks = new ArrayList<>();
+            streamed.add(new ManifestEntry(entry, chunks));
+            if (!entry.isFile()) {
+                continue;
+            }
+            Consumer<byte[]> sink = data -> {
+                inFlight.acquireUninterruptibly();
+                chunks.add(workers.submit(() -> {
+                    try {
+                        return storeChunk(data, newBytes);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            };
+            int read;
+            while ((read = reader.read(buffer, 0, buffer.length)) >= 0) {
+                fileDigest.update(buffer, 0, read);
+                chunker.update(buffer, 0, read, sink);
+                long now = System.nanoTime();
+                if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    progress.accept(counted.count(), expectedBytes);
+                    lastReport = now;
+                }
+            }
+            chunker.finish(sink);
+            streamed.set(streamed.size() - 1, new ManifestEntry(entry, chunks,
+                    HexFormat.of().formatHex(fileDigest.digest())));
+        }
+        counted.transferTo(OutputStream.nullOutputStream());
+        return counted.count();
+    }
+
+    // Keeps the device's order and attributes. A planned file missing from the stream was deleted in the meantime.
+    private static List<SnapshotManifest.Entry> merge(SyncPlan plan, SnapshotManifest base,
+                                                      List<SnapshotManifest.Entry> streamed) throws IOException {
+        Map<String, SnapshotManifest.Entry> previous = byPath(base.entries());
+        Map<String, SnapshotManifest.Entry> transferred = byPath(streamed);
+        Set<String> planned = new HashSet<>();
+        plan.transfer().forEach(path -> planned.add(normalize(path)));
+        List<SnapshotManifest.Entry> entries = new ArrayList<>();
+        for (SnapshotManifest.Entry entry : plan.listing()) {
+            String path = normalize(entry.tar().path());
+            if (entry.tar().isDirectory()) {
+                entries.add(new SnapshotManifest.Entry(entry.tar(), "", List.of()));
+            } else if (planned.contains(path)) {
+                SnapshotManifest.Entry copy = transferred.get(path);
+                if (copy != null) {
+                    entries.add(copy);
+                }
+            } else {
+                SnapshotManifest.Entry known = previous.get(path);
+                if (known == null || !known.sha1().equalsIgnoreCase(entry.sha1())) {
+                    throw new IOException("Snapshot " + base.id() + " changed while syncing " + path + ".");
+                }
+                entries.add(new SnapshotManifest.Entry(entry.tar(), known.sha1(), known.chunks()));
+            }
+        }
+        return entries;
+    }
+
+    private static Map<String, SnapshotManifest.Entry> byPath(List<SnapshotManifest.Entry> entries) {
+        Map<String, SnapshotManifest.Entry> map = new HashMap<>();
+        for (SnapshotManifest.Entry entry : entries) {
+            map.put(normalize(entry.tar().path()), entry);
+        }
+        return map;
+    }
+
+    private static String normalize(String path) {
+        String normalized = path.startsWith("./") ? path.substring(2) : path;
+        return normalized.endsWith("/") ? normalized.substring(0, normalized.length() - 1) : normalized;
+    }
+
+    // Rebuilds the snapshot as a tar stream, loading the next chunks on the worker pool while earlier ones are
+    // written. Every chunk is checked against its hash and every file against its SHA-1.
+    long writeTar(String id, OutputStream out, BiConsumer<Long, Long> progress) throws IOException {
+        lock.lockShared();
+        ArrayDeque<Future<byte[]>> ahead = new ArrayDeque<>();
+        try {
+            SnapshotManifest manifest = readSnapshot(id);
+            Iterator<String> upcoming = manifest.entries().stream()
+                    .flatMap(entry -> entry.chunks().stream())
+                    .iterator();
+            TarWriter writer = new TarWriter(out);
+            long written = 0;
+            long lastReport = System.nanoTime();
+            for (SnapshotManifest.Entry entry : manifest.entries()) {
+                writer.putEntry(entry.tar());
+                MessageDigest fileDigest = digest("SHA-1");
+                for (int i = 0; i < entry.chunks().size(); i++) {
+                    while (ahead.size() < parallelism * 2 && upcoming.hasNext()) {
+                        String chunk = upcoming.next();
+                        ahead.add(workers.submit(() -> loadChunk(chunk)));
+                    }
+                    byte[] data = await(ahead.poll());
+                    writer.write(data, 0, data.length);
+                    fileDigest.update(data);
+                    written += data.length;
+                    long now = System.nanoTime();
+                    if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                        progress.accept(written, manifest.logicalBytes());
+                        lastReport = now;
+                    }
+                }
+                if (entry.tar().isFile() && !entry.sha1().isEmpty()
+                        && !HexFormat.of().formatHex(fileDigest.digest()).equals(entry.sha1())) {
+                    throw new IOException("Content of " + entry.tar().path() + " does not match the snapshot.");
+                }
+            }
+            writer.finish();
+            progress.accept(written, manifest.logicalBytes());
+            return written;
+        } finally {
+            ahead.forEach(future -> future.cancel(true));
+            lock.unlockShared();
+        }
+    }
+
+    // Newest first. A manifest that cannot be read is left out here, but stops garbage collection.
+    List<SnapshotManifest> listSnapshots() throws IOException {
+        List<SnapshotManifest> snapshots = new ArrayList<>();
+        for (Path path : manifestPaths()) {
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                snapshots.add(SnapshotManifest.read(in, true));
+            } catch (IOException ignored) {
+                // Listed by collectGarbage's failure instead.
+            }
+        }
+        snapshots.sort(Comparator.comparing(SnapshotManifest::createdUtc).reversed());
+        return snapshots;
+    }
+
+    SnapshotManifest readSnapshot(String id) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(manifestPath(id), StandardCharsets.UTF_8)) {
+            return SnapshotManifest.read(in, false);
+        }
+    }
+
+    boolean deleteSnapshot(String id) throws IOException {
+        return Files.deleteIfExists(manifestPath(id));
+    }
+
+    // Marks every chunk named by a manifest and deletes the rest, including partial chunks left by a crash.
+    GcResult collectGarbage() throws IOException {
+        lock.lockExclusive();
+        try {
+            Set<String> live = new HashSet<>();
+            for (Path path : manifestPaths()) {
+                try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    for (SnapshotManifest.Entry entry : SnapshotManifest.read(in, false).entries()) {
+                        live.addAll(entry.chunks());
+                    }
+                } catch (IOException ex) {
+                    throw new IOException("Cannot read " + path.getFileName() + "; nothing was deleted: "
+                            + ex.getMessage(), ex);
+                }
+            }
+            int removed = 0;
+            long freed = 0;
+            int kept = 0;
+            long keptBytes = 0;
+            for (Path path : chunkPaths()) {
+                long size = Files.size(path);
+                if (live.contains(path.getFileName().toString())) {
+                    kept++;
+                    keptBytes += size;
+                } else if (Files.deleteIfExists(path)) {
+                    removed++;
+                    freed += size;
+                }
+            }
+            return new GcResult(removed, freed, kept, keptBytes);
+        } finally {
+            lock.unlockExclusive();
+        }
+    }
+
+    Usage usage() throws IOException {
+        List<SnapshotManifest> snapshots = listSnapshots();
+        long logicalBytes = snapshots.stream().mapToLong(SnapshotManifest::logicalBytes).sum();
+        int chunks = 0;
+        long storedBytes = 0;
+        for (Path path : chunkPaths()) {
+            chunks++;
+            storedBytes += Files.size(path);
+        }
+        return new Usage(snapshots.size(), logicalBytes, chunks, storedBytes);
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private String storeChunk(byte[] data, AtomicLong newBytes) throws IOException {
+        String id = HexFormat.of().formatHex(digest("SHA-256").digest(data));
+        Path path = chunkPath(id);
+        if (Files.exists(path)) {
+            return id;
+        }
+        byte[] stored = encode(data);
+        Files.createDirectories(path.getParent());
+        Path partial = Files.createTempFile(path.getParent(), id, ".part");
+        try {
+            Files.write(partial, stored);
+            Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE);
+            newBytes.addAndGet(stored.length);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        return id;
+    }
+
+    private byte[] loadChunk(String id) throws IOException {
+        byte[] stored = Files.readAllBytes(chunkPath(id));
+        byte[] data = decode(stored, id);
+        if (!HexFormat.of().formatHex(digest("SHA-256").digest(data)).equals(id)) {
+            throw new IOException("Chunk " + id + " is corrupt.");
+        }
+        return data;
+    }
+
+    // Cache files are often already compressed, so a chunk is only kept deflated when that saves at least 1/16.
+    private static byte[] encode(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] compressed = new byte[data.length - data.length / 16];
+            int length = 1;
+            while (!deflater.finished() && length < compressed.length) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            if (!deflater.finished()) {
+                byte[] stored = new byte[data.length + 1];
+                stored[0] = STORED;
+                System.arraycopy(data, 0, stored, 1, data.length);
+                return stored;
+            }
+            compressed[0] = DEFLATED;
+            return Arrays.copyOf(compressed, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decode(byte[] stored, String id) throws IOException {
+        if (stored.length > 0 && stored[0] == STORED) {
+            return Arrays.copyOfRange(stored, 1, stored.length);
+        }
+        if (stored.length == 0 || stored[0] != DEFLATED) {
+            throw new IOException("Chunk " + id + " is corrupt.");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, 1, stored.length - 1);
+            // One spare byte lets the inflater reach the end of a full-size chunk's stream.
+            byte[] data = new byte[ContentChunker.MAX_SIZE + 1];
+            int length = 0;
+            while (!inflater.finished() && length < data.length) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (!inflater.finished()) {
+                throw new IOException("Chunk " + id + " is corrupt.");
+            }
+            return Arrays.copyOf(data, length);
+        } catch (DataFormatException ex) {
+            throw new IOException("Chunk " + id + " is corrupt.", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private SnapshotManifest writeManifest(String serial, String folder, int files, long logicalBytes, long newBytes,
+                                           long skippedBytes, List<SnapshotManifest.Entry> entries) throws IOException {
+        Files.createDirectories(snapshotDirectory);
+        Instant now = Instant.now();
+        String base = SNAPSHOT_TIME.format(now) + "_" + serial.replaceAll("[^A-Za-z0-9._-]", "_") + "_" + folder;
+        for (int index = 0; ; index++) {
+            String id = index == 0 ? base : base + "-" + index;
+            Path target = manifestPath(id);
+            Path partial = target.resolveSibling(target.getFileName() + ".part");
+            if (Files.exists(target)) {
+                continue;
+            }
+            SnapshotManifest manifest = new SnapshotManifest(id, serial, folder, now.toString(), files, logicalBytes,
+                    newBytes, skippedBytes, entries);
+            try (Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                manifest.write(out);
+            } catch (FileAlreadyExistsException ex) {
+                continue;
+            } catch (IOException ex) {
+                Files.deleteIfExists(partial);
+                throw ex;
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            return manifest;
+        }
+    }
+
+    private List<Path> manifestPaths() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (!Files.isDirectory(snapshotDirectory)) {
+            return paths;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotDirectory, "*" + MANIFEST_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        return paths;
+    }
+
+    private List<Path> chunkPaths() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (!Files.isDirectory(chunkDirectory)) {
+            return paths;
+        }
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunkDirectory, Files::isDirectory)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix, Files::isRegularFile)) {
+                    chunks.forEach(paths::add);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private Path chunkPath(String id) {
+        return chunkDirectory.resolve(id.substring(0, 2)).resolve(id);
+    }
+
+    private Path manifestPath(String id) throws IOException {
+        if (id == null || id.isBlank() || id.contains("/") || id.contains("\\") || id.startsWith(".")) {
+            throw new IOException("Invalid snapshot id: " + id);
+        }
+        return snapshotDirectory.resolve(id + MANIFEST_SUFFIX);
+    }
+
+    private static void checkPath(String path, String folder) throws IOException {
+        String normalized = path.startsWith("./") ? path.substring(2) : path;
+        if (!normalized.equals(folder) && !normalized.startsWith(folder + "/")) {
+            throw new IOException("Unexpected entry outside " + folder + ": " + path);
+        }
+        for (String segment : normalized.split("/")) {
+            if ("..".equals(segment)) {
+                throw new IOException("Entry points outside the profile folder: " + path);
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // A read-write lock within this process plus a FileLock on repository.lock across processes: shared while any
+    // snapshot or restore runs, exclusive for garbage collection. A process may hold only one FileLock on a file, so
+    // the shared one is taken by the first reader and released by the last.
+    private static final class RepositoryLock {
+        private final Path file;
+        private final ReentrantReadWriteLock local = new ReentrantReadWriteLock();
+        private FileChannel sharedChannel;
+        private int sharedHolders;
+        private FileChannel exclusiveChannel;
+
+        RepositoryLock(Path file) {
+            this.file = file;
+        }
+
+        void lockShared() throws IOException {
+            local.readLock().lock();
+            try {
+                synchronized (this) {
+                    if (sharedHolders == 0) {
+                        sharedChannel = lockFile(true);
+                    }
+                    sharedHolders++;
+                }
+            } catch (IOException | RuntimeException ex) {
+                local.readLock().unlock();
+                throw ex;
+            }
+        }
+
+        void unlockShared() {
+            try {
+                synchronized (this) {
+                    if (--sharedHolders == 0) {
+                        closeQuietly(sharedChannel);
+                        sharedChannel = null;
+                    }
+                }
+            } finally {
+                local.readLock().unlock();
+            }
+        }
+
+        void lockExclusive() throws IOException {
+            local.writeLock().lock();
+            try {
+                exclusiveChannel = lockFile(false);
+            } catch (IOException | RuntimeException ex) {
+                local.writeLock().unlock();
+                throw ex;
+            }
+        }
+
+        void unlockExclusive() {
+            try {
+                closeQuietly(exclusiveChannel);
+                exclusiveChannel = null;
+            } finally {
+                local.writeLock().unlock();
+            }
+        }
+
+        // The lock is released when the channel closes.
+        private FileChannel lockFile(boolean shared) throws IOException {
+            Files.createDirectories(file.getParent());
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                channel.lock(0, Long.MAX_VALUE, shared);
+                return channel;
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        private static void closeQuietly(FileChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Closing releases the lock even when it reports an error.
+            }
+        }
+    }
+
+    private record ManifestEntry(TarEntry tar, List<Future<String>> chunks, String sha1) {
+        ManifestEntry(TarEntry tar, List<Future<String>> chunks) {
+            this(tar, chunks, "");
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package opensource.master_duel_android_adb_user_changer;
+
+public enum BatchAction {
+    ACTIVATE_PROFILE("Activate profile (folder or alias)"),
+    ARCHIVE_ACTIVE("Deactivate current user");
+
+    private final String label;
+
+    BatchAction(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
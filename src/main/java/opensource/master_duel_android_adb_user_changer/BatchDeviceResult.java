@@ -0,0 +1,51 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+
+public class BatchDeviceResult {
+    private static final int MAX_DETAIL_LENGTH = 300;
+
+    private final String serial;
+    private final ReadOnlyStringWrapper status = new ReadOnlyStringWrapper("Queued");
+    private final ReadOnlyStringWrapper elapsed = new ReadOnlyStringWrapper("");
+    private final ReadOnlyStringWrapper detail = new ReadOnlyStringWrapper("");
+    private CommandResult result;
+
+    public BatchDeviceResult(String serial) {
+        this.serial = serial;
+    }
+
+    public String getSerial() {
+        return serial;
+    }
+
+    public ReadOnlyStringProperty statusProperty() {
+        return status.getReadOnlyProperty();
+    }
+
+    public ReadOnlyStringProperty elapsedProperty() {
+        return elapsed.getReadOnlyProperty();
+    }
+
+    public ReadOnlyStringProperty detailProperty() {
+        return detail.getReadOnlyProperty();
+    }
+
+    public CommandResult getResult() {
+        return result;
+    }
+
+    void markRunning() {
+        status.set("Running");
+    }
+
+    void markFinished(CommandResult result, long elapsedMillis) {
+        this.result = result;
+        status.set(result.isSuccess() ? "OK" : "Failed");
+        elapsed.set(String.format("%.1f s", elapsedMillis / 1000.0));
+        String text = result.isSuccess() ? result.getStdout() : result.getStdout() + " " + result.getStderr();
+        text = text.strip().replaceAll("\\s*\\R\\s*", " / ");
+        detail.set(text.length() > MAX_DETAIL_LENGTH ? text.substring(0, MAX_DETAIL_LENGTH) + "..." : text);
+    }
+}
@@ -0,0 +1,465 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CliApp {
+    private static final String USAGE = String.join("\n",
+            "Usage: cli [options] <command> [arguments]",
+            "",
+            "Options:",
+            "  --adb <path>                 adb binary (default: adb)",
+            "  --transport <process|socket> how to reach adb (default: process)",
+            "  --server <host:port>         adb server for the socket transport",
+            "  --no-root-session            spawn su for every command",
+            "  --verbose                    log every adb command to stderr",
+            "  --metrics <file>             write latency metrics as JSON when done",
+            "  --repository <dir>           snapshot repository (default: ~/.master-duel-android-adb-user-changer/repository)",
+            "",
+            "Commands:",
+            "  listDevices",
+            "  listUsers <serial>",
+            "  deviceInfo <serial>",
+            "  switchUser <serial> <folder> [archiveFolder]",
+            "  archivePersistent <serial> <newFolder>",
+            "  updateAlias <serial> <folder> <alias>",
+            "  backupProfile <serial> <folder> [directory]   stream the folder into a .tar.gz (default: .)",
+            "  restoreProfile <serial> <archive.tar.gz> <newFolder>",
+            "  snapshotProfile <serial> <folder>   store the folder in the deduplicated repository",
+            "  syncProfile <serial> <folder>       like snapshotProfile, sending only files changed since the last one",
+            "  listSnapshots",
+            "  restoreSnapshot <serial> <snapshotId> <newFolder>",
+            "  deleteSnapshot <snapshotId>",
+            "  collectGarbage   delete chunks no snapshot uses",
+            "  batch <file|-> [--stop-on-error]   one command per line, one JSON line per result");
+
+    private final AdbService adbService;
+    private final BackupRepository repository;
+    private final PrintStream out;
+
+    CliApp(AdbService adbService, BackupRepository repository, PrintStream out) {
+        this.adbService = adbService;
+        this.repository = repository;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    public static int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        AdbSettings settings = new AdbSettings();
+        boolean verbose = false;
+        String metricsFile = null;
+        Path repositoryDirectory = BackupRepository.defaultDirectory();
+        int index = 0;
+        try {
+            while (index < args.length && args[index].startsWith("--")) {
+                String option = args[index++];
+                switch (option) {
+                    case "--adb" -> settings.adbPathProperty().set(requireValue(args, index++, option));
+                    case "--transport" -> settings.transportProperty().set(parseTransport(requireValue(args, index++, option)));
+                    case "--server" -> settings.serverAddressProperty().set(requireValue(args, index++, option));
+                    case "--no-root-session" -> settings.persistentRootShellProperty().set(false);
+                    case "--verbose" -> verbose = true;
+                    case "--metrics" -> metricsFile = requireValue(args, index++, option);
+                    case "--repository" -> repositoryDirectory = Path.of(requireValue(args, index++, option));
+                    case "--help" -> {
+                        out.println(USAGE);
+                        return 0;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        if (index >= args.length) {
+            err.println(USAGE);
+            return 2;
+        }
+
+        try (AdbService adbService = new AdbService(settings);
+             BackupRepository repository = new BackupRepository(repositoryDirectory)) {
+            if (verbose) {
+                adbService.setLogListener((serial, operation, result) ->
+                        err.println(operation + " on " + serial + "\n" + result.toDisplayString()));
+            }
+            CliApp app = new CliApp(adbService, repository, out);
+            List<String> command = Arrays.asList(args).subList(index, args.length);
+            int exitCode;
+            if ("batch".equals(command.get(0))) {
+                exitCode = app.runBatch(command.subList(1, command.size()), in);
+            } else {
+                Map<String, Object> result;
+                try {
+                    result = app.execute(command);
+                } catch (IllegalArgumentException ex) {
+                    result = error(command.get(0), ex.getMessage());
+                }
+                out.println(JsonWriter.write(result));
+                exitCode = exitCode(result);
+            }
+            if (metricsFile != null) {
+                try {
+                    Files.writeString(Path.of(metricsFile), adbService.getMetrics().getMetricsJson(),
+                            StandardCharsets.UTF_8);
+                } catch (IOException ex) {
+                    err.println("Cannot write metrics: " + ex.getMessage());
+                }
+            }
+            return exitCode;
+        }
+    }
+
+    int runBatch(List<String> args, InputStream in) {
+        if (args.isEmpty()) {
+            return printError("batch", "Batch file is required.");
+        }
+        boolean stopOnError = args.contains("--stop-on-error");
+        String source = args.get(0);
+
+        List<String> lines;
+        try {
+            if ("-".equals(source)) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                lines = reader.lines().toList();
+            } else {
+                lines = Files.readAllLines(Path.of(source), StandardCharsets.UTF_8);
+            }
+        } catch (IOException ex) {
+            return printError("batch", "Cannot read batch file: " + ex.getMessage());
+        }
+
+        int exitCode = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Map<String, Object> result;
+            try {
+                result = execute(tokenize(line));
+            } catch (IllegalArgumentException ex) {
+                result = error(line, ex.getMessage());
+            }
+            result.put("line", i + 1);
+            out.println(JsonWriter.write(result));
+            exitCode = Math.max(exitCode, exitCode(result));
+            if (stopOnError && exitCode != 0) {
+                break;
+            }
+        }
+        return exitCode;
+    }
+
+    Map<String, Object> execute(List<String> args) {
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("Command is required.");
+        }
+        String command = args.get(0);
+        return switch (command) {
+            case "listDevices" -> {
+                expectArgs(args, 0, 0);
+                yield listDevices();
+            }
+            case "listUsers" -> {
+                expectArgs(args, 1, 1);
+                yield listUsers(args.get(1));
+            }
+            case "deviceInfo" -> {
+                expectArgs(args, 1, 1);
+                yield commandResult(command, args.get(1), adbService.getDeviceInfo(args.get(1)));
+            }
+            case "switchUser" -> {
+                expectArgs(args, 2, 3);
+                CommandResult result = args.size() == 4
+                        ? adbService.switchUserAndArchiveActive(args.get(1), args.get(2), args.get(3))
+                        : adbService.switchUser(args.get(1), args.get(2));
+                yield commandResult(command, args.get(1), result);
+            }
+            case "archivePersistent" -> {
+                expectArgs(args, 2, 2);
+                yield commandResult(command, args.get(1), adbService.archivePersistent(args.get(1), args.get(2)));
+            }
+            case "updateAlias" -> {
+                expectArgs(args, 3, 3);
+                // Reported once it is on the device rather than only journaled.
+                CommandResult result = adbService.updateAlias(args.get(1), args.get(2), args.get(3));
+                yield commandResult(command, args.get(1),
+                        result.isSuccess() ? adbService.flushMetadata(args.get(1)) : result);
+            }
+            case "backupProfile" -> {
+                expectArgs(args, 2, 3);
+                Path directory = Path.of(args.size() == 4 ? args.get(3) : ".");
+                yield commandResult(command, args.get(1), adbService.backupProfile(args.get(1), args.get(2), directory));
+            }
+            case "restoreProfile" -> {
+                expectArgs(args, 3, 3);
+                yield commandResult(command, args.get(1),
+                        adbService.restoreProfile(args.get(1), Path.of(args.get(2)), args.get(3)));
+            }
+            case "snapshotProfile" -> {
+                expectArgs(args, 2, 2);
+                yield commandResult(command, args.get(1), adbService.snapshotProfile(args.get(1), args.get(2),
+                        repository, (bytes, expectedBytes) -> { }));
+            }
+            case "syncProfile" -> {
+                expectArgs(args, 2, 2);
+                yield commandResult(command, args.get(1), adbService.syncProfile(args.get(1), args.get(2),
+                        repository, (bytes, expectedBytes) -> { }));
+            }
+            case "listSnapshots" -> {
+                expectArgs(args, 0, 0);
+                yield listSnapshots();
+            }
+            case "restoreSnapshot" -> {
+                expectArgs(args, 3, 3);
+                yield commandResult(command, args.get(1), adbService.restoreSnapshot(args.get(1), repository,
+                        args.get(2), args.get(3), (bytes, expectedBytes) -> { }));
+            }
+            case "deleteSnapshot" -> {
+                expectArgs(args, 1, 1);
+                yield deleteSnapshot(args.get(1));
+            }
+            case "collectGarbage" -> {
+                expectArgs(args, 0, 0);
+                yield collectGarbage();
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + command);
+        };
+    }
+
+    private Map<String, Object> listDevices() {
+        List<DeviceInfo> found = new ArrayList<>();
+        CommandResult commandResult = adbService.listDevices(found);
+        List<Object> devices = new ArrayList<>();
+        for (DeviceInfo device : found) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("serial", device.getSerial());
+            entry.put("state", device.getState());
+            entry.put("description", device.getRaw());
+            devices.add(entry);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("command", "listDevices");
+        result.put("ok", commandResult.isSuccess());
+        if (!commandResult.isSuccess()) {
+            String stderr = commandResult.getStderr().strip();
+            result.put("error", stderr.isEmpty() ? commandResult.getStdout().strip() : stderr);
+            result.put("exitCode", commandResult.getExitCode());
+        }
+        result.put("devices", devices);
+        return result;
+    }
+
+    private Map<String, Object> listUsers(String serial) {
+        List<Object> users = new ArrayList<>();
+        String error = null;
+        for (UserProfile profile : adbService.listUsers(serial)) {
+            if ("(error)".equals(profile.getFolderName())) {
+                error = profile.getWarning();
+                continue;
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("folder", profile.getFolderName());
+            entry.put("alias", profile.getAlias());
+            entry.put("active", profile.isActive());
+            entry.put("lastUpdatedUtc", profile.getLastUpdatedUtc());
+            entry.put("lastSwitchUtc", profile.getLastSwitchUtc());
+            entry.put("warning", profile.getWarning());
+            users.add(entry);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("command", "listUsers");
+        result.put("serial", serial);
+        result.put("ok", error == null);
+        if (error != null) {
+            result.put("error", error);
+        }
+        result.put("users", users);
+        return result;
+    }
+
+    private Map<String, Object> listSnapshots() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("command", "listSnapshots");
+        try {
+            List<Object> snapshots = new ArrayList<>();
+            for (SnapshotManifest snapshot : repository.listSnapshots()) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("id", snapshot.id());
+                entry.put("serial", snapshot.serial());
+                entry.put("folder", snapshot.folder());
+                entry.put("createdUtc", snapshot.createdUtc());
+                entry.put("files", snapshot.files());
+                entry.put("bytes", snapshot.logicalBytes());
+                entry.put("newBytes", snapshot.newBytes());
+                entry.put("skippedBytes", snapshot.skippedBytes());
+                snapshots.add(entry);
+            }
+            BackupRepository.Usage usage = repository.usage();
+            result.put("ok", true);
+            result.put("snapshots", snapshots);
+            result.put("chunks", usage.chunks());
+            result.put("storedBytes", usage.storedBytes());
+        } catch (IOException ex) {
+            result.put("ok", false);
+            result.put("error", ex.getMessage());
+        }
+        return result;
+    }
+
+    private Map<String, Object> deleteSnapshot(String id) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("command", "deleteSnapshot");
+        result.put("id", id);
+        try {
+            boolean deleted = repository.deleteSnapshot(id);
+            result.put("ok", deleted);
+            if (!deleted) {
+                result.put("error", "No such snapshot.");
+            }
+        } catch (IOException ex) {
+            result.put("ok", false);
+            result.put("error", ex.getMessage());
+        }
+        return result;
+    }
+
+    private Map<String, Object> collectGarbage() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("command", "collectGarbage");
+        try {
+            BackupRepository.GcResult gc = repository.collectGarbage();
+            result.put("ok", true);
+            result.put("removedChunks", gc.removedChunks());
+            result.put("freedBytes", gc.freedBytes());
+            result.put("keptChunks", gc.keptChunks());
+            result.put("keptBytes", gc.keptBytes());
+        } catch (IOException ex) {
+            result.put("ok", false);
+            result.put("error", ex.getMessage());
+        }
+        return result;
+    }
+
+    private static Map<String, Object> commandResult(String command, String serial, CommandResult commandResult) {
+        List<Object> steps = new ArrayList<>();
+        for (CommandResult.Step step : commandResult.getSteps()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", step.name());
+            entry.put("exitCode", step.exitCode());
+            steps.add(entry);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("command", command);
+        result.put("serial", serial);
+        result.put("ok", commandResult.isSuccess());
+        result.put("exitCode", commandResult.getExitCode());
+        result.put("stdout", commandResult.getStdout());
+        result.put("stderr", commandResult.getStderr());
+        result.put("commandLine", commandResult.getCommandLine());
+        result.put("steps", steps);
+        return result;
+    }
+
+    private int printError(String command, String message) {
+        out.println(JsonWriter.write(error(command, message)));
+        return 2;
+    }
+
+    private static Map<String, Object> error(String command, String message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("command", command);
+        result.put("ok", false);
+        result.put("error", message);
+        result.put("usage", true);
+        return result;
+    }
+
+    private static int exitCode(Map<String, Object> result) {
+        if (Boolean.TRUE.equals(result.get("ok"))) {
+            return 0;
+        }
+        return Boolean.TRUE.equals(result.get("usage")) ? 2 : 1;
+    }
+
+    private static void expectArgs(List<String> args, int min, int max) {
+        int count = args.size() - 1;
+        if (count < min || count > max) {
+            throw new IllegalArgumentException(args.get(0) + " expects "
+                    + (min == max ? String.valueOf(min) : min + " to " + max) + " argument(s), got " + count + ".");
+        }
+    }
+
+    private static AdbTransport parseTransport(String value) {
+        for (AdbTransport transport : AdbTransport.values()) {
+            if (transport.name().equalsIgnoreCase(value)) {
+                return transport;
+            }
+        }
+        throw new IllegalArgumentException("Unknown transport: " + value);
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value.");
+        }
+        return args[index];
+    }
+
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < line.length()) {
+                    current.append(line.charAt(++i));
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inToken = true;
+            } else if (c == '\\' && i + 1 < line.length()) {
+                current.append(line.charAt(++i));
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("Unterminated quote.");
+        }
+        if (inToken) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,8 @@
+package opensource.master_duel_android_adb_user_changer;
+
+@FunctionalInterface
+public interface CommandLogListener {
+    CommandLogListener NONE = (serial, operation, result) -> { };
+
+    void onCommand(String serial, String operation, CommandResult result);
+}
@@ -0,0 +1,17 @@
+package opensource.master_duel_android_adb_user_changer;
+
+public interface CommandOutputListener {
+    CommandOutputListener NONE = new CommandOutputListener() {
+    };
+
+    enum Stream {
+        STDOUT,
+        STDERR
+    }
+
+    default void onBytes(Stream stream, byte[] data, int offset, int length) {
+    }
+
+    default void onLine(Stream stream, String line) {
+    }
+}
@@ -1,16 +1,24 @@
 package opensource.master_duel_android_adb_user_changer;
 
+import java.util.List;
+
 public class CommandResult {
     private final int exitCode;
     private final String stdout;
     private final String stderr;
     private final String commandLine;
+    private final List<Step> steps;
 
     public CommandResult(int exitCode, String stdout, String stderr, String commandLine) {
+        this(exitCode, stdout, stderr, commandLine, List.of());
+    }
+
+    public CommandResult(int exitCode, String stdout, String stderr, String commandLine, List<Step> steps) {
         this.exitCode = exitCode;
         this.stdout = stdout == null ? "" : stdout;
         this.stderr = stderr == null ? "" : stderr;
         this.commandLine = commandLine == null ? "" : commandLine;
+        this.steps = steps == null ? List.of() : List.copyOf(steps);
     }
 
     public static CommandResult success(String message) {
@@ -37,6 +45,10 @@ public class CommandResult {
         return commandLine;
     }
 
+    public List<Step> getSteps() {
+        return steps;
+    }
+
     public boolean isSuccess() {
         return exitCode == 0;
     }
@@ -45,6 +57,13 @@ public class CommandResult {
         StringBuilder builder = new StringBuilder();
         builder.append("Command: ").append(commandLine.isBlank() ? "(internal)" : commandLine).append("\n");
         builder.append("Exit: ").append(exitCode).append("\n");
+        if (!steps.isEmpty()) {
+            builder.append("Steps:\n");
+            for (Step step : steps) {
+                builder.append("  ").append(step.name()).append(": ")
+                        .append(step.isSuccess() ? "ok" : "failed (" + step.exitCode() + ")").append("\n");
+            }
+        }
         if (!stdout.isBlank()) {
             builder.append("Stdout:\n").append(stdout.strip()).append("\n");
         }
@@ -53,4 +72,10 @@ public class CommandResult {
         }
         return builder.toString().trim();
     }
+
+    public record Step(String name, int exitCode) {
+        public boolean isSuccess() {
+            return exitCode == 0;
+        }
+    }
 }
@@ -0,0 +1,52 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+// Content-defined chunking with a gear rolling hash (FastCDC): a cut point depends only on the last 64 bytes, so an
+// insertion early in a file shifts at most the chunk around it instead of every chunk after it.
+final class ContentChunker {
+    static final int MIN_SIZE = 16 * 1024;
+    static final int AVERAGE_SIZE = 64 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+
+    // Normalized chunking: a stricter mask before the average size and a looser one after it keeps sizes close to
+    // the average. The gear table is seeded so cut points stay the same across runs and versions.
+    private static final long MASK_BEFORE_AVERAGE = -1L << (64 - 18);
+    private static final long MASK_AFTER_AVERAGE = -1L << (64 - 14);
+    private static final long[] GEAR = new SplittableRandom(0x6d647561L).longs(256).toArray();
+
+    private final byte[] chunk = new byte[MAX_SIZE];
+    private int length;
+    private long hash;
+
+    void update(byte[] data, int offset, int count, Consumer<byte[]> sink) {
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            byte value = data[i];
+            chunk[length++] = value;
+            if (length < MIN_SIZE) {
+                continue;
+            }
+            hash = (hash << 1) + GEAR[value & 0xff];
+            long mask = length < AVERAGE_SIZE ? MASK_BEFORE_AVERAGE : MASK_AFTER_AVERAGE;
+            if ((hash & mask) == 0 || length == MAX_SIZE) {
+                emit(sink);
+            }
+        }
+    }
+
+    // Emits the remainder as the last chunk of the file; the chunker is then ready for the next file.
+    void finish(Consumer<byte[]> sink) {
+        if (length > 0) {
+            emit(sink);
+        }
+    }
+
+    private void emit(Consumer<byte[]> sink) {
+        sink.accept(Arrays.copyOf(chunk, length));
+        length = 0;
+        hash = 0;
+    }
+}
@@ -0,0 +1,105 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.concurrent.Task;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+class DeviceBatchRunner {
+    private final DeviceTaskQueue taskQueue;
+
+    DeviceBatchRunner(DeviceTaskQueue taskQueue) {
+        this.taskQueue = taskQueue;
+    }
+
+    // Parallelism above what the task queue runs at once would only wait in the queue, so it is clamped to that.
+    void run(List<String> serials, int parallelism, Function<String, CommandResult> operation, Listener listener) {
+        Semaphore permits = new Semaphore(effectiveParallelism(parallelism));
+        CountDownLatch remaining = new CountDownLatch(serials.size());
+        long startedAt = System.nanoTime();
+
+        // Permits are taken before a device enters its lane, so waiting batch work never holds a queue slot.
+        Thread.ofVirtual().name("device-batch").start(() -> {
+            try {
+                for (String serial : serials) {
+                    permits.acquire();
+                    taskQueue.mutate(serial, deviceTask(serial, operation, listener, permits, remaining));
+                }
+                remaining.await();
+                listener.onCompleted(elapsedMillis(startedAt));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private int effectiveParallelism(int parallelism) {
+        return Math.min(Math.max(1, parallelism), taskQueue.maxRunning());
+    }
+
+    // Every device gives back its permit and counts down exactly once: when its task ends, however it ends, or when
+    // the task is cancelled before it started, for example by a superseding task or the queue closing.
+    private static Task<CommandResult> deviceTask(String serial, Function<String, CommandResult> operation,
+                                                  Listener listener, Semaphore permits, CountDownLatch remaining) {
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        };
+        return new Task<>() {
+            @Override
+            protected CommandResult call() {
+                if (!started.compareAndSet(false, true)) {
+                    return CommandResult.failure("Cancelled.", "");
+                }
+                long startedAt = System.nanoTime();
+                CommandResult result = CommandResult.failure("Cancelled.", "");
+                try {
+                    listener.onStarted(serial);
+                    result = operation.apply(serial);
+                } catch (RuntimeException ex) {
+                    result = CommandResult.failure("Unexpected error: " + ex.getMessage(), "");
+                } finally {
+                    release.run();
+                    try {
+                        listener.onFinished(serial, result, elapsedMillis(startedAt));
+                    } finally {
+                        remaining.countDown();
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled && started.compareAndSet(false, true)) {
+                    release.run();
+                    try {
+                        listener.onFinished(serial, CommandResult.failure("Cancelled before it started.", ""), 0);
+                    } finally {
+                        remaining.countDown();
+                    }
+                }
+                return cancelled;
+            }
+        };
+    }
+
+    private static long elapsedMillis(long startedAt) {
+        return (System.nanoTime() - startedAt) / 1_000_000;
+    }
+
+    interface Listener {
+        void onStarted(String serial);
+
+        void onFinished(String serial, CommandResult result, long elapsedMillis);
+
+        void onCompleted(long elapsedMillis);
+    }
+}
@@ -0,0 +1,47 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class DeviceProperties {
+    public static final String KERNEL_RELEASE = "uname.release";
+    public static final String SELINUX_MODE = "selinux.mode";
+
+    private DeviceProperties() {
+    }
+
+    public static String dumpCommand() {
+        return "getprop; "
+                + "printf '[%s]: [%s]\\n' '" + KERNEL_RELEASE + "' \"$(uname -r 2>/dev/null)\"; "
+                + "printf '[%s]: [%s]\\n' '" + SELINUX_MODE + "' \"$(getenforce 2>/dev/null)\"";
+    }
+
+    public static Map<String, String> parse(String output) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        StringBuilder pending = null;
+        for (String line : output.split("\\R")) {
+            if (pending != null) {
+                pending.append('\n').append(line);
+            } else if (line.startsWith("[")) {
+                pending = new StringBuilder(line);
+            } else {
+                continue;
+            }
+            if (pending.charAt(pending.length() - 1) == ']') {
+                putEntry(properties, pending.toString());
+                pending = null;
+            }
+        }
+        return properties;
+    }
+
+    private static void putEntry(Map<String, String> properties, String entry) {
+        int keyEnd = entry.indexOf("]: [");
+        if (keyEnd < 1) {
+            return;
+        }
+        String key = entry.substring(1, keyEnd);
+        String value = entry.substring(keyEnd + 4, entry.length() - 1);
+        properties.put(key, value);
+    }
+}
@@ -0,0 +1,170 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.concurrent.Task;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+class DeviceTaskQueue implements AutoCloseable {
+    static final int DEFAULT_MAX_RUNNING = 8;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("adb-task-", 0).factory());
+    private final int maxRunning;
+    private final Semaphore permits;
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private volatile BiConsumer<Integer, Integer> statusListener = (waiting, running) -> { };
+    private boolean closed;
+
+    DeviceTaskQueue() {
+        this(DEFAULT_MAX_RUNNING);
+    }
+
+    DeviceTaskQueue(int maxRunning) {
+        this.maxRunning = Math.max(1, maxRunning);
+        this.permits = new Semaphore(this.maxRunning);
+    }
+
+    int maxRunning() {
+        return maxRunning;
+    }
+
+    void setStatusListener(BiConsumer<Integer, Integer> statusListener) {
+        this.statusListener = statusListener == null ? (waiting, running) -> { } : statusListener;
+    }
+
+    Task<?> mutate(String lane, Task<?> task) {
+        return submit(lane, null, null, task);
+    }
+
+    Task<?> read(String lane, String key, String group, Task<?> task) {
+        return submit(lane, key, group, task);
+    }
+
+    private Task<?> submit(String laneName, String key, String group, Task<?> task) {
+        synchronized (this) {
+            if (closed) {
+                task.cancel(false);
+                return task;
+            }
+            Lane lane = lanes.computeIfAbsent(laneName, name -> new Lane());
+            if (key != null) {
+                for (Entry pending : lane.pending) {
+                    if (key.equals(pending.key) && !pending.task.isCancelled()) {
+                        return pending.task;
+                    }
+                }
+            }
+            if (group != null) {
+                supersede(group);
+            }
+            lane.pending.add(new Entry(key, group, task));
+            startNext(lane);
+        }
+        publishStatus();
+        return task;
+    }
+
+    // Running reads are only marked cancelled so their result is dropped; interrupting them would tear down
+    // the shared root shell session mid-command.
+    private void supersede(String group) {
+        for (Lane lane : lanes.values()) {
+            Iterator<Entry> iterator = lane.pending.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (group.equals(entry.group)) {
+                    iterator.remove();
+                    entry.task.cancel(false);
+                }
+            }
+            if (lane.running != null && group.equals(lane.running.group)) {
+                lane.running.task.cancel(false);
+            }
+        }
+    }
+
+    private void startNext(Lane lane) {
+        if (lane.running != null) {
+            return;
+        }
+        Entry next;
+        while ((next = lane.pending.poll()) != null && next.task.isCancelled()) {
+            // Skip work that was superseded while waiting.
+        }
+        if (next == null) {
+            return;
+        }
+        Entry entry = next;
+        lane.running = entry;
+        executor.execute(() -> {
+            try {
+                permits.acquire();
+                try {
+                    entry.task.run();
+                } finally {
+                    permits.release();
+                }
+            } catch (InterruptedException ex) {
+                entry.task.cancel(false);
+            } finally {
+                finished(lane, entry);
+            }
+        });
+    }
+
+    private void finished(Lane lane, Entry entry) {
+        synchronized (this) {
+            if (lane.running == entry) {
+                lane.running = null;
+            }
+            if (!closed) {
+                startNext(lane);
+            }
+        }
+        publishStatus();
+    }
+
+    private void publishStatus() {
+        int waiting = 0;
+        int running = 0;
+        synchronized (this) {
+            for (Lane lane : lanes.values()) {
+                for (Entry entry : lane.pending) {
+                    if (!entry.task.isCancelled()) {
+                        waiting++;
+                    }
+                }
+                if (lane.running != null) {
+                    running++;
+                }
+            }
+        }
+        statusListener.accept(waiting, running);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (Lane lane : lanes.values()) {
+                lane.pending.forEach(entry -> entry.task.cancel(false));
+                lane.pending.clear();
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private static final class Lane {
+        private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+        private Entry running;
+    }
+
+    private record Entry(String key, String group, Task<?> task) {
+    }
+}
@@ -0,0 +1,145 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+public class DeviceTracker implements AutoCloseable {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(5);
+    private static final Duration IDLE_LIMIT = Duration.ofDays(1);
+
+    public interface Listener {
+        void onDevices(List<DeviceInfo> devices);
+
+        default void onStatus(boolean tracking, String message) {
+        }
+    }
+
+    private final Supplier<String> host;
+    private final IntSupplier port;
+    private final Runnable startServer;
+    private final Listener listener;
+    private final Object monitor = new Object();
+    private final Thread thread;
+    private AdbSocketConnection connection;
+    private volatile boolean restartRequested;
+    private volatile boolean closed;
+
+    DeviceTracker(Supplier<String> host, IntSupplier port, Runnable startServer, Listener listener) {
+        this.host = host;
+        this.port = port;
+        this.startServer = startServer;
+        this.listener = listener;
+        this.thread = Thread.ofPlatform().daemon().name("adb-device-tracker").start(this::trackLoop);
+    }
+
+    // Drops the current subscription, e.g. after the server address changed; the loop reconnects right away.
+    void restart() {
+        synchronized (monitor) {
+            restartRequested = true;
+            closeConnection();
+            monitor.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (monitor) {
+            closed = true;
+            closeConnection();
+            monitor.notifyAll();
+        }
+        try {
+            thread.join(CONNECT_TIMEOUT.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void trackLoop() {
+        boolean serverStartAttempted = false;
+        while (!closed) {
+            String serverHost = host.get();
+            int serverPort = port.getAsInt();
+            String address = serverHost + ":" + serverPort;
+            boolean received = false;
+            try (AdbSocketConnection opened = AdbSocketConnection.open(serverHost, serverPort, CONNECT_TIMEOUT)) {
+                synchronized (monitor) {
+                    if (closed || restartRequested) {
+                        restartRequested = false;
+                        continue;
+                    }
+                    connection = opened;
+                }
+                opened.sendRequest("host:track-devices-l");
+                listener.onStatus(true, "watching " + address);
+                String previous = null;
+                while (!closed) {
+                    opened.extendDeadline(IDLE_LIMIT);
+                    String payload = opened.readLengthPrefixed();
+                    received = true;
+                    serverStartAttempted = false;
+                    if (!payload.equals(previous)) {
+                        previous = payload;
+                        listener.onDevices(AdbService.parseDevices(payload));
+                    }
+                }
+            } catch (ConnectException ex) {
+                if (!serverStartAttempted && startServer != null) {
+                    serverStartAttempted = true;
+                    listener.onStatus(false, "starting adb server...");
+                    startServer.run();
+                    continue;
+                }
+                listener.onStatus(false, "adb server not reachable at " + address + ", retrying");
+            } catch (IOException ex) {
+                if (!closed && !restartRequested) {
+                    listener.onStatus(false, "lost connection to " + address + " (" + ex.getMessage() + "), retrying");
+                }
+            } finally {
+                synchronized (monitor) {
+                    connection = null;
+                }
+            }
+            if (received && !closed) {
+                // The server went away, so nothing it reported is known to be attached any more.
+                listener.onDevices(List.of());
+            }
+            awaitRetry();
+        }
+        listener.onStatus(false, "stopped");
+    }
+
+    private void awaitRetry() {
+        synchronized (monitor) {
+            long deadline = System.nanoTime() + RETRY_DELAY.toNanos();
+            while (!closed && !restartRequested) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    monitor.wait(Math.max(1, Duration.ofNanos(remaining).toMillis()));
+                } catch (InterruptedException ex) {
+                    closed = true;
+                }
+            }
+            restartRequested = false;
+        }
+    }
+
+    private void closeConnection() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // The tracking loop sees the closed channel and reconnects.
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class LatencyHistogram {
+    // Buckets grow by 10% from 1 microsecond, which keeps percentiles within 10% up to several hours.
+    private static final double GROWTH = 1.1;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final int BUCKETS = 256;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long elapsedNanos, boolean success) {
+        long micros = Math.max(0, elapsedNanos / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        if (!success) {
+            failures.incrementAndGet();
+        }
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    long failures() {
+        return failures.get();
+    }
+
+    double meanMillis() {
+        long samples = count.get();
+        return samples == 0 ? 0 : Math.round((double) totalMicros.get() / samples) / 1000.0;
+    }
+
+    double maxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    double percentileMillis(double quantile) {
+        long samples = count.get();
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * samples));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.round(Math.min(upperBoundMicros(i), maxMicros.get())) / 1000.0;
+            }
+        }
+        return maxMillis();
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < 1) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 1 + (int) (Math.log(micros) / LOG_GROWTH));
+    }
+
+    private static double upperBoundMicros(int bucket) {
+        return bucket == 0 ? 1 : Math.pow(GROWTH, bucket);
+    }
+}
@@ -1,7 +1,13 @@
 package opensource.master_duel_android_adb_user_changer;
 
+import java.util.Arrays;
+
 public class Launcher {
     public static void main(String[] args) {
+        if (args.length > 0 && "cli".equals(args[0])) {
+            CliApp.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         MainApp.main(args);
     }
-}
+}
@@ -0,0 +1,96 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Appending to a full buffer evicts the oldest entries in the same change event, so a FilteredList on top only
+// updates its index mapping. Mutate it on the FX thread like any other observable list.
+class LogBuffer extends ObservableListBase<LogEntry> {
+    static final int DEFAULT_CAPACITY = 5000;
+
+    private final LogEntry[] entries;
+    private int head;
+    private int size;
+
+    LogBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    LogBuffer(int capacity) {
+        this.entries = new LogEntry[Math.max(1, capacity)];
+    }
+
+    int capacity() {
+        return entries.length;
+    }
+
+    void append(LogEntry entry) {
+        appendAll(List.of(entry));
+    }
+
+    void appendAll(List<LogEntry> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        List<LogEntry> kept = added.size() > entries.length
+                ? added.subList(added.size() - entries.length, added.size())
+                : added;
+        int evicted = Math.max(0, size + kept.size() - entries.length);
+
+        beginChange();
+        try {
+            if (evicted > 0) {
+                List<LogEntry> removed = new ArrayList<>(evicted);
+                for (int i = 0; i < evicted; i++) {
+                    removed.add(entries[(head + i) % entries.length]);
+                    entries[(head + i) % entries.length] = null;
+                }
+                head = (head + evicted) % entries.length;
+                size -= evicted;
+                nextRemove(0, removed);
+            }
+            int from = size;
+            for (LogEntry entry : kept) {
+                entries[(head + size) % entries.length] = entry;
+                size++;
+            }
+            nextAdd(from, size);
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        List<LogEntry> removed = Collections.unmodifiableList(new ArrayList<>(this));
+        Arrays.fill(entries, null);
+        head = 0;
+        size = 0;
+        beginChange();
+        try {
+            nextRemove(0, removed);
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    public LogEntry get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return entries[(head + index) % entries.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,36 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.time.Instant;
+
+public record LogEntry(Instant timestamp, String serial, String operation, LogStatus status, String text) {
+    static final int MAX_TEXT_CHARS = 16 * 1024;
+
+    public LogEntry {
+        serial = serial == null ? "" : serial;
+        operation = operation == null ? "" : operation;
+        text = truncate(text == null ? "" : text);
+    }
+
+    static LogEntry command(String serial, String operation, CommandResult result) {
+        return command(serial, operation, "", result);
+    }
+
+    // The subject, such as the folder of a backup, goes into the text so operations stay a small fixed set of names.
+    static LogEntry command(String serial, String operation, String subject, CommandResult result) {
+        String text = result.toDisplayString();
+        return new LogEntry(Instant.now(), serial, operation, result.isSuccess() ? LogStatus.OK : LogStatus.FAILED,
+                subject.isEmpty() ? text : subject + "\n" + text);
+    }
+
+    static LogEntry output(String serial, String line) {
+        return new LogEntry(Instant.now(), serial, "live output", LogStatus.OUTPUT, line);
+    }
+
+    private static String truncate(String text) {
+        if (text.length() <= MAX_TEXT_CHARS) {
+            return text;
+        }
+        return text.substring(0, MAX_TEXT_CHARS) + "\n... (" + (text.length() - MAX_TEXT_CHARS)
+                + " more characters not kept)";
+    }
+}
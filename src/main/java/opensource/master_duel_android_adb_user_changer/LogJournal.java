@@ -0,0 +1,273 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+class LogJournal implements AutoCloseable {
+    static final String CURRENT_SEGMENT = "journal.jsonl";
+    static final long DEFAULT_MAX_SEGMENT_BYTES = 8L * 1024 * 1024;
+    static final Duration DEFAULT_MAX_SEGMENT_AGE = Duration.ofDays(1);
+    static final int DEFAULT_KEEP_SEGMENTS = 30;
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int MAX_BATCH = 512;
+    private static final Duration FLUSH_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration REPORT_INTERVAL = Duration.ofMinutes(1);
+    private static final DateTimeFormatter SEGMENT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+            .withZone(ZoneOffset.UTC);
+    private static final Record WAKE_UP = new Record(null, null, null, null);
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final Duration maxSegmentAge;
+    private final int keepSegments;
+    private final CommandLogListener report;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean compressRotated = true;
+    private volatile boolean closed;
+
+    private BufferedWriter writer;
+    private long segmentBytes;
+    private Instant segmentStartedAt;
+    private boolean failing;
+    private long lastReportNanos;
+    private int unreportedFailures;
+
+    LogJournal(Path directory, CommandLogListener report) {
+        this(directory, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_MAX_SEGMENT_AGE, DEFAULT_KEEP_SEGMENTS, report);
+    }
+
+    // Write failures go to report, at most once per REPORT_INTERVAL while they keep happening.
+    LogJournal(Path directory, long maxSegmentBytes, Duration maxSegmentAge, int keepSegments,
+               CommandLogListener report) {
+        this.directory = directory;
+        this.maxSegmentBytes = Math.max(1024, maxSegmentBytes);
+        this.maxSegmentAge = maxSegmentAge;
+        this.keepSegments = Math.max(1, keepSegments);
+        this.report = report;
+        this.writerThread = Thread.ofPlatform().daemon().name("log-journal").start(this::writeLoop);
+    }
+
+    static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".master-duel-android-adb-user-changer", "logs");
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    void setCompressRotated(boolean compressRotated) {
+        this.compressRotated = compressRotated;
+    }
+
+    // Never blocks the caller: when the writer falls behind by a full queue the record is counted and dropped.
+    void append(String serial, String operation, CommandResult result) {
+        if (closed || !queue.offer(new Record(Instant.now(), serial, operation, result))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.offer(WAKE_UP);
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        long lastFlush = System.nanoTime();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Record first = queue.poll(FLUSH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException ex) {
+                queue.drainTo(batch);
+            }
+            batch.remove(WAKE_UP);
+            try {
+                if (writer != null) {
+                    rotateIfNeeded();
+                }
+                writeBatch(batch);
+                if (writer != null && (queue.isEmpty() || System.nanoTime() - lastFlush >= FLUSH_INTERVAL.toNanos())) {
+                    writer.flush();
+                    lastFlush = System.nanoTime();
+                }
+                if (failing) {
+                    failing = false;
+                    unreportedFailures = 0;
+                    report.onCommand("", "log journal", CommandResult.success("Log journal writes resumed."));
+                }
+            } catch (IOException ex) {
+                reportFailure(ex);
+                closeWriter();
+            }
+            batch.clear();
+        }
+        closeWriter();
+    }
+
+    private void reportFailure(IOException ex) {
+        unreportedFailures++;
+        long now = System.nanoTime();
+        if (failing && now - lastReportNanos < REPORT_INTERVAL.toNanos()) {
+            return;
+        }
+        String repeated = unreportedFailures > 1 ? " (" + unreportedFailures + " failed writes since the last report)"
+                : "";
+        report.onCommand("", "log journal", CommandResult.failure("Log journal write failed in " + directory + ": "
+                + ex.getMessage() + repeated, ""));
+        failing = true;
+        lastReportNanos = now;
+        unreportedFailures = 0;
+    }
+
+    private void writeBatch(List<Record> batch) throws IOException {
+        long droppedSince = dropped.getAndSet(0);
+        if (droppedSince > 0) {
+            Map<String, Object> marker = new LinkedHashMap<>();
+            marker.put("time", Instant.now().toString());
+            marker.put("dropped", droppedSince);
+            writeLine(JsonWriter.write(marker));
+        }
+        for (Record record : batch) {
+            writeLine(JsonWriter.write(record.toJson()));
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        rotateIfNeeded();
+        writer.write(line);
+        writer.newLine();
+        segmentBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    private void openSegment() throws IOException {
+        Files.createDirectories(directory);
+        Path current = directory.resolve(CURRENT_SEGMENT);
+        if (Files.exists(current)) {
+            BasicFileAttributes attributes = Files.readAttributes(current, BasicFileAttributes.class);
+            segmentBytes = attributes.size();
+            segmentStartedAt = attributes.creationTime().toInstant();
+        } else {
+            segmentBytes = 0;
+            segmentStartedAt = Instant.now();
+        }
+        writer = Files.newBufferedWriter(current, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void rotateIfNeeded() throws IOException {
+        if (writer == null) {
+            openSegment();
+        }
+        boolean tooLarge = segmentBytes >= maxSegmentBytes;
+        boolean tooOld = segmentBytes > 0
+                && Duration.between(segmentStartedAt, Instant.now()).compareTo(maxSegmentAge) >= 0;
+        if (!tooLarge && !tooOld) {
+            return;
+        }
+        closeWriter();
+        Path current = directory.resolve(CURRENT_SEGMENT);
+        String base = "journal-" + SEGMENT_TIME.format(Instant.now());
+        Path rotated = directory.resolve(base + ".jsonl");
+        int index = 1;
+        while (Files.exists(rotated) || Files.exists(directory.resolve(rotated.getFileName() + ".gz"))) {
+            rotated = directory.resolve(base + "-" + index++ + ".jsonl");
+        }
+        Files.move(current, rotated);
+        if (compressRotated) {
+            compress(rotated);
+        }
+        pruneSegments();
+        openSegment();
+    }
+
+    private static void compress(Path segment) throws IOException {
+        Path target = segment.resolveSibling(segment.getFileName() + ".gz");
+        try (InputStream in = Files.newInputStream(segment);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(target))) {
+            in.transferTo(out);
+        }
+        Files.delete(segment);
+    }
+
+    private void pruneSegments() throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files
+                    .filter(path -> path.getFileName().toString().startsWith("journal-"))
+                    .sorted()
+                    .toList();
+        }
+        for (int i = 0; i < segments.size() - keepSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // The next batch reopens the segment.
+        }
+        writer = null;
+    }
+
+    private record Record(Instant time, String serial, String operation, CommandResult result) {
+        Map<String, Object> toJson() {
+            List<Object> steps = new ArrayList<>();
+            for (CommandResult.Step step : result.getSteps()) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("name", step.name());
+                entry.put("exitCode", step.exitCode());
+                steps.add(entry);
+            }
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("time", time.toString());
+            json.put("serial", serial == null || serial.isEmpty() ? null : serial);
+            json.put("operation", operation);
+            json.put("ok", result.isSuccess());
+            json.put("exitCode", result.getExitCode());
+            json.put("commandLine", result.getCommandLine());
+            json.put("stdout", result.getStdout());
+            json.put("stderr", result.getStderr());
+            json.put("steps", steps);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package opensource.master_duel_android_adb_user_changer;
+
+public enum LogStatus {
+    OK("OK"),
+    FAILED("Failed"),
+    OUTPUT("Output");
+
+    private final String label;
+
+    LogStatus(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -1,49 +1,142 @@
 package opensource.master_duel_android_adb_user_changer;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
 import javafx.concurrent.Task;
+import javafx.css.PseudoClass;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.control.cell.ProgressBarTableCell;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.*;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class MainApp extends Application {
+    private static final String HOST_LANE = "adb-host";
+    private static final String REPOSITORY_LANE = "backup-repository";
+    private static final String ALL_FILTER = "All";
+    private static final PseudoClass STALE = PseudoClass.getPseudoClass("stale");
+    private static final Path BACKUP_DIRECTORY = Path.of(System.getProperty("user.home"),
+            ".master-duel-android-adb-user-changer", "backups");
+    private static final DateTimeFormatter DISPLAY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
     private final String appVersion = resolveAppVersion();
-    private final SimpleStringProperty adbPath = new SimpleStringProperty("adb");
-    private final AdbService adbService = new AdbService(adbPath);
+    private final AdbSettings adbSettings = new AdbSettings();
+    private final AdbService adbService = new AdbService(adbSettings);
+    private final DeviceTaskQueue taskQueue = new DeviceTaskQueue();
+    private final DeviceBatchRunner batchRunner = new DeviceBatchRunner(taskQueue);
+    private final LogJournal logJournal = new LogJournal(LogJournal.defaultDirectory(), (serial, operation, result) ->
+            Platform.runLater(() -> appendLog(List.of(LogEntry.command(serial, operation, result)))));
+    private final BackupRepository backupRepository = new BackupRepository(BackupRepository.defaultDirectory());
+    private final ProfileIndex profileIndex = new ProfileIndex(ProfileIndex.defaultDirectory());
 
     private final ObservableList<DeviceInfo> devices = FXCollections.observableArrayList();
-    private final ObservableList<UserProfile> userItems = FXCollections.observableArrayList();
-    private final SortedList<UserProfile> users = new SortedList<>(userItems);
-
-    private final TextArea logArea = new TextArea();
+    private final UserProfileList userItems = new UserProfileList();
+    private final ObservableList<BatchDeviceResult> batchResults = FXCollections.observableArrayList();
+    private final ObservableList<BackupJob> backupJobs = FXCollections.observableArrayList();
+    private final ObservableList<SnapshotManifest> snapshots = FXCollections.observableArrayList();
+    private final ProfileSearchIndex searchIndex = new ProfileSearchIndex(userItems);
+    private final FilteredList<UserProfile> filteredUsers = new FilteredList<>(userItems);
+    private final SortedList<UserProfile> users = new SortedList<>(filteredUsers);
+
+    private final LogBuffer logBuffer = new LogBuffer();
+    private final FilteredList<LogEntry> visibleLog = new FilteredList<>(logBuffer);
+    private final ListView<LogEntry> logList = new ListView<>(visibleLog);
+    private final ObservableList<String> logDevices = FXCollections.observableArrayList(ALL_FILTER);
+    private final ObservableList<String> logOperations = FXCollections.observableArrayList(ALL_FILTER);
+    private final ChoiceBox<String> logDeviceFilter = new ChoiceBox<>(logDevices);
+    private final ChoiceBox<String> logOperationFilter = new ChoiceBox<>(logOperations);
+    private final Map<String, Integer> logDeviceCounts = new HashMap<>();
+    private final Map<String, Integer> logOperationCounts = new HashMap<>();
+    private final ChoiceBox<String> logStatusFilter = new ChoiceBox<>();
+    private final CheckBox followLogCheck = new CheckBox("Follow");
+    private final Label logCountLabel = new Label();
     private final TextArea deviceDetails = new TextArea();
     private final TextArea userDetails = new TextArea();
+    private final TextField userSearchField = new TextField();
+    private final DatePicker switchedFromPicker = new DatePicker();
+    private final DatePicker switchedToPicker = new DatePicker();
+    private final Label userCountLabel = new Label();
 
     private final ComboBox<DeviceInfo> deviceCombo = new ComboBox<>(devices);
     private final TableView<UserProfile> userTable = new TableView<>(users);
 
     private final Label adbVersionLabel = new Label("ADB version: unknown");
+    private final Label queueLabel = new Label();
+    private final Label batchSummaryLabel = new Label();
+    private final Label backupSummaryLabel = new Label();
+    private final Label repositoryLabel = new Label("Repository: not loaded");
+    private final Label trackingLabel = new Label("Device tracking: starting...");
+    private final Label usersStatusLabel = new Label("No device selected.");
+    // Device the Users table currently shows, which may be a saved list while the device itself is not connected.
+    private String usersSerial;
+
+    private final ObservableList<MetricsRegistry.OperationStats> operationStats = FXCollections.observableArrayList();
+    private final ObservableList<MetricsRegistry.DeviceStats> deviceStats = FXCollections.observableArrayList();
+    private final Timeline metricsRefresh = new Timeline(new KeyFrame(Duration.seconds(2), event -> refreshMetrics()));
+
+    private final CheckBox liveOutputCheck = new CheckBox("Show live command output");
+    private final ConcurrentLinkedQueue<LogEntry> liveLines = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean liveFlushScheduled = new AtomicBoolean();
 
     @Override
     public void start(Stage primaryStage) {
+        adbService.setLogListener((serial, operation, result) ->
+                Platform.runLater(() -> logCommand(serial, operation, result)));
+        taskQueue.setStatusListener((waiting, running) -> Platform.runLater(() -> updateQueueLabel(waiting, running)));
+        updateQueueLabel(0, 0);
+        adbService.getMetrics().registerMBean();
+
         Scene scene = new Scene(buildRoot(), 1100, 720);
         scene.getStylesheets().add(getClass().getResource("/styles.css").toExternalForm());
 
@@ -51,8 +144,31 @@ public class MainApp extends Application {
         primaryStage.setScene(scene);
         primaryStage.show();
 
+        profileIndex.lastSerial().ifPresent(this::showIndexedUsers);
+        deviceCombo.valueProperty().addListener((obs, oldValue, newValue) -> onDeviceChanged(oldValue, newValue));
         refreshAdbVersion();
         refreshDevices();
+        adbService.startDeviceTracking(new DeviceTracker.Listener() {
+            @Override
+            public void onDevices(List<DeviceInfo> devices) {
+                Platform.runLater(() -> applyDevices(devices));
+            }
+
+            @Override
+            public void onStatus(boolean tracking, String message) {
+                Platform.runLater(() -> trackingLabel.setText("Device tracking: " + message));
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        metricsRefresh.stop();
+        adbService.getMetrics().unregisterMBean();
+        taskQueue.close();
+        adbService.close();
+        backupRepository.close();
+        logJournal.close();
     }
 
     private BorderPane buildRoot() {
@@ -75,7 +191,7 @@ public class MainApp extends Application {
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
 
-        header.getChildren().addAll(title, versionLabel, spacer);
+        header.getChildren().addAll(title, versionLabel, spacer, queueLabel);
         return header;
     }
 
@@ -83,7 +199,10 @@ public class MainApp extends Application {
         TabPane tabs = new TabPane();
         tabs.getTabs().add(buildDevicesTab());
         tabs.getTabs().add(buildUsersTab());
+        tabs.getTabs().add(buildBatchTab());
+        tabs.getTabs().add(buildBackupsTab());
         tabs.getTabs().add(buildLogsTab());
+        tabs.getTabs().add(buildMetricsTab());
         tabs.getTabs().add(buildAdbTab());
         tabs.getTabs().add(buildAboutTab());
         return tabs;
@@ -100,7 +219,7 @@ public class MainApp extends Application {
         row.setAlignment(Pos.CENTER_LEFT);
 
         TextField adbField = new TextField();
-        adbField.textProperty().bindBidirectional(adbPath);
+        adbField.textProperty().bindBidirectional(adbSettings.adbPathProperty());
         adbField.setPrefColumnCount(28);
 
         Button adbVersionButton = new Button("Check ADB");
@@ -108,7 +227,59 @@ public class MainApp extends Application {
 
         row.getChildren().addAll(new Label("ADB Path:"), adbField, adbVersionButton, adbVersionLabel);
 
-        box.getChildren().addAll(row);
+        HBox transportRow = new HBox(8);
+        transportRow.setAlignment(Pos.CENTER_LEFT);
+
+        ChoiceBox<AdbTransport> transportChoice = new ChoiceBox<>(FXCollections.observableArrayList(AdbTransport.values()));
+        transportChoice.valueProperty().bindBidirectional(adbSettings.transportProperty());
+
+        TextField serverField = new TextField();
+        serverField.textProperty().bindBidirectional(adbSettings.serverAddressProperty());
+        serverField.setPrefColumnCount(16);
+        serverField.disableProperty().bind(transportChoice.valueProperty().isNotEqualTo(AdbTransport.SOCKET));
+
+        transportRow.getChildren().addAll(new Label("Transport:"), transportChoice, new Label("Server:"), serverField);
+
+        Label transportHint = new Label("Socket transport talks to the adb server directly and falls back to the adb binary when the server is not running.");
+        transportHint.setWrapText(true);
+
+        CheckBox sessionCheck = new CheckBox("Keep a root shell open per device (faster su commands)");
+        sessionCheck.selectedProperty().bindBidirectional(adbSettings.persistentRootShellProperty());
+
+        HBox enumerationRow = new HBox(8);
+        enumerationRow.setAlignment(Pos.CENTER_LEFT);
+
+        ChoiceBox<ProfileEnumerationMode> enumerationChoice =
+                new ChoiceBox<>(FXCollections.observableArrayList(ProfileEnumerationMode.values()));
+        enumerationChoice.valueProperty().bindBidirectional(adbSettings.profileEnumerationProperty());
+
+        ChoiceBox<SwitchMode> switchModeChoice = new ChoiceBox<>(FXCollections.observableArrayList(SwitchMode.values()));
+        switchModeChoice.valueProperty().bindBidirectional(adbSettings.switchModeProperty());
+
+        enumerationRow.getChildren().addAll(new Label("User listing:"), enumerationChoice,
+                new Label("Switching:"), switchModeChoice);
+
+        HBox propsRow = new HBox(8);
+        propsRow.setAlignment(Pos.CENTER_LEFT);
+
+        TextField extraPropsField = new TextField();
+        extraPropsField.textProperty().bindBidirectional(adbSettings.extraDevicePropertiesProperty());
+        extraPropsField.setPrefColumnCount(40);
+
+        propsRow.getChildren().addAll(new Label("Extra device properties:"), extraPropsField);
+
+        HBox rootCacheRow = new HBox(8);
+        rootCacheRow.setAlignment(Pos.CENTER_LEFT);
+
+        Spinner<Integer> rootCacheSpinner = new Spinner<>(0, 86400, adbSettings.getRootCacheTtlSeconds(), 30);
+        rootCacheSpinner.setEditable(true);
+        rootCacheSpinner.setPrefWidth(100);
+        rootCacheSpinner.valueProperty().addListener((obs, oldValue, newValue) ->
+                adbSettings.rootCacheTtlSecondsProperty().set(newValue == null ? 0 : newValue));
+
+        rootCacheRow.getChildren().addAll(new Label("Root check cache TTL (s, 0 = off):"), rootCacheSpinner);
+
+        box.getChildren().addAll(row, transportRow, transportHint, sessionCheck, enumerationRow, propsRow, rootCacheRow);
         tab.setContent(box);
         return tab;
     }
@@ -142,7 +313,7 @@ public class MainApp extends Application {
         deviceDetails.setMinHeight(0);
         VBox.setVgrow(deviceDetails, Priority.ALWAYS);
 
-        box.getChildren().addAll(row, new Label("Device Details"), deviceDetails);
+        box.getChildren().addAll(row, trackingLabel, new Label("Device Details"), deviceDetails);
         tab.setContent(box);
         return tab;
     }
@@ -171,6 +342,29 @@ public class MainApp extends Application {
 
         row.getChildren().addAll(refreshButton, switchButton, renameButton, newUserButton);
 
+        userSearchField.setPromptText("Alias or folder");
+        userSearchField.setPrefColumnCount(22);
+        userSearchField.textProperty().addListener((obs, oldValue, newValue) -> applyUserFilter());
+        switchedFromPicker.setPromptText("From");
+        switchedFromPicker.setPrefWidth(130);
+        switchedFromPicker.valueProperty().addListener((obs, oldValue, newValue) -> applyUserFilter());
+        switchedToPicker.setPromptText("To");
+        switchedToPicker.setPrefWidth(130);
+        switchedToPicker.valueProperty().addListener((obs, oldValue, newValue) -> applyUserFilter());
+        userItems.addListener((ListChangeListener<UserProfile>) change -> updateUserCount());
+        applyUserFilter();
+
+        Button clearSearchButton = new Button("Clear");
+        clearSearchButton.setOnAction(event -> {
+            userSearchField.clear();
+            switchedFromPicker.setValue(null);
+            switchedToPicker.setValue(null);
+        });
+
+        HBox searchRow = new HBox(8, new Label("Search:"), userSearchField, new Label("Last switch:"),
+                switchedFromPicker, new Label("to"), switchedToPicker, clearSearchButton, userCountLabel);
+        searchRow.setAlignment(Pos.CENTER_LEFT);
+
         users.comparatorProperty().bind(userTable.comparatorProperty());
 
         TableColumn<UserProfile, Boolean> activeCol = new TableColumn<>("Active");
@@ -189,6 +383,7 @@ public class MainApp extends Application {
         userTable.getColumns().addAll(activeCol, folderCol, aliasCol);
         userTable.setPrefHeight(360);
         userTable.setMinHeight(0);
+        userTable.setFixedCellSize(26);
         userTable.getSelectionModel().selectedItemProperty().addListener((obs, oldValue, newValue) -> {
             if (newValue != null) {
                 userDetails.setText(newValue.toDetailedString());
@@ -208,7 +403,256 @@ public class MainApp extends Application {
         detailsSplit.setDividerPositions(0.7);
         detailsSplit.setMinHeight(0);
 
-        box.getChildren().addAll(row, detailsSplit);
+        box.getChildren().addAll(row, searchRow, usersStatusLabel, detailsSplit);
+        tab.setContent(box);
+        return tab;
+    }
+
+    private Tab buildBatchTab() {
+        Tab tab = new Tab("Batch");
+        tab.setClosable(false);
+
+        VBox box = new VBox(12);
+        box.setPadding(new Insets(12));
+
+        ListView<DeviceInfo> deviceList = new ListView<>(devices);
+        deviceList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        deviceList.setPrefHeight(140);
+        deviceList.setMinHeight(0);
+
+        Button selectAllButton = new Button("Select All Online");
+        selectAllButton.setOnAction(event -> {
+            deviceList.getSelectionModel().clearSelection();
+            for (int i = 0; i < devices.size(); i++) {
+                if ("device".equals(devices.get(i).getState())) {
+                    deviceList.getSelectionModel().select(i);
+                }
+            }
+        });
+
+        HBox actionRow = new HBox(8);
+        actionRow.setAlignment(Pos.CENTER_LEFT);
+
+        ChoiceBox<BatchAction> actionChoice = new ChoiceBox<>(FXCollections.observableArrayList(BatchAction.values()));
+        actionChoice.setValue(BatchAction.ACTIVATE_PROFILE);
+
+        TextField profileField = new TextField();
+        profileField.setPromptText("Folder or alias");
+        profileField.setPrefColumnCount(20);
+        profileField.disableProperty().bind(actionChoice.valueProperty().isNotEqualTo(BatchAction.ACTIVATE_PROFILE));
+
+        Spinner<Integer> parallelismSpinner = new Spinner<>(1, taskQueue.maxRunning(), 4);
+        parallelismSpinner.setEditable(true);
+        parallelismSpinner.setPrefWidth(80);
+
+        Button runButton = new Button("Run on Selected");
+        runButton.setOnAction(event -> runBatch(List.copyOf(deviceList.getSelectionModel().getSelectedItems()),
+                actionChoice.getValue(), profileField.getText(), parallelismSpinner.getValue()));
+
+        Label parallelismLabel = new Label("Parallel (max " + taskQueue.maxRunning() + "):");
+        actionRow.getChildren().addAll(actionChoice, profileField, parallelismLabel, parallelismSpinner, runButton);
+
+        TableView<BatchDeviceResult> resultTable = new TableView<>(batchResults);
+
+        TableColumn<BatchDeviceResult, String> serialCol = new TableColumn<>("Device");
+        serialCol.setCellValueFactory(new PropertyValueFactory<>("serial"));
+        serialCol.setPrefWidth(200);
+
+        TableColumn<BatchDeviceResult, String> statusCol = new TableColumn<>("Status");
+        statusCol.setCellValueFactory(cellData -> cellData.getValue().statusProperty());
+        statusCol.setPrefWidth(90);
+
+        TableColumn<BatchDeviceResult, String> elapsedCol = new TableColumn<>("Time");
+        elapsedCol.setCellValueFactory(cellData -> cellData.getValue().elapsedProperty());
+        elapsedCol.setPrefWidth(80);
+
+        TableColumn<BatchDeviceResult, String> detailCol = new TableColumn<>("Result");
+        detailCol.setCellValueFactory(cellData -> cellData.getValue().detailProperty());
+        detailCol.setPrefWidth(520);
+
+        resultTable.getColumns().add(serialCol);
+        resultTable.getColumns().add(statusCol);
+        resultTable.getColumns().add(elapsedCol);
+        resultTable.getColumns().add(detailCol);
+        resultTable.setMinHeight(0);
+        VBox.setVgrow(resultTable, Priority.ALWAYS);
+
+        box.getChildren().addAll(new HBox(8, new Label("Devices"), selectAllButton), deviceList, actionRow,
+                batchSummaryLabel, resultTable);
+        tab.setContent(box);
+        return tab;
+    }
+
+    private Tab buildBackupsTab() {
+        Tab tab = new Tab("Backups");
+        tab.setClosable(false);
+
+        VBox box = new VBox(12);
+        box.setPadding(new Insets(12));
+
+        Label deviceLabel = new Label();
+        deviceLabel.textProperty().bind(deviceCombo.valueProperty().asString("Profiles on %s"));
+
+        Button refreshButton = new Button("Refresh Users");
+        refreshButton.setOnAction(event -> refreshUsers());
+
+        ListView<UserProfile> profileList = new ListView<>(users);
+        profileList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        profileList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(UserProfile profile, boolean empty) {
+                super.updateItem(profile, empty);
+                if (empty || profile == null) {
+                    setText(null);
+                } else {
+                    String alias = profile.getAlias() == null || profile.getAlias().isBlank()
+                            ? "" : " - " + profile.getAlias();
+                    setText(profile.getFolderName() + alias + (profile.isActive() ? " (active)" : ""));
+                }
+            }
+        });
+        profileList.setPrefHeight(160);
+        profileList.setMinHeight(0);
+
+        TextField directoryField = new TextField(BACKUP_DIRECTORY.toString());
+        HBox.setHgrow(directoryField, Priority.ALWAYS);
+
+        Button browseButton = new Button("Browse...");
+        browseButton.setOnAction(event -> {
+            DirectoryChooser chooser = new DirectoryChooser();
+            chooser.setTitle("Backup Folder");
+            File current = new File(directoryField.getText());
+            if (current.isDirectory()) {
+                chooser.setInitialDirectory(current);
+            }
+            File chosen = chooser.showDialog(tab.getTabPane().getScene().getWindow());
+            if (chosen != null) {
+                directoryField.setText(chosen.getAbsolutePath());
+            }
+        });
+
+        Spinner<Integer> parallelismSpinner = new Spinner<>(1, 4, 2);
+        parallelismSpinner.setEditable(true);
+        parallelismSpinner.setPrefWidth(80);
+
+        ChoiceBox<BackupFormat> formatChoice = new ChoiceBox<>(FXCollections.observableArrayList(BackupFormat.values()));
+        formatChoice.setValue(BackupFormat.ARCHIVE);
+        directoryField.disableProperty().bind(formatChoice.valueProperty().isNotEqualTo(BackupFormat.ARCHIVE));
+        browseButton.disableProperty().bind(directoryField.disableProperty());
+
+        Button backupButton = new Button("Back Up Selected");
+        backupButton.setOnAction(event -> runBackups(
+                profileList.getSelectionModel().getSelectedItems().stream()
+                        .filter(profile -> !"(error)".equals(profile.getFolderName()))
+                        .map(UserProfile::getFolderName)
+                        .toList(),
+                formatChoice.getValue(), directoryField.getText(), parallelismSpinner.getValue()));
+
+        HBox actionRow = new HBox(8, formatChoice, new Label("Save to:"), directoryField, browseButton,
+                new Label("Parallel:"), parallelismSpinner, backupButton);
+        actionRow.setAlignment(Pos.CENTER_LEFT);
+
+        Button restoreButton = new Button("Restore Archive...");
+        restoreButton.setOnAction(event -> {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle("Restore Profile");
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Profile backups", "*.tar.gz"));
+            File current = new File(directoryField.getText());
+            if (current.isDirectory()) {
+                chooser.setInitialDirectory(current);
+            }
+            File archive = chooser.showOpenDialog(tab.getTabPane().getScene().getWindow());
+            if (archive == null) {
+                return;
+            }
+            TextInputDialog dialog = new TextInputDialog("persistent_restored_" + Instant.now().toEpochMilli());
+            dialog.setTitle("Restore Profile");
+            dialog.setHeaderText("Restore " + archive.getName() + " as a new folder");
+            dialog.setContentText("Folder:");
+            dialog.showAndWait().ifPresent(folder -> runRestore(archive.toPath(), folder.strip()));
+        });
+
+        HBox restoreRow = new HBox(8, restoreButton,
+                new Label("Restores into a new folder; activate it on the Users tab afterwards."));
+        restoreRow.setAlignment(Pos.CENTER_LEFT);
+
+        TableView<BackupJob> jobTable = new TableView<>(backupJobs);
+
+        TableColumn<BackupJob, String> folderCol = new TableColumn<>("Profile");
+        folderCol.setCellValueFactory(new PropertyValueFactory<>("folder"));
+        folderCol.setPrefWidth(200);
+
+        TableColumn<BackupJob, String> statusCol = new TableColumn<>("Status");
+        statusCol.setCellValueFactory(cellData -> cellData.getValue().statusProperty());
+        statusCol.setPrefWidth(80);
+
+        TableColumn<BackupJob, Double> progressCol = new TableColumn<>("Progress");
+        progressCol.setCellValueFactory(cellData -> cellData.getValue().progressProperty().asObject());
+        progressCol.setCellFactory(ProgressBarTableCell.forTableColumn());
+        progressCol.setPrefWidth(140);
+
+        TableColumn<BackupJob, String> transferredCol = new TableColumn<>("Transferred");
+        transferredCol.setCellValueFactory(cellData -> cellData.getValue().transferredProperty());
+        transferredCol.setPrefWidth(150);
+
+        TableColumn<BackupJob, String> detailCol = new TableColumn<>("Result");
+        detailCol.setCellValueFactory(cellData -> cellData.getValue().detailProperty());
+        detailCol.setPrefWidth(480);
+
+        jobTable.getColumns().add(folderCol);
+        jobTable.getColumns().add(statusCol);
+        jobTable.getColumns().add(progressCol);
+        jobTable.getColumns().add(transferredCol);
+        jobTable.getColumns().add(detailCol);
+        jobTable.setMinHeight(0);
+        VBox.setVgrow(jobTable, Priority.ALWAYS);
+
+        TableView<SnapshotManifest> snapshotTable = new TableView<>(snapshots);
+        snapshotTable.getColumns().add(textColumn("Snapshot", SnapshotManifest::id, 300));
+        snapshotTable.getColumns().add(textColumn("Created", snapshot -> formatUtc(snapshot.createdUtc()), 150));
+        snapshotTable.getColumns().add(textColumn("Files", snapshot -> String.valueOf(snapshot.files()), 70));
+        snapshotTable.getColumns().add(textColumn("Size",
+                snapshot -> String.format("%.1f MB", snapshot.logicalBytes() / 1_048_576.0), 90));
+        snapshotTable.getColumns().add(textColumn("New Data",
+                snapshot -> String.format("%.1f MB", snapshot.newBytes() / 1_048_576.0), 90));
+        snapshotTable.getColumns().add(textColumn("Not Sent",
+                snapshot -> String.format("%.1f MB", snapshot.skippedBytes() / 1_048_576.0), 90));
+        snapshotTable.setPlaceholder(new Label("No snapshots yet."));
+        snapshotTable.setMinHeight(0);
+        VBox.setVgrow(snapshotTable, Priority.ALWAYS);
+
+        Button refreshSnapshotsButton = new Button("Refresh");
+        refreshSnapshotsButton.setOnAction(event -> refreshSnapshots());
+
+        Button restoreSnapshotButton = new Button("Restore Snapshot...");
+        restoreSnapshotButton.disableProperty().bind(snapshotTable.getSelectionModel().selectedItemProperty().isNull());
+        restoreSnapshotButton.setOnAction(event -> {
+            SnapshotManifest snapshot = snapshotTable.getSelectionModel().getSelectedItem();
+            TextInputDialog dialog = new TextInputDialog("persistent_restored_" + Instant.now().toEpochMilli());
+            dialog.setTitle("Restore Snapshot");
+            dialog.setHeaderText("Restore " + snapshot.id() + " as a new folder");
+            dialog.setContentText("Folder:");
+            dialog.showAndWait().ifPresent(folder -> runSnapshotRestore(snapshot, folder.strip()));
+        });
+
+        Button deleteSnapshotButton = new Button("Delete");
+        deleteSnapshotButton.disableProperty().bind(snapshotTable.getSelectionModel().selectedItemProperty().isNull());
+        deleteSnapshotButton.setOnAction(event -> deleteSnapshot(snapshotTable.getSelectionModel().getSelectedItem()));
+
+        Button gcButton = new Button("Collect Garbage");
+        gcButton.setOnAction(event -> collectGarbage());
+
+        HBox snapshotRow = new HBox(8, new Label("Snapshots"), refreshSnapshotsButton, restoreSnapshotButton,
+                deleteSnapshotButton, gcButton, repositoryLabel);
+        snapshotRow.setAlignment(Pos.CENTER_LEFT);
+        tab.setOnSelectionChanged(event -> {
+            if (tab.isSelected()) {
+                refreshSnapshots();
+            }
+        });
+
+        box.getChildren().addAll(new HBox(8, deviceLabel, refreshButton), profileList, actionRow, restoreRow,
+                backupSummaryLabel, jobTable, snapshotRow, snapshotTable);
         tab.setContent(box);
         return tab;
     }
@@ -221,14 +665,128 @@ public class MainApp extends Application {
         box.setPadding(new Insets(12));
 
         Button clearButton = new Button("Clear");
-        clearButton.setOnAction(event -> logArea.clear());
+        clearButton.setOnAction(event -> {
+            logBuffer.clear();
+            logDeviceFilter.setValue(ALL_FILTER);
+            logOperationFilter.setValue(ALL_FILTER);
+        });
+        logBuffer.addListener(this::updateLogChoices);
+
+        liveOutputCheck.selectedProperty().addListener((obs, oldValue, newValue) ->
+                adbService.setLiveOutputListener(newValue ? this::queueLiveLine : null));
+
+        followLogCheck.setSelected(true);
+
+        CheckBox compressJournalCheck = new CheckBox("Compress old journal files");
+        compressJournalCheck.setSelected(true);
+        compressJournalCheck.selectedProperty().addListener((obs, oldValue, newValue) ->
+                logJournal.setCompressRotated(newValue));
+
+        Button journalButton = new Button("Open Journal Folder");
+        journalButton.setOnAction(event -> getHostServices().showDocument(logJournal.getDirectory().toUri().toString()));
+
+        HBox row = new HBox(8, clearButton, liveOutputCheck, followLogCheck, compressJournalCheck, journalButton);
+        row.setAlignment(Pos.CENTER_LEFT);
+
+        logStatusFilter.getItems().add(ALL_FILTER);
+        for (LogStatus status : LogStatus.values()) {
+            logStatusFilter.getItems().add(status.toString());
+        }
+        for (ChoiceBox<String> filter : List.of(logDeviceFilter, logOperationFilter, logStatusFilter)) {
+            filter.setValue(ALL_FILTER);
+            filter.valueProperty().addListener((obs, oldValue, newValue) -> applyLogFilter());
+        }
+
+        HBox filterRow = new HBox(8, new Label("Device"), logDeviceFilter, new Label("Operation"),
+                logOperationFilter, new Label("Status"), logStatusFilter, logCountLabel);
+        filterRow.setAlignment(Pos.CENTER_LEFT);
+
+        logList.getStyleClass().add("log-area");
+        logList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        logList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(LogEntry entry, boolean empty) {
+                super.updateItem(entry, empty);
+                setText(empty || entry == null ? null : formatLogEntry(entry));
+            }
+        });
+        MenuItem copyItem = new MenuItem("Copy");
+        copyItem.setAccelerator(new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN));
+        copyItem.setOnAction(event -> copySelectedLogEntries());
+        logList.setContextMenu(new ContextMenu(copyItem));
+        logList.setMinHeight(0);
+        VBox.setVgrow(logList, Priority.ALWAYS);
+
+        visibleLog.addListener((ListChangeListener<LogEntry>) change -> {
+            updateLogCountLabel();
+            if (followLogCheck.isSelected() && !visibleLog.isEmpty()) {
+                logList.scrollTo(visibleLog.size() - 1);
+            }
+        });
+        updateLogCountLabel();
+
+        box.getChildren().addAll(row, filterRow, logList);
+        tab.setContent(box);
+        return tab;
+    }
 
-        logArea.getStyleClass().add("log-area");
-        logArea.setEditable(false);
-        logArea.setMinHeight(0);
-        VBox.setVgrow(logArea, Priority.ALWAYS);
+    private Tab buildMetricsTab() {
+        Tab tab = new Tab("Metrics");
+        tab.setClosable(false);
+
+        VBox box = new VBox(8);
+        box.setPadding(new Insets(12));
+
+        Button refreshButton = new Button("Refresh");
+        refreshButton.setOnAction(event -> refreshMetrics());
 
-        box.getChildren().addAll(clearButton, logArea);
+        Button resetButton = new Button("Reset");
+        resetButton.setOnAction(event -> {
+            adbService.getMetrics().reset();
+            refreshMetrics();
+        });
+
+        Button exportButton = new Button("Export JSON...");
+        exportButton.setOnAction(event -> exportMetrics(tab));
+
+        Label jmxLabel = new Label("Also exported over JMX as " + MetricsRegistry.OBJECT_NAME);
+
+        HBox row = new HBox(8, refreshButton, resetButton, exportButton, jmxLabel);
+        row.setAlignment(Pos.CENTER_LEFT);
+
+        TableView<MetricsRegistry.OperationStats> operationTable = new TableView<>(operationStats);
+        operationTable.getColumns().add(textColumn("Operation", MetricsRegistry.OperationStats::operation, 140));
+        operationTable.getColumns().add(textColumn("Count", stats -> String.valueOf(stats.count()), 80));
+        operationTable.getColumns().add(textColumn("Failed", stats -> String.valueOf(stats.failures()), 80));
+        operationTable.getColumns().add(textColumn("p50 ms", stats -> formatMillis(stats.p50Millis()), 90));
+        operationTable.getColumns().add(textColumn("p95 ms", stats -> formatMillis(stats.p95Millis()), 90));
+        operationTable.getColumns().add(textColumn("p99 ms", stats -> formatMillis(stats.p99Millis()), 90));
+        operationTable.getColumns().add(textColumn("Max ms", stats -> formatMillis(stats.maxMillis()), 90));
+        operationTable.getColumns().add(textColumn("Mean ms", stats -> formatMillis(stats.meanMillis()), 90));
+        operationTable.setMinHeight(0);
+
+        TableView<MetricsRegistry.DeviceStats> deviceTable = new TableView<>(deviceStats);
+        deviceTable.getColumns().add(textColumn("Device", MetricsRegistry.DeviceStats::serial, 220));
+        deviceTable.getColumns().add(textColumn("Succeeded", stats -> String.valueOf(stats.successes()), 100));
+        deviceTable.getColumns().add(textColumn("Failed", stats -> String.valueOf(stats.failures()), 100));
+        deviceTable.setMinHeight(0);
+
+        SplitPane split = new SplitPane(operationTable, deviceTable);
+        split.setOrientation(Orientation.VERTICAL);
+        split.setDividerPositions(0.6);
+        VBox.setVgrow(split, Priority.ALWAYS);
+
+        metricsRefresh.setCycleCount(Animation.INDEFINITE);
+        tab.selectedProperty().addListener((obs, oldValue, newValue) -> {
+            if (newValue) {
+                refreshMetrics();
+                metricsRefresh.play();
+            } else {
+                metricsRefresh.stop();
+            }
+        });
+
+        box.getChildren().addAll(row, split);
         tab.setContent(box);
         return tab;
     }
@@ -275,7 +833,7 @@ public class MainApp extends Application {
         };
         task.setOnSucceeded(event -> {
             CommandResult result = task.getValue();
-            logCommand("adb version", result);
+            logCommand("", "adb version", result);
             if (result.isSuccess()) {
                 adbVersionLabel.setText("ADB version: " + result.getStdout().strip());
             } else {
@@ -283,7 +841,7 @@ public class MainApp extends Application {
                 showAlert("ADB version check failed.\n" + result.toDisplayString());
             }
         });
-        runTask(task);
+        taskQueue.read(HOST_LANE, "version", null, task);
     }
 
     private void refreshDevices() {
@@ -293,13 +851,40 @@ public class MainApp extends Application {
                 return adbService.listDevices();
             }
         };
-        task.setOnSucceeded(event -> {
-            devices.setAll(task.getValue());
-            if (!devices.isEmpty()) {
-                deviceCombo.getSelectionModel().select(0);
+        task.setOnSucceeded(event -> applyDevices(task.getValue()));
+        taskQueue.read(HOST_LANE, "devices", null, task);
+    }
+
+    // Updates the list in place so the combo box and batch selection only see the devices that actually changed.
+    private void applyDevices(List<DeviceInfo> current) {
+        DeviceInfo selected = deviceCombo.getValue();
+        Map<String, DeviceInfo> bySerial = new LinkedHashMap<>();
+        for (DeviceInfo device : current) {
+            bySerial.put(device.getSerial(), device);
+        }
+        devices.removeIf(device -> !bySerial.containsKey(device.getSerial()));
+        for (int i = 0; i < devices.size(); i++) {
+            DeviceInfo existing = devices.get(i);
+            DeviceInfo updated = bySerial.remove(existing.getSerial());
+            if (!updated.getState().equals(existing.getState()) || !updated.getRaw().equals(existing.getRaw())) {
+                devices.set(i, updated);
             }
-        });
-        runTask(task);
+        }
+        devices.addAll(bySerial.values());
+
+        DeviceInfo reselect = selected == null ? null : devices.stream()
+                .filter(device -> device.getSerial().equals(selected.getSerial()))
+                .findFirst()
+                .orElse(null);
+        if (reselect != null) {
+            if (reselect != deviceCombo.getValue()) {
+                deviceCombo.setValue(reselect);
+            }
+        } else if (!devices.isEmpty()) {
+            deviceCombo.getSelectionModel().select(0);
+        } else {
+            deviceCombo.setValue(null);
+        }
     }
 
     private void checkRoot() {
@@ -312,14 +897,14 @@ public class MainApp extends Application {
             };
             task.setOnSucceeded(event -> {
                 CommandResult result = task.getValue();
-                logCommand("su -c id", result);
+                logCommand(device.getSerial(), "su -c id", result);
                 if (result.isSuccess() && result.getStdout().contains("uid=0")) {
                     showAlert("Root access confirmed.");
                 } else {
                     showAlert("Root check failed.\n" + result.toDisplayString());
                 }
             });
-            runTask(task);
+            taskQueue.read(device.getSerial(), "root", null, task);
         });
     }
 
@@ -333,35 +918,138 @@ public class MainApp extends Application {
             };
             task.setOnSucceeded(event -> {
                 CommandResult result = task.getValue();
-                logCommand("getprop", result);
+                logCommand(device.getSerial(), "getprop", result);
                 if (result.isSuccess()) {
                     deviceDetails.setText(result.getStdout().trim());
                 } else {
                     deviceDetails.setText(result.toDisplayString());
                 }
             });
-            runTask(task);
+            taskQueue.read(device.getSerial(), "device-info", "device-info", task);
         });
     }
 
     private void refreshUsers() {
         getSelectedDevice().ifPresent(device -> {
+            String serial = device.getSerial();
             Task<List<UserProfile>> task = new Task<>() {
                 @Override
                 protected List<UserProfile> call() {
-                    return adbService.listUsers(device.getSerial());
+                    List<UserProfile> profiles = adbService.listUsers(serial);
+                    try {
+                        profileIndex.reconcile(serial, profiles);
+                    } catch (IOException ignored) {
+                        // The index is only a startup cache; the next refresh writes it again.
+                    }
+                    return profiles;
                 }
             };
             task.setOnSucceeded(event -> {
-                userItems.setAll(task.getValue());
-                if (!users.isEmpty()) {
-                    userTable.getSelectionModel().select(0);
+                DeviceInfo selected = deviceCombo.getValue();
+                if (selected == null || !selected.getSerial().equals(serial)) {
+                    return;
                 }
+                List<UserProfile> profiles = task.getValue();
+                boolean failed = profiles.size() == 1 && "(error)".equals(profiles.get(0).getFolderName());
+                if (failed && serial.equals(usersSerial) && userTable.getPseudoClassStates().contains(STALE)
+                        && !userItems.isEmpty()) {
+                    usersStatusLabel.setText("Could not list profiles on " + serial
+                            + "; still showing the saved list. See the Logs tab.");
+                    return;
+                }
+                applyUsers(serial, profiles, false);
+                usersStatusLabel.setText("Profiles on " + serial + " as of " + DISPLAY_TIME.format(Instant.now()));
             });
-            runTask(task);
+            taskQueue.read(serial, "users", "users", task);
         });
     }
 
+    // Shows the saved list of a device at once; the refresh that follows only touches the rows that changed.
+    private void showIndexedUsers(String serial) {
+        Optional<ProfileIndex.Entry> entry = profileIndex.load(serial);
+        if (entry.isEmpty()) {
+            applyUsers(serial, List.of(), false);
+            usersStatusLabel.setText("No saved profile list for " + serial + ".");
+            return;
+        }
+        applyUsers(serial, entry.get().profiles(), true);
+        usersStatusLabel.setText("Saved profile list of " + serial + " from "
+                + DISPLAY_TIME.format(entry.get().savedAt()) + " (stale until the device answers).");
+    }
+
+    private void onDeviceChanged(DeviceInfo oldValue, DeviceInfo newValue) {
+        if (newValue == null) {
+            if (usersSerial != null && !userItems.isEmpty()) {
+                userTable.pseudoClassStateChanged(STALE, true);
+                usersStatusLabel.setText(usersSerial + " is not connected; showing the last known profiles.");
+            }
+            return;
+        }
+        boolean sameDevice = oldValue != null && oldValue.getSerial().equals(newValue.getSerial());
+        if (!newValue.getSerial().equals(usersSerial)) {
+            showIndexedUsers(newValue.getSerial());
+        }
+        boolean becameReady = !sameDevice || !"device".equals(oldValue.getState());
+        if (becameReady && "device".equals(newValue.getState())) {
+            refreshUsers();
+        }
+    }
+
+    // Merges a refresh by folder: unchanged rows keep their cells, the table sees one change and the selected profile
+    // stays selected even when its row was replaced.
+    private void applyUsers(String serial, List<UserProfile> profiles, boolean stale) {
+        UserProfile selected = null;
+        if (serial.equals(usersSerial)) {
+            selected = userTable.getSelectionModel().getSelectedItem();
+            userItems.merge(profiles);
+        } else {
+            userItems.setAll(profiles);
+        }
+        usersSerial = serial;
+        userTable.pseudoClassStateChanged(STALE, stale);
+
+        UserProfile current = userTable.getSelectionModel().getSelectedItem();
+        boolean kept = selected != null && current != null
+                && current.getFolderName().equals(selected.getFolderName());
+        if (!kept) {
+            int index = selected == null ? -1 : indexOfFolder(selected.getFolderName());
+            if (index >= 0) {
+                userTable.getSelectionModel().select(index);
+            } else if (!users.isEmpty()) {
+                userTable.getSelectionModel().select(0);
+            }
+        }
+        UserProfile shown = userTable.getSelectionModel().getSelectedItem();
+        userDetails.setText(shown == null ? "" : shown.toDetailedString());
+    }
+
+    // Only a new query replaces the predicate. The index keeps the query's matches up to date as the list changes, so
+    // the FilteredList just tests the rows a refresh added or replaced.
+    private void applyUserFilter() {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate from = switchedFromPicker.getValue();
+        LocalDate to = switchedToPicker.getValue();
+        boolean filtering = searchIndex.setQuery(userSearchField.getText(),
+                from == null ? null : from.atStartOfDay(zone).toInstant(),
+                to == null ? null : to.plusDays(1).atStartOfDay(zone).toInstant().minusMillis(1));
+        filteredUsers.setPredicate(filtering ? searchIndex::test : null);
+        updateUserCount();
+    }
+
+    private void updateUserCount() {
+        userCountLabel.setText(filteredUsers.getPredicate() == null ? userItems.size() + " profiles"
+                : filteredUsers.size() + " of " + userItems.size() + " profiles");
+    }
+
+    private int indexOfFolder(String folder) {
+        for (int i = 0; i < users.size(); i++) {
+            if (users.get(i).getFolderName().equals(folder)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private void switchToSelectedUser() {
         getSelectedDevice().ifPresent(device -> {
             UserProfile selected = userTable.getSelectionModel().getSelectedItem();
@@ -391,7 +1079,7 @@ public class MainApp extends Application {
             };
             task.setOnSucceeded(event -> {
                 CommandResult result = task.getValue();
-                logCommand("activate selected", result);
+                logCommand(device.getSerial(), "activate selected", result);
                 if (result.isSuccess()) {
                     showAlert("User activated.\nPrevious active renamed to " + archiveName + ".");
                     refreshUsers();
@@ -399,7 +1087,7 @@ public class MainApp extends Application {
                     showAlert("Activation failed.\n" + result.toDisplayString());
                 }
             });
-            runTask(task);
+            taskQueue.mutate(device.getSerial(), task);
         });
     }
 
@@ -425,14 +1113,14 @@ public class MainApp extends Application {
                 };
                 task.setOnSucceeded(event -> {
                     CommandResult result = task.getValue();
-                    logCommand("set alias", result);
+                    logCommand(device.getSerial(), "set alias", result);
                     if (result.isSuccess()) {
                         refreshUsers();
                     } else {
                         showAlert("Alias update failed.\n" + result.toDisplayString());
                     }
                 });
-                runTask(task);
+                taskQueue.mutate(device.getSerial(), task);
             });
         });
     }
@@ -457,7 +1145,7 @@ public class MainApp extends Application {
             };
             task.setOnSucceeded(event -> {
                 CommandResult result = task.getValue();
-                logCommand("deactivate current user", result);
+                logCommand(device.getSerial(), "deactivate current user", result);
                 if (result.isSuccess()) {
                     showAlert("Current user deactivated.\nRenamed to " + archiveName + ".\nLaunch the app to create a new user.");
                     refreshUsers();
@@ -465,10 +1153,266 @@ public class MainApp extends Application {
                     showAlert("Deactivation failed.\n" + result.toDisplayString());
                 }
             });
-            runTask(task);
+            taskQueue.mutate(device.getSerial(), task);
+        });
+    }
+
+    private void runBatch(List<DeviceInfo> selected, BatchAction action, String profile, Integer parallelism) {
+        if (selected.isEmpty()) {
+            showAlert("Select at least one device.");
+            return;
+        }
+        if (action == BatchAction.ACTIVATE_PROFILE && (profile == null || profile.isBlank())) {
+            showAlert("Enter the folder or alias to activate.");
+            return;
+        }
+
+        Map<String, BatchDeviceResult> rows = new LinkedHashMap<>();
+        for (DeviceInfo device : selected) {
+            rows.put(device.getSerial(), new BatchDeviceResult(device.getSerial()));
+        }
+        batchResults.setAll(rows.values());
+        batchSummaryLabel.setText("Running on " + rows.size() + " device(s)...");
+
+        Function<String, CommandResult> operation = action == BatchAction.ACTIVATE_PROFILE
+                ? serial -> adbService.activateProfile(serial, profile)
+                : adbService::archiveActive;
+        batchRunner.run(List.copyOf(rows.keySet()), parallelism == null ? 1 : parallelism, operation,
+                new DeviceBatchRunner.Listener() {
+                    @Override
+                    public void onStarted(String serial) {
+                        Platform.runLater(() -> rows.get(serial).markRunning());
+                    }
+
+                    @Override
+                    public void onFinished(String serial, CommandResult result, long elapsedMillis) {
+                        Platform.runLater(() -> {
+                            rows.get(serial).markFinished(result, elapsedMillis);
+                            logCommand(serial, action.toString(), result);
+                        });
+                    }
+
+                    @Override
+                    public void onCompleted(long elapsedMillis) {
+                        Platform.runLater(() -> {
+                            long failed = rows.values().stream()
+                                    .filter(row -> row.getResult() == null || !row.getResult().isSuccess())
+                                    .count();
+                            batchSummaryLabel.setText(String.format("Finished %d device(s) in %.1f s: %d ok, %d failed.",
+                                    rows.size(), elapsedMillis / 1000.0, rows.size() - failed, failed));
+                            if (selected.contains(deviceCombo.getValue())) {
+                                refreshUsers();
+                            }
+                        });
+                    }
+                });
+    }
+
+    // Runs as one task in the device's lane so no switch can rename a folder while tar is reading it; within the
+    // task the selected folders stream in parallel.
+    private void runBackups(List<String> folders, BackupFormat format, String directory, Integer parallelism) {
+        getSelectedDevice().ifPresent(device -> {
+            if (folders.isEmpty()) {
+                showAlert("Select at least one profile.");
+                return;
+            }
+            if (format == BackupFormat.ARCHIVE && (directory == null || directory.isBlank())) {
+                showAlert("Choose a folder for the backups.");
+                return;
+            }
+            String serial = device.getSerial();
+            Path target = format == BackupFormat.ARCHIVE ? Path.of(directory.strip()) : null;
+            List<BackupJob> jobs = folders.stream().map(BackupJob::new).toList();
+            backupJobs.setAll(jobs);
+            backupSummaryLabel.setText("Backing up " + jobs.size() + " profile(s) from " + serial + "...");
+
+            Semaphore permits = new Semaphore(parallelism == null ? 1 : Math.max(1, parallelism));
+            Task<Long> task = new Task<>() {
+                @Override
+                protected Long call() throws Exception {
+                    long startedAt = System.nanoTime();
+                    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                        for (BackupJob job : jobs) {
+                            executor.submit(() -> {
+                                permits.acquire();
+                                try {
+                                    Platform.runLater(job::markRunning);
+                                    BiConsumer<Long, Long> progress = (bytes, expectedBytes) ->
+                                            Platform.runLater(() -> job.updateProgress(bytes, expectedBytes));
+                                    CommandResult result = switch (format) {
+                                        case ARCHIVE -> adbService.backupProfile(serial, job.getFolder(), target,
+                                                progress);
+                                        case SNAPSHOT -> adbService.snapshotProfile(serial, job.getFolder(),
+                                                backupRepository, progress);
+                                        case INCREMENTAL -> adbService.syncProfile(serial, job.getFolder(),
+                                                backupRepository, progress);
+                                    };
+                                    Platform.runLater(() -> {
+                                        job.markFinished(result);
+                                        logCommand(serial, "backup", "Folder: " + job.getFolder(), result);
+                                    });
+                                } finally {
+                                    permits.release();
+                                }
+                                return null;
+                            });
+                        }
+                    }
+                    return (System.nanoTime() - startedAt) / 1_000_000;
+                }
+            };
+            task.setOnSucceeded(event -> {
+                long failed = jobs.stream()
+                        .filter(job -> job.getResult() == null || !job.getResult().isSuccess())
+                        .count();
+                backupSummaryLabel.setText(String.format(
+                        "Finished %d backup(s) in %.1f s: %d ok, %d failed. Saved to %s.",
+                        jobs.size(), task.getValue() / 1000.0, jobs.size() - failed, failed,
+                        target != null ? target : "the snapshot repository"));
+                if (format != BackupFormat.ARCHIVE) {
+                    refreshSnapshots();
+                }
+            });
+            taskQueue.mutate(serial, task);
         });
     }
 
+    private void runRestore(Path archive, String folder) {
+        getSelectedDevice().ifPresent(device -> {
+            if (folderExists(folder)) {
+                showAlert("Folder already exists: " + folder);
+                return;
+            }
+            String serial = device.getSerial();
+            BackupJob job = new BackupJob(folder);
+            backupJobs.setAll(job);
+            backupSummaryLabel.setText("Restoring " + archive.getFileName() + " to " + serial + "...");
+
+            Task<CommandResult> task = new Task<>() {
+                @Override
+                protected CommandResult call() {
+                    Platform.runLater(job::markRunning);
+                    return adbService.restoreProfile(serial, archive, folder, (bytes, expectedBytes) ->
+                            Platform.runLater(() -> job.updateProgress(bytes, expectedBytes)));
+                }
+            };
+            task.setOnSucceeded(event -> {
+                CommandResult result = task.getValue();
+                job.markFinished(result);
+                logCommand(serial, "restore", "Folder: " + folder, result);
+                backupSummaryLabel.setText(result.isSuccess()
+                        ? "Restored " + archive.getFileName() + " as " + folder + "."
+                        : "Restore failed.");
+                if (result.isSuccess()) {
+                    refreshUsers();
+                }
+            });
+            taskQueue.mutate(serial, task);
+        });
+    }
+
+    private void runSnapshotRestore(SnapshotManifest snapshot, String folder) {
+        getSelectedDevice().ifPresent(device -> {
+            if (folderExists(folder)) {
+                showAlert("Folder already exists: " + folder);
+                return;
+            }
+            String serial = device.getSerial();
+            BackupJob job = new BackupJob(folder);
+            backupJobs.setAll(job);
+            backupSummaryLabel.setText("Restoring " + snapshot.id() + " to " + serial + "...");
+
+            Task<CommandResult> task = new Task<>() {
+                @Override
+                protected CommandResult call() {
+                    Platform.runLater(job::markRunning);
+                    return adbService.restoreSnapshot(serial, backupRepository, snapshot.id(), folder,
+                            (bytes, expectedBytes) ->
+                                    Platform.runLater(() -> job.updateProgress(bytes, expectedBytes)));
+                }
+            };
+            task.setOnSucceeded(event -> {
+                CommandResult result = task.getValue();
+                job.markFinished(result);
+                logCommand(serial, "restore", "Folder: " + folder, result);
+                backupSummaryLabel.setText(result.isSuccess()
+                        ? "Restored " + snapshot.id() + " as " + folder + "."
+                        : "Restore failed.");
+                if (result.isSuccess()) {
+                    refreshUsers();
+                }
+            });
+            taskQueue.mutate(serial, task);
+        });
+    }
+
+    private void refreshSnapshots() {
+        Task<BackupRepository.Usage> task = new Task<>() {
+            private List<SnapshotManifest> listed;
+
+            @Override
+            protected BackupRepository.Usage call() throws Exception {
+                listed = backupRepository.listSnapshots();
+                return backupRepository.usage();
+            }
+
+            @Override
+            protected void succeeded() {
+                snapshots.setAll(listed);
+                updateRepositoryLabel(getValue());
+            }
+        };
+        task.setOnFailed(event -> repositoryLabel.setText("Repository: " + task.getException().getMessage()));
+        taskQueue.read(REPOSITORY_LANE, "snapshots", null, task);
+    }
+
+    private void deleteSnapshot(SnapshotManifest snapshot) {
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION, "Delete snapshot " + snapshot.id()
+                + "? Its chunks are freed by the next garbage collection.");
+        confirm.setTitle("Master Duel Android ADB User Changer");
+        confirm.setHeaderText(null);
+        if (confirm.showAndWait().filter(ButtonType.OK::equals).isEmpty()) {
+            return;
+        }
+        Task<Boolean> task = new Task<>() {
+            @Override
+            protected Boolean call() throws Exception {
+                return backupRepository.deleteSnapshot(snapshot.id());
+            }
+        };
+        task.setOnSucceeded(event -> refreshSnapshots());
+        task.setOnFailed(event -> showAlert("Could not delete snapshot.\n" + task.getException().getMessage()));
+        taskQueue.mutate(REPOSITORY_LANE, task);
+    }
+
+    private void collectGarbage() {
+        repositoryLabel.setText("Collecting garbage...");
+        Task<BackupRepository.GcResult> task = new Task<>() {
+            @Override
+            protected BackupRepository.GcResult call() throws Exception {
+                return backupRepository.collectGarbage();
+            }
+        };
+        task.setOnSucceeded(event -> {
+            BackupRepository.GcResult result = task.getValue();
+            backupSummaryLabel.setText(String.format("Removed %d unused chunk(s), freed %.1f MB; %d chunk(s) in use.",
+                    result.removedChunks(), result.freedBytes() / 1_048_576.0, result.keptChunks()));
+            refreshSnapshots();
+        });
+        task.setOnFailed(event -> {
+            repositoryLabel.setText("Garbage collection failed.");
+            showAlert("Garbage collection failed.\n" + task.getException().getMessage());
+        });
+        taskQueue.mutate(REPOSITORY_LANE, task);
+    }
+
+    private void updateRepositoryLabel(BackupRepository.Usage usage) {
+        double stored = usage.storedBytes() / 1_048_576.0;
+        double logical = usage.logicalBytes() / 1_048_576.0;
+        repositoryLabel.setText(String.format("%d snapshot(s), %.1f MB of profiles stored in %.1f MB (%d chunks)",
+                usage.snapshots(), logical, stored, usage.chunks()));
+    }
+
     private String generateArchiveName() {
         String base = "persistent_archived_" + Instant.now().toEpochMilli();
         String candidate = base;
@@ -489,19 +1433,157 @@ public class MainApp extends Application {
         return false;
     }
 
-    private void runTask(Task<?> task) {
-        Thread thread = new Thread(task);
-        thread.setDaemon(true);
-        thread.start();
+    private void refreshMetrics() {
+        operationStats.setAll(adbService.getMetrics().operationStats());
+        deviceStats.setAll(adbService.getMetrics().deviceStats());
+    }
+
+    private void exportMetrics(Tab tab) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export Metrics");
+        chooser.setInitialFileName("adb-metrics.json");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON", "*.json"));
+        File file = chooser.showSaveDialog(tab.getTabPane().getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.writeString(file.toPath(), adbService.getMetrics().getMetricsJson(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            showAlert("Could not write metrics.\n" + ex.getMessage());
+        }
+    }
+
+    private static <T> TableColumn<T, String> textColumn(String title, Function<T, String> value, double width) {
+        TableColumn<T, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(cellData -> new ReadOnlyStringWrapper(value.apply(cellData.getValue())));
+        column.setPrefWidth(width);
+        return column;
     }
 
-    private void logCommand(String label, CommandResult result) {
-        String timestamp = DateTimeFormatter.ISO_OFFSET_DATE_TIME
-                .withZone(ZoneId.systemDefault())
-                .format(Instant.now());
+    private static String formatUtc(String utc) {
+        try {
+            return DISPLAY_TIME.format(Instant.parse(utc));
+        } catch (DateTimeParseException ex) {
+            return utc;
+        }
+    }
+
+    private static String formatMillis(double millis) {
+        return String.format("%.1f", millis);
+    }
 
-        logArea.appendText("[" + timestamp + "] " + label + "\n");
-        logArea.appendText(result.toDisplayString() + "\n\n");
+    private void updateQueueLabel(int waiting, int running) {
+        queueLabel.setText("Tasks: " + running + " in flight, " + waiting + " queued");
+    }
+
+    private void logCommand(String serial, String operation, CommandResult result) {
+        logCommand(serial, operation, "", result);
+    }
+
+    private void logCommand(String serial, String operation, String subject, CommandResult result) {
+        logJournal.append(serial, operation, result);
+        appendLog(List.of(LogEntry.command(serial, operation, subject, result)));
+    }
+
+    private void queueLiveLine(String serial, String line) {
+        liveLines.add(LogEntry.output(serial, line));
+        if (liveFlushScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::flushLiveLines);
+        }
+    }
+
+    private void flushLiveLines() {
+        liveFlushScheduled.set(false);
+        List<LogEntry> entries = new ArrayList<>();
+        LogEntry entry;
+        while ((entry = liveLines.poll()) != null) {
+            entries.add(entry);
+        }
+        appendLog(entries);
+    }
+
+    private void appendLog(List<LogEntry> entries) {
+        logBuffer.appendAll(entries);
+    }
+
+    // Keeps the device and operation filters to the values of the entries still in the buffer. Additions are counted
+    // first, so a value that is evicted and logged again in the same change keeps its place.
+    private void updateLogChoices(ListChangeListener.Change<? extends LogEntry> change) {
+        while (change.next()) {
+            for (LogEntry entry : change.getAddedSubList()) {
+                countLogChoice(logDeviceFilter, logDeviceCounts, entry.serial(), 1);
+                countLogChoice(logOperationFilter, logOperationCounts, entry.operation(), 1);
+            }
+        }
+        change.reset();
+        while (change.next()) {
+            for (LogEntry entry : change.getRemoved()) {
+                countLogChoice(logDeviceFilter, logDeviceCounts, entry.serial(), -1);
+                countLogChoice(logOperationFilter, logOperationCounts, entry.operation(), -1);
+            }
+        }
+    }
+
+    private static void countLogChoice(ChoiceBox<String> filter, Map<String, Integer> counts, String value, int delta) {
+        if (value.isEmpty()) {
+            return;
+        }
+        int count = counts.merge(value, delta, Integer::sum);
+        if (count == 1 && delta > 0) {
+            filter.getItems().add(value);
+        } else if (count <= 0) {
+            counts.remove(value);
+            if (value.equals(filter.getValue())) {
+                filter.setValue(ALL_FILTER);
+            }
+            filter.getItems().remove(value);
+        }
+    }
+
+    private void applyLogFilter() {
+        String device = logDeviceFilter.getValue();
+        String operation = logOperationFilter.getValue();
+        String status = logStatusFilter.getValue();
+        if (isAll(device) && isAll(operation) && isAll(status)) {
+            visibleLog.setPredicate(null);
+        } else {
+            visibleLog.setPredicate(entry -> (isAll(device) || device.equals(entry.serial()))
+                    && (isAll(operation) || operation.equals(entry.operation()))
+                    && (isAll(status) || status.equals(entry.status().toString())));
+        }
+        updateLogCountLabel();
+    }
+
+    private static boolean isAll(String filterValue) {
+        return filterValue == null || ALL_FILTER.equals(filterValue);
+    }
+
+    private void updateLogCountLabel() {
+        logCountLabel.setText("Showing " + visibleLog.size() + " of " + logBuffer.size()
+                + " (keeps the last " + logBuffer.capacity() + ")");
+    }
+
+    private static String formatLogEntry(LogEntry entry) {
+        String time = LOG_TIME.format(entry.timestamp());
+        if (entry.status() == LogStatus.OUTPUT) {
+            return time + "  | " + entry.serial() + ": " + entry.text();
+        }
+        String device = entry.serial().isEmpty() ? "" : " [" + entry.serial() + "]";
+        return "[" + time + "] " + entry.operation() + device + " - " + entry.status() + "\n" + entry.text();
+    }
+
+    private void copySelectedLogEntries() {
+        List<String> lines = logList.getSelectionModel().getSelectedItems().stream()
+                .filter(Objects::nonNull)
+                .map(MainApp::formatLogEntry)
+                .toList();
+        if (lines.isEmpty()) {
+            return;
+        }
+        ClipboardContent content = new ClipboardContent();
+        content.putString(String.join("\n\n", lines) + "\n");
+        Clipboard.getSystemClipboard().setContent(content);
     }
 
     private void showAlert(String message) {
@@ -0,0 +1,329 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// Write-behind store for profile metadata. Field updates are merged per device and folder in memory, appended to a
+// local journal and written to the device later: all pending folders of a device in one su command that only
+// replaces the changed keys. Whatever is still pending when the app exits is replayed from the journal.
+class MetadataStore implements AutoCloseable {
+    private static final String FLUSH_MARKER = "__MDAUC_META__";
+    private static final long FLUSH_DELAY_MILLIS = 1500;
+    // A folder whose own write failed this many flushes in a row is dropped, so it cannot block changes forever.
+    static final int MAX_ATTEMPTS = 3;
+    // File locks are held per process, so stores of one process on the same journal also take a lock in memory.
+    private static final Map<Path, ReentrantLock> JOURNAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path journal;
+    private final String filesDir;
+    private final String metadataFile;
+    private final MetadataSerializer serializer = new MetadataSerializer();
+    // Runs a root shell script on a device; supplied by AdbService so flushes share its su session.
+    private final BiFunction<String, String, CommandResult> rootShell;
+    // Shell code appended to a flush for the fields it wrote; see ProfileManifest.updateScript.
+    private final Function<Map<String, Map<String, String>>, String> manifestUpdate;
+    private final CommandLogListener report;
+    private final Map<String, Map<String, Map<String, String>>> pending = new HashMap<>();
+    private final Map<String, Object> flushLocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("metadata-flush").factory());
+    private final Map<String, Boolean> scheduled = new ConcurrentHashMap<>();
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+
+    MetadataStore(Path journal, String filesDir, String metadataFile,
+                  BiFunction<String, String, CommandResult> rootShell,
+                  Function<Map<String, Map<String, String>>, String> manifestUpdate, CommandLogListener report) {
+        this.journal = journal;
+        this.filesDir = filesDir;
+        this.metadataFile = metadataFile;
+        this.rootShell = rootShell;
+        this.manifestUpdate = manifestUpdate;
+        this.report = report;
+        replayJournal();
+    }
+
+    static Path defaultJournal() {
+        return Path.of(System.getProperty("user.home"), ".master-duel-android-adb-user-changer",
+                "metadata-journal.properties");
+    }
+
+    // Journaled before it returns; the device write follows shortly or before the next folder change.
+    void update(String serial, String folder, Map<String, String> fields) throws IOException {
+        synchronized (this) {
+            appendJournal(serial, folder, fields);
+            pending.computeIfAbsent(serial, key -> new HashMap<>())
+                    .computeIfAbsent(folder, key -> new LinkedHashMap<>())
+                    .putAll(fields);
+        }
+        scheduleFlush(serial);
+    }
+
+    void scheduleFlush(String serial) {
+        if (hasPending(serial) && scheduled.putIfAbsent(serial, Boolean.TRUE) == null) {
+            scheduler.schedule(() -> {
+                scheduled.remove(serial);
+                flush(serial);
+            }, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // What the folder's metadata will be once pending writes reach the device.
+    synchronized Properties merge(String serial, String folder, Properties fromDevice) {
+        Properties merged = new Properties();
+        merged.putAll(fromDevice);
+        Map<String, String> fields = pending.getOrDefault(serial, Map.of()).get(folder);
+        if (fields != null) {
+            merged.putAll(fields);
+        }
+        return merged;
+    }
+
+    synchronized boolean hasPending(String serial) {
+        return !pending.getOrDefault(serial, Map.of()).isEmpty();
+    }
+
+    // Writes every pending folder of the device in one command. Folders that no longer exist are dropped; failed
+    // ones stay pending for the next flush, up to MAX_ATTEMPTS failures of their own write. A command that did not
+    // reach a folder does not count against it.
+    CommandResult flush(String serial) {
+        synchronized (flushLocks.computeIfAbsent(serial, key -> new Object())) {
+            List<String> folders = new ArrayList<>();
+            List<Map<String, String>> writes = new ArrayList<>();
+            synchronized (this) {
+                pending.getOrDefault(serial, Map.of()).forEach((folder, fields) -> {
+                    folders.add(folder);
+                    writes.add(new LinkedHashMap<>(fields));
+                });
+            }
+            if (folders.isEmpty()) {
+                return CommandResult.success("No pending metadata.");
+            }
+            CommandResult result = rootShell.apply(serial, flushScript(folders, writes));
+            Map<Integer, Integer> outcomes = parseOutcomes(result.getStdout());
+            int written = 0;
+            List<String> failed = new ArrayList<>();
+            List<String> discarded = new ArrayList<>();
+            Map<String, Map<String, String>> settled = new HashMap<>();
+            synchronized (this) {
+                Map<String, Map<String, String>> devicePending = pending.getOrDefault(serial, new HashMap<>());
+                for (int i = 0; i < folders.size(); i++) {
+                    Integer code = outcomes.get(i);
+                    String attemptKey = serial + "\t" + folders.get(i);
+                    if (code != null && code != 0 && code != 2
+                            && failedAttempts.merge(attemptKey, 1, Integer::sum) >= MAX_ATTEMPTS) {
+                        failedAttempts.remove(attemptKey);
+                        Map<String, String> dropped = devicePending.remove(folders.get(i));
+                        if (dropped != null) {
+                            settled.put(folders.get(i), dropped);
+                        }
+                        discarded.add(folders.get(i));
+                        continue;
+                    }
+                    if (code == null || (code != 0 && code != 2)) {
+                        failed.add(folders.get(i));
+                        continue;
+                    }
+                    failedAttempts.remove(attemptKey);
+                    written += code == 0 ? 1 : 0;
+                    settled.put(folders.get(i), writes.get(i));
+                    // Only the values that were sent are settled; newer updates of the same folder stay pending.
+                    Map<String, String> current = devicePending.get(folders.get(i));
+                    if (current != null) {
+                        writes.get(i).forEach(current::remove);
+                        if (current.isEmpty()) {
+                            devicePending.remove(folders.get(i));
+                        }
+                    }
+                }
+                if (devicePending.isEmpty()) {
+                    pending.remove(serial);
+                }
+                try {
+                    rewriteJournal(serial, settled);
+                } catch (IOException ignored) {
+                    // The journal still lists the written values, which only rewrites them once more.
+                }
+            }
+            if (!discarded.isEmpty()) {
+                report.onCommand(serial, "metadata discarded", new CommandResult(1, "Gave up writing the metadata of "
+                        + String.join(", ", discarded) + " after " + MAX_ATTEMPTS + " failed attempts; those changes "
+                        + "were discarded.\n" + result.getStdout(), result.getStderr(), result.getCommandLine()));
+            }
+            if (!failed.isEmpty()) {
+                return new CommandResult(result.isSuccess() ? 1 : result.getExitCode(),
+                        "Metadata of " + String.join(", ", failed) + " is still pending.\n" + result.getStdout(),
+                        result.getStderr(), result.getCommandLine());
+            }
+            if (!discarded.isEmpty()) {
+                return new CommandResult(1, "Metadata of " + String.join(", ", discarded) + " was discarded after "
+                        + MAX_ATTEMPTS + " failed attempts.\n" + result.getStdout(), result.getStderr(),
+                        result.getCommandLine());
+            }
+            return new CommandResult(0, "Wrote metadata of " + written + " folder(s) in one command.",
+                    result.getStderr(), result.getCommandLine());
+        }
+    }
+
+    synchronized List<String> pendingSerials() {
+        return new ArrayList<>(pending.keySet());
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (String serial : pendingSerials()) {
+            flush(serial);
+        }
+    }
+
+    private String flushScript(List<String> folders, List<Map<String, String>> writes) {
+        StringBuilder script = new StringBuilder();
+        script.append("cd ").append(ShellEscaper.quote(filesDir)).append(" || exit 1\n");
+        script.append("m=").append(ShellEscaper.quote(metadataFile)).append('\n');
+        Map<String, Map<String, String>> written = new LinkedHashMap<>();
+        for (int i = 0; i < folders.size(); i++) {
+            StringBuilder keep = new StringBuilder();
+            StringBuilder lines = new StringBuilder();
+            for (Map.Entry<String, String> field : writes.get(i).entrySet()) {
+                keep.append(" -e ").append(ShellEscaper.quote("^" + field.getKey() + "="));
+                Properties single = new Properties();
+                single.setProperty(field.getKey(), field.getValue());
+                String line = new String(serializer.serialize(single), StandardCharsets.ISO_8859_1).strip();
+                lines.append(' ').append(ShellEscaper.quote(line));
+            }
+            script.append("d=").append(ShellEscaper.quote(folders.get(i))).append('\n')
+                    .append("if [ -d \"$d\" ]; then f=\"$d/$m\"; { [ -f \"$f\" ] && grep -v").append(keep)
+                    .append(" \"$f\"; printf '%s\\n'").append(lines)
+                    .append("; } > \"$f.tmp\" && mv \"$f.tmp\" \"$f\"; rc=$?; else rc=2; fi\n")
+                    .append("echo ").append(FLUSH_MARKER).append(' ').append(i).append(" $rc\n")
+                    .append("[ $rc -eq 0 ] || ").append(ProfileManifest.STALE_VARIABLE).append("=1\n");
+            written.put(folders.get(i), writes.get(i));
+        }
+        // The manifest update uses m for its own file; it only runs after the last folder.
+        return script.append(manifestUpdate.apply(written)).toString();
+    }
+
+    private static Map<Integer, Integer> parseOutcomes(String stdout) {
+        Map<Integer, Integer> outcomes = new HashMap<>();
+        for (String line : stdout.split("\\R")) {
+            String[] parts = line.strip().split(" ");
+            if (parts.length == 3 && FLUSH_MARKER.equals(parts[0])) {
+                try {
+                    outcomes.put(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours.
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    // Each journal line is a properties entry "<serial>\t<folder>\t<field>=<value>"; later lines win on replay. The GUI
+    // and the command line may share the journal, so every access holds a lock on a file next to it.
+    private void appendJournal(String serial, String folder, Map<String, String> fields) throws IOException {
+        Properties lines = new Properties();
+        fields.forEach((field, value) -> lines.setProperty(serial + "\t" + folder + "\t" + field, value));
+        withJournalLock(() -> {
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                out.write(serializer.serialize(lines));
+                out.flush();
+                channel.force(false);
+            }
+            return null;
+        });
+    }
+
+    // Re-reads the journal under the lock and drops only the values this flush wrote, so lines another process
+    // appended meanwhile survive.
+    private void rewriteJournal(String serial, Map<String, Map<String, String>> settled) throws IOException {
+        withJournalLock(() -> {
+            Properties lines = readJournal();
+            settled.forEach((folder, fields) -> fields.forEach((field, value) ->
+                    lines.remove(serial + "\t" + folder + "\t" + field, value)));
+            if (lines.isEmpty()) {
+                Files.deleteIfExists(journal);
+                return null;
+            }
+            Path partial = journal.resolveSibling(journal.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                out.write(serializer.serialize(lines));
+                out.flush();
+                channel.force(false);
+            }
+            Files.move(partial, journal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        });
+    }
+
+    private void replayJournal() {
+        Properties lines;
+        try {
+            lines = withJournalLock(this::readJournal);
+        } catch (IOException | IllegalArgumentException ignored) {
+            // An unreadable journal only loses updates that were never confirmed.
+            return;
+        }
+        for (String key : lines.stringPropertyNames()) {
+            String[] parts = key.split("\t", 3);
+            if (parts.length == 3) {
+                pending.computeIfAbsent(parts[0], serial -> new HashMap<>())
+                        .computeIfAbsent(parts[1], folder -> new LinkedHashMap<>())
+                        .put(parts[2], lines.getProperty(key));
+            }
+        }
+    }
+
+    private Properties readJournal() throws IOException {
+        Properties lines = new Properties();
+        if (Files.isRegularFile(journal)) {
+            try (InputStream in = Files.newInputStream(journal)) {
+                lines.load(in);
+            }
+        }
+        return lines;
+    }
+
+    private <T> T withJournalLock(JournalAction<T> action) throws IOException {
+        Path absolute = journal.toAbsolutePath().normalize();
+        Files.createDirectories(absolute.getParent());
+        ReentrantLock local = JOURNAL_LOCKS.computeIfAbsent(absolute, key -> new ReentrantLock());
+        local.lock();
+        try (FileChannel channel = FileChannel.open(absolute.resolveSibling(absolute.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Released when the channel closes.
+            channel.lock();
+            return action.run();
+        } finally {
+            local.unlock();
+        }
+    }
+
+    private interface JournalAction<T> {
+        T run() throws IOException;
+    }
+}
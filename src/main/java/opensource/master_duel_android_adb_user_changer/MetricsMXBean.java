@@ -0,0 +1,21 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+    long getCommandCount();
+
+    long getFailureCount();
+
+    Map<String, Double> getP50Millis();
+
+    Map<String, Double> getP95Millis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Long> getFailuresByDevice();
+
+    String getMetricsJson();
+
+    void reset();
+}
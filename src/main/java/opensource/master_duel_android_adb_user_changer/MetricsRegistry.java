@@ -0,0 +1,157 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+public class MetricsRegistry implements MetricsMXBean {
+    public static final String OBJECT_NAME = "opensource.master_duel_android_adb_user_changer:type=Metrics";
+
+    private final Map<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private final Map<String, DeviceCounters> devices = new ConcurrentHashMap<>();
+
+    public void record(String operation, String serial, long elapsedNanos, boolean success) {
+        operations.computeIfAbsent(operation, key -> new LatencyHistogram()).record(elapsedNanos, success);
+        if (serial != null) {
+            DeviceCounters counters = devices.computeIfAbsent(serial, key -> new DeviceCounters());
+            (success ? counters.successes : counters.failures).incrementAndGet();
+        }
+    }
+
+    public List<OperationStats> operationStats() {
+        List<OperationStats> stats = new ArrayList<>();
+        new TreeMap<>(operations).forEach((name, histogram) -> stats.add(new OperationStats(name, histogram.count(),
+                histogram.failures(), histogram.percentileMillis(0.50), histogram.percentileMillis(0.95),
+                histogram.percentileMillis(0.99), histogram.maxMillis(), histogram.meanMillis())));
+        return stats;
+    }
+
+    public List<DeviceStats> deviceStats() {
+        List<DeviceStats> stats = new ArrayList<>();
+        new TreeMap<>(devices).forEach((serial, counters) ->
+                stats.add(new DeviceStats(serial, counters.successes.get(), counters.failures.get())));
+        return stats;
+    }
+
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignored) {
+            // Another registry of this process is already exported.
+        } catch (JMException ex) {
+            throw new IllegalStateException("Failed to register metrics MBean.", ex);
+        }
+    }
+
+    public void unregisterMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ignored) {
+            // Nothing registered under our name.
+        }
+    }
+
+    @Override
+    public long getCommandCount() {
+        return operations.values().stream().mapToLong(LatencyHistogram::count).sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return operations.values().stream().mapToLong(LatencyHistogram::failures).sum();
+    }
+
+    @Override
+    public Map<String, Double> getP50Millis() {
+        return byOperation(OperationStats::p50Millis);
+    }
+
+    @Override
+    public Map<String, Double> getP95Millis() {
+        return byOperation(OperationStats::p95Millis);
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return byOperation(OperationStats::p99Millis);
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByDevice() {
+        Map<String, Long> failures = new TreeMap<>();
+        devices.forEach((serial, counters) -> failures.put(serial, counters.failures.get()));
+        return failures;
+    }
+
+    @Override
+    public String getMetricsJson() {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("generatedAt", Instant.now().toString());
+        List<Object> operationList = new ArrayList<>();
+        for (OperationStats stats : operationStats()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("operation", stats.operation());
+            entry.put("count", stats.count());
+            entry.put("failures", stats.failures());
+            entry.put("p50Millis", stats.p50Millis());
+            entry.put("p95Millis", stats.p95Millis());
+            entry.put("p99Millis", stats.p99Millis());
+            entry.put("maxMillis", stats.maxMillis());
+            entry.put("meanMillis", stats.meanMillis());
+            operationList.add(entry);
+        }
+        root.put("operations", operationList);
+        List<Object> deviceList = new ArrayList<>();
+        for (DeviceStats stats : deviceStats()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("serial", stats.serial());
+            entry.put("successes", stats.successes());
+            entry.put("failures", stats.failures());
+            deviceList.add(entry);
+        }
+        root.put("devices", deviceList);
+        return JsonWriter.write(root);
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+        devices.clear();
+    }
+
+    private Map<String, Double> byOperation(ToDoubleFunction<OperationStats> value) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (OperationStats stats : operationStats()) {
+            result.put(stats.operation(), value.applyAsDouble(stats));
+        }
+        return result;
+    }
+
+    public record OperationStats(String operation, long count, long failures, double p50Millis, double p95Millis,
+                                 double p99Millis, double maxMillis, double meanMillis) {
+    }
+
+    public record DeviceStats(String serial, long successes, long failures) {
+    }
+
+    private static final class DeviceCounters {
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+    }
+}
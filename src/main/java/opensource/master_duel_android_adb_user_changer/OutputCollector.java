@@ -0,0 +1,136 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+class OutputCollector extends OutputStream {
+    static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    // Longer lines reach the listener in pieces of about this size, cut between UTF-8 sequences.
+    static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private final CommandOutputListener.Stream stream;
+    private final int maxBytes;
+    private final CommandOutputListener listener;
+    private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+    private String hiddenLinePrefix;
+    private String hiddenLine;
+    private int pendingBlankLines;
+    private boolean continuedLine;
+    private long totalBytes;
+
+    OutputCollector(CommandOutputListener.Stream stream, int maxBytes, CommandOutputListener listener) {
+        this.stream = stream;
+        this.maxBytes = maxBytes;
+        this.listener = listener == null ? CommandOutputListener.NONE : listener;
+    }
+
+    void hideLinesStartingWith(String prefix) {
+        this.hiddenLinePrefix = prefix;
+    }
+
+    long drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            write(buffer, 0, read);
+        }
+        flushLine();
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized void write(int value) {
+        write(new byte[]{(byte) value}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] data, int offset, int length) {
+        totalBytes += length;
+        int room = maxBytes - captured.size();
+        if (room > 0) {
+            captured.write(data, offset, Math.min(room, length));
+        }
+        listener.onBytes(stream, data, offset, length);
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] == '\n') {
+                emitLine(false);
+            } else {
+                currentLine.write(data[i]);
+                if (currentLine.size() >= MAX_LINE_BYTES) {
+                    emitLine(true);
+                }
+            }
+        }
+    }
+
+    synchronized void flushLine() {
+        if (currentLine.size() > 0) {
+            emitLine(false);
+        }
+    }
+
+    // A partial line keeps an incomplete UTF-8 sequence at its end for the next piece. Pieces of a long line are never
+    // hidden or held back as blank.
+    private void emitLine(boolean partial) {
+        byte[] bytes = currentLine.toByteArray();
+        int end = partial ? sequenceBoundary(bytes) : bytes.length;
+        String line = new String(bytes, 0, end, StandardCharsets.UTF_8);
+        currentLine.reset();
+        currentLine.write(bytes, end, bytes.length - end);
+        boolean continuation = continuedLine;
+        continuedLine = partial;
+        if (!partial && line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        if (continuation && !partial && line.isEmpty()) {
+            return;
+        }
+        if (hiddenLinePrefix != null && !continuation) {
+            if (!partial && line.startsWith(hiddenLinePrefix)) {
+                hiddenLine = line;
+                pendingBlankLines = 0;
+                return;
+            }
+            // The hidden line is framed by a leading newline; hold blank lines until we know they are real output.
+            if (line.isEmpty()) {
+                pendingBlankLines++;
+                return;
+            }
+            for (; pendingBlankLines > 0; pendingBlankLines--) {
+                listener.onLine(stream, "");
+            }
+        }
+        listener.onLine(stream, line);
+    }
+
+    private static int sequenceBoundary(byte[] bytes) {
+        for (int i = bytes.length - 1; i >= Math.max(0, bytes.length - 4); i--) {
+            int b = bytes[i] & 0xff;
+            if ((b & 0xc0) != 0x80) {
+                int length = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+                return i + length > bytes.length ? i : bytes.length;
+            }
+        }
+        return bytes.length;
+    }
+
+    synchronized String hiddenLine() {
+        return hiddenLine;
+    }
+
+    synchronized boolean isTruncated() {
+        return totalBytes > maxBytes;
+    }
+
+    synchronized String text() {
+        String text = captured.toString(StandardCharsets.UTF_8);
+        if (isTruncated()) {
+            text += "\n[output truncated: kept " + maxBytes + " of " + totalBytes + " bytes]\n";
+        }
+        return text;
+    }
+}
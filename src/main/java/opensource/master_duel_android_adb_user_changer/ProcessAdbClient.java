@@ -0,0 +1,175 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ProcessAdbClient implements AdbClient {
+    private static final Duration DRAIN_GRACE = Duration.ofSeconds(2);
+
+    private final String adbPath;
+    private final int maxCapturedBytes;
+    private final MetricsRegistry metrics;
+
+    public ProcessAdbClient(String adbPath) {
+        this(adbPath, OutputCollector.DEFAULT_MAX_BYTES);
+    }
+
+    public ProcessAdbClient(String adbPath, int maxCapturedBytes) {
+        this(adbPath, maxCapturedBytes, null);
+    }
+
+    public ProcessAdbClient(String adbPath, int maxCapturedBytes, MetricsRegistry metrics) {
+        this.adbPath = adbPath;
+        this.maxCapturedBytes = maxCapturedBytes;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CommandResult run(List<String> args, Duration timeout, byte[] input, CommandOutputListener listener) {
+        List<String> command = new ArrayList<>();
+        command.add(adbPath);
+        command.addAll(args);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(false);
+
+        try {
+            Process process = start(builder, serialOf(args));
+            OutputCollector stdout = new OutputCollector(CommandOutputListener.Stream.STDOUT, maxCapturedBytes, listener);
+            OutputCollector stderr = new OutputCollector(CommandOutputListener.Stream.STDERR, maxCapturedBytes, listener);
+            Thread stdoutDrainer = Thread.ofVirtual().start(() -> drain(process.getInputStream(), stdout));
+            Thread stderrDrainer = Thread.ofVirtual().start(() -> drain(process.getErrorStream(), stderr));
+
+            Thread.ofVirtual().start(() -> {
+                try (var outputStream = process.getOutputStream()) {
+                    if (input != null) {
+                        outputStream.write(input);
+                    }
+                } catch (IOException ignored) {
+                    // The process exited before reading all of its input; its output tells why.
+                }
+            });
+            boolean finished = process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+            if (!finished) {
+                process.destroyForcibly();
+                stdoutDrainer.join(DRAIN_GRACE.toMillis());
+                stderrDrainer.join(DRAIN_GRACE.toMillis());
+                return new CommandResult(1,
+                        "Process timeout after " + timeout.toSeconds() + "s\n" + stdout.text(),
+                        stderr.text(),
+                        String.join(" ", command));
+            }
+
+            stdoutDrainer.join();
+            stderrDrainer.join();
+
+            int exitCode = process.exitValue();
+            return new CommandResult(exitCode, stdout.text(), stderr.text(), String.join(" ", command));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new CommandResult(1, ex.getMessage(), "", String.join(" ", command));
+        } catch (IOException ex) {
+            return new CommandResult(1, ex.getMessage(), "", String.join(" ", command));
+        }
+    }
+
+    @Override
+    public AdbShellChannel openShell(String serial, String command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(adbPath, "-s", serial, "shell", command);
+        builder.redirectErrorStream(true);
+        Process process = start(builder, serial);
+        return new AdbShellChannel() {
+            @Override
+            public InputStream getInputStream() {
+                return process.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return process.getOutputStream();
+            }
+
+            @Override
+            public boolean isOpen() {
+                return process.isAlive();
+            }
+
+            @Override
+            public void close() {
+                process.destroyForcibly();
+            }
+        };
+    }
+
+    @Override
+    public AdbShellChannel openExec(String serial, String command) throws IOException {
+        return openExec(serial, "exec-out", command);
+    }
+
+    @Override
+    public AdbShellChannel openExecIn(String serial, String command) throws IOException {
+        return openExec(serial, "exec-in", command);
+    }
+
+    // exec-out and exec-in keep the stream binary-safe; stderr is drained separately so it can neither block nor
+    // corrupt it.
+    private AdbShellChannel openExec(String serial, String service, String command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(adbPath, "-s", serial, service, command);
+        Process process = start(builder, serial);
+        Thread.ofVirtual().start(() -> drain(process.getErrorStream(),
+                new OutputCollector(CommandOutputListener.Stream.STDERR, maxCapturedBytes, CommandOutputListener.NONE)));
+        return new AdbShellChannel() {
+            @Override
+            public InputStream getInputStream() {
+                return process.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return process.getOutputStream();
+            }
+
+            @Override
+            public boolean isOpen() {
+                return process.isAlive();
+            }
+
+            @Override
+            public void close() {
+                process.destroyForcibly();
+            }
+        };
+    }
+
+    private static void drain(InputStream stream, OutputCollector collector) {
+        try (stream) {
+            collector.drain(stream);
+        } catch (IOException ignored) {
+            // Stream closed because the process was destroyed.
+        }
+    }
+
+    private Process start(ProcessBuilder builder, String serial) throws IOException {
+        long startedAt = System.nanoTime();
+        boolean started = false;
+        try {
+            Process process = builder.start();
+            started = true;
+            return process;
+        } finally {
+            if (metrics != null) {
+                metrics.record("spawn", serial, System.nanoTime() - startedAt, started);
+            }
+        }
+    }
+
+    private static String serialOf(List<String> args) {
+        return args.size() >= 2 && "-s".equals(args.get(0)) ? args.get(1) : null;
+    }
+}
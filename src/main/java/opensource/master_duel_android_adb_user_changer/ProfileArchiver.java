@@ -0,0 +1,117 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+final class ProfileArchiver {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TAR_BLOCK = TarReader.BLOCK;
+    private static final long PROGRESS_INTERVAL_NANOS = 200_000_000L;
+
+    private ProfileArchiver() {
+    }
+
+    // Copies a tar stream into a gzip file through a fixed buffer. The file only appears under its final name once
+    // the stream ended with tar's end-of-archive blocks; that check only catches a lost connection. Errors of tar on
+    // the device are reported by its exit status, which AdbService checks afterwards (tarStatus).
+    static long writeArchive(InputStream tar, Path target, long expectedBytes, BiConsumer<Long, Long> progress)
+            throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] tail = new byte[2 * TAR_BLOCK];
+        long total = 0;
+        long lastReport = System.nanoTime();
+        boolean complete = false;
+        try {
+            try (OutputStream out = new GZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(partial), BUFFER_SIZE), BUFFER_SIZE)) {
+                int read;
+                while ((read = tar.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                    keepTail(tail, buffer, read);
+                    total += read;
+                    long now = System.nanoTime();
+                    if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                        progress.accept(total, expectedBytes);
+                        lastReport = now;
+                    }
+                }
+            }
+            if (total < tail.length || total % TAR_BLOCK != 0 || !TarReader.isZero(tail)) {
+                throw new IOException("Archive stream ended early after " + total
+                        + " bytes; tar failed on the device or the connection was lost.");
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            complete = true;
+            progress.accept(total, expectedBytes);
+            return total;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(partial);
+            }
+        }
+    }
+
+    // Streams the uncompressed tar to out; progress counts compressed bytes against the archive size.
+    static long readArchive(Path archive, OutputStream out, BiConsumer<Long, Long> progress) throws IOException {
+        long archiveBytes = Files.size(archive);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        long lastReport = System.nanoTime();
+        try (CountingInputStream file = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE));
+             InputStream tar = new GZIPInputStream(file, BUFFER_SIZE)) {
+            int read;
+            while ((read = tar.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                total += read;
+                long now = System.nanoTime();
+                if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    progress.accept(file.count(), archiveBytes);
+                    lastReport = now;
+                }
+            }
+        }
+        out.flush();
+        progress.accept(archiveBytes, archiveBytes);
+        return total;
+    }
+
+    // The single top-level folder of an archive written by writeArchive (or by "tar -C files -c folder").
+    static String topLevelFolder(Path archive) throws IOException {
+        try (InputStream tar = new GZIPInputStream(Files.newInputStream(archive), BUFFER_SIZE)) {
+            TarReader reader = new TarReader(tar);
+            TarEntry entry;
+            while ((entry = reader.next()) != null) {
+                String folder = entry.topLevelFolder();
+                if (folder.isEmpty() || ".".equals(folder)) {
+                    continue;
+                }
+                if ("..".equals(folder)) {
+                    throw new IOException("Archive entries must not point outside the profile folder.");
+                }
+                return folder;
+            }
+        }
+        throw new IOException("Archive contains no profile folder.");
+    }
+
+    private static void keepTail(byte[] tail, byte[] data, int length) {
+        if (length >= tail.length) {
+            System.arraycopy(data, length - tail.length, tail, 0, tail.length);
+            return;
+        }
+        System.arraycopy(tail, length, tail, 0, tail.length - length);
+        System.arraycopy(data, 0, tail, tail.length - length, length);
+    }
+}
@@ -0,0 +1,50 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class ProfileEnumeration {
+    private static final String PROFILE_MARKER = "@@MDAUC_PROFILE:";
+    private static final String MISSING_MARKER = "@@MDAUC_NO_METADATA";
+    private static final String END_MARKER = "@@MDAUC_END";
+
+    private ProfileEnumeration() {
+    }
+
+    public static String script(String filesDir, String metadataFile) {
+        return "cd " + ShellEscaper.quote(filesDir) + " || exit 1\n"
+                + "for d in persistent*; do\n"
+                + "  [ -d \"$d\" ] || continue\n"
+                + "  printf '%s%s\\n' '" + PROFILE_MARKER + "' \"$d\"\n"
+                + "  cat \"$d\"/" + ShellEscaper.quote(metadataFile) + " 2>/dev/null"
+                + " || printf '%s\\n' '" + MISSING_MARKER + "'\n"
+                + "  printf '\\n%s\\n' '" + END_MARKER + "'\n"
+                + "done\n";
+    }
+
+    public static Map<String, String> parse(String output) {
+        Map<String, String> metadataByFolder = new LinkedHashMap<>();
+        String folder = null;
+        StringBuilder metadata = new StringBuilder();
+        boolean missing = false;
+        for (String line : output.split("\\R", -1)) {
+            if (folder == null) {
+                if (line.startsWith(PROFILE_MARKER)) {
+                    folder = line.substring(PROFILE_MARKER.length());
+                    metadata.setLength(0);
+                    missing = false;
+                }
+                continue;
+            }
+            if (line.equals(END_MARKER)) {
+                metadataByFolder.put(folder, missing ? null : metadata.toString());
+                folder = null;
+            } else if (line.equals(MISSING_MARKER)) {
+                missing = true;
+            } else {
+                metadata.append(line).append('\n');
+            }
+        }
+        return metadataByFolder;
+    }
+}
@@ -0,0 +1,18 @@
+package opensource.master_duel_android_adb_user_changer;
+
+public enum ProfileEnumerationMode {
+    MANIFEST("Device manifest, re-read after changes"),
+    SINGLE_COMMAND("One command for all profiles"),
+    PER_FOLDER("One command per profile");
+
+    private final String label;
+
+    ProfileEnumerationMode(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
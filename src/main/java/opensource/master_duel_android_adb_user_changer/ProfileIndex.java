@@ -0,0 +1,293 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Last known profile list of each device, so the Users tab can show something before the device answers. One small
+// binary file per serial, read only when that device is shown and rewritten only when a refresh changed something.
+class ProfileIndex {
+    private static final int MAGIC = 0x4d444958;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".idx";
+
+    private static final int ALIAS_IS_FOLDER = 1;
+    private static final int UPDATED_EPOCH = 1 << 1;
+    private static final int UPDATED_TEXT = 1 << 2;
+    private static final int SWITCH_EPOCH = 1 << 3;
+    private static final int SWITCH_TEXT = 1 << 4;
+    private static final int WARNING = 1 << 5;
+    private static final int MAX_WARNING = 2048;
+
+    private final Path directory;
+    private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+
+    record Entry(String serial, Instant savedAt, List<UserProfile> profiles) {
+    }
+
+    record Reconciled(int added, int changed, int removed) {
+        boolean isEmpty() {
+            return added == 0 && changed == 0 && removed == 0;
+        }
+
+        @Override
+        public String toString() {
+            return isEmpty() ? "no changes" : added + " added, " + changed + " changed, " + removed + " removed";
+        }
+    }
+
+    ProfileIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".master-duel-android-adb-user-changer", "profile-index");
+    }
+
+    // The device whose index was written last, found from file times without reading any index.
+    Optional<String> lastSerial() {
+        if (!Files.isDirectory(directory)) {
+            return Optional.empty();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .max(Comparator.comparing(ProfileIndex::modifiedTime))
+                    .map(file -> {
+                        String name = file.getFileName().toString();
+                        return URLDecoder.decode(name.substring(0, name.length() - SUFFIX.length()),
+                                StandardCharsets.UTF_8);
+                    });
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    Optional<Entry> load(String serial) {
+        Entry entry = loaded.get(serial);
+        if (entry == null) {
+            entry = read(serial);
+            if (entry != null) {
+                loaded.putIfAbsent(serial, entry);
+            }
+        }
+        return Optional.ofNullable(entry);
+    }
+
+    // Compares a fresh listing with the indexed one and stores it when they differ. Error listings are not indexed.
+    Reconciled reconcile(String serial, List<UserProfile> profiles) throws IOException {
+        if (profiles.size() == 1 && "(error)".equals(profiles.get(0).getFolderName())) {
+            return new Reconciled(0, 0, 0);
+        }
+        Entry previous = load(serial).orElse(null);
+        Map<String, UserProfile> before = new HashMap<>();
+        if (previous != null) {
+            previous.profiles().forEach(profile -> before.put(profile.getFolderName(), profile));
+        }
+        int added = 0;
+        int changed = 0;
+        for (UserProfile profile : profiles) {
+            UserProfile old = before.remove(profile.getFolderName());
+            if (old == null) {
+                added++;
+            } else if (!old.equals(profile)) {
+                changed++;
+            }
+        }
+        Reconciled result = new Reconciled(added, changed, before.size());
+        Entry entry = new Entry(serial, Instant.now(), List.copyOf(profiles));
+        if (previous == null || !previous.profiles().equals(entry.profiles())) {
+            write(entry);
+        } else {
+            // Same content; the file time still records when the list was last confirmed.
+            Files.setLastModifiedTime(file(serial), FileTime.from(entry.savedAt()));
+        }
+        loaded.put(serial, entry);
+        return result;
+    }
+
+    private Path file(String serial) {
+        return directory.resolve(URLEncoder.encode(serial, StandardCharsets.UTF_8) + SUFFIX);
+    }
+
+    private static FileTime modifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    // Folder names are front-coded against the previous entry, an alias equal to the folder name is a flag, and
+    // timestamps written by Instant.toString() are stored as numbers.
+    private void write(Entry entry) throws IOException {
+        Files.createDirectories(directory);
+        Path target = file(entry.serial());
+        Path partial = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeVarint(out, entry.profiles().size());
+            String previous = "";
+            for (UserProfile profile : entry.profiles()) {
+                String folder = profile.getFolderName();
+                int shared = sharedPrefix(previous, folder);
+                int flags = 0;
+                flags |= profile.getAlias().equals(folder) ? ALIAS_IS_FOLDER : 0;
+                flags |= timestampFlag(profile.getLastUpdatedUtc(), UPDATED_EPOCH, UPDATED_TEXT);
+                flags |= timestampFlag(profile.getLastSwitchUtc(), SWITCH_EPOCH, SWITCH_TEXT);
+                flags |= profile.getWarning() == null || profile.getWarning().isEmpty() ? 0 : WARNING;
+                writeVarint(out, shared);
+                out.writeUTF(folder.substring(shared));
+                out.writeByte(flags);
+                if ((flags & ALIAS_IS_FOLDER) == 0) {
+                    out.writeUTF(profile.getAlias());
+                }
+                writeTimestamp(out, profile.getLastUpdatedUtc(), flags, UPDATED_EPOCH, UPDATED_TEXT);
+                writeTimestamp(out, profile.getLastSwitchUtc(), flags, SWITCH_EPOCH, SWITCH_TEXT);
+                if ((flags & WARNING) != 0) {
+                    String warning = profile.getWarning();
+                    out.writeUTF(warning.length() > MAX_WARNING ? warning.substring(0, MAX_WARNING) : warning);
+                }
+                previous = folder;
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Entry read(String serial) {
+        Path source = file(serial);
+        if (!Files.isRegularFile(source)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            Instant savedAt = Files.getLastModifiedTime(source).toInstant();
+            long count = readVarint(in);
+            List<UserProfile> profiles = new ArrayList<>((int) Math.min(count, 1 << 16));
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                long shared = readVarint(in);
+                if (shared > previous.length()) {
+                    return null;
+                }
+                String folder = previous.substring(0, (int) shared) + in.readUTF();
+                int flags = in.readUnsignedByte();
+                String alias = (flags & ALIAS_IS_FOLDER) != 0 ? folder : in.readUTF();
+                String updated = readTimestamp(in, flags, UPDATED_EPOCH, UPDATED_TEXT);
+                String lastSwitch = readTimestamp(in, flags, SWITCH_EPOCH, SWITCH_TEXT);
+                String warning = (flags & WARNING) != 0 ? in.readUTF() : "";
+                profiles.add(new UserProfile(folder, alias, "persistent".equals(folder),
+                        AdbService.metadataPath(folder), warning, updated, lastSwitch));
+                previous = folder;
+            }
+            return new Entry(serial, savedAt, List.copyOf(profiles));
+        } catch (IOException e) {
+            // A truncated or foreign file only costs the instant view; the next refresh rewrites it.
+            return null;
+        }
+    }
+
+    private static int timestampFlag(String value, int epochFlag, int textFlag) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        return parseInstant(value) != null ? epochFlag : textFlag;
+    }
+
+    private static void writeTimestamp(DataOutputStream out, String value, int flags, int epochFlag, int textFlag)
+            throws IOException {
+        if ((flags & epochFlag) != 0) {
+            Instant instant = parseInstant(value);
+            writeVarint(out, instant.getEpochSecond());
+            writeVarint(out, instant.getNano());
+        } else if ((flags & textFlag) != 0) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readTimestamp(DataInputStream in, int flags, int epochFlag, int textFlag)
+            throws IOException {
+        if ((flags & epochFlag) != 0) {
+            long seconds = readVarint(in);
+            try {
+                return Instant.ofEpochSecond(seconds, readVarint(in)).toString();
+            } catch (DateTimeException e) {
+                throw new IOException("Malformed profile index.", e);
+            }
+        }
+        return (flags & textFlag) != 0 ? in.readUTF() : "";
+    }
+
+    // Only values that read back to the same text are stored as numbers.
+    private static Instant parseInstant(String value) {
+        try {
+            Instant instant = Instant.parse(value);
+            return instant.getEpochSecond() >= 0 && instant.toString().equals(value) ? instant : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static int sharedPrefix(String a, String b) {
+        int limit = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < limit && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed profile index.");
+    }
+}
@@ -0,0 +1,334 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+// One file in the files folder that summarizes every profile. Each change made by the tool bumps its generation, so a
+// refresh that sees the generation and folder names it saw last can keep its previous result instead of reading every
+// folder's metadata again. The body is only trusted while "built" equals "generation"; a bump edits just the latter.
+public final class ProfileManifest {
+    public static final String FILE = "master-duel-android-adb-user-changer-manifest.properties";
+    private static final String FORMAT = "1";
+    private static final String GENERATION_MARKER = "@@MDAUC_GENERATION:";
+    private static final String MANIFEST_MARKER = "@@MDAUC_MANIFEST";
+    private static final String MANIFEST_END_MARKER = "@@MDAUC_MANIFEST_END";
+    private static final String FOLDERS_MARKER = "@@MDAUC_FOLDERS";
+    private static final String READ_GENERATION = "g=$(sed -n 's/^generation=//p' \"$m\" 2>/dev/null | head -n 1)\n";
+    private static final List<String> FIELDS = List.of("alias", "lastUpdatedUtc", "lastSwitchUtc");
+    // Set by a device script whose change only partly succeeded; the manifest update then just bumps the generation.
+    public static final String STALE_VARIABLE = "mdauc_stale";
+
+    private final long generation;
+    private final List<Entry> entries;
+
+    public record Entry(String folder, String alias, String lastUpdatedUtc, String lastSwitchUtc,
+                        boolean metadataMissing) {
+        public Properties metadata() {
+            Properties properties = new Properties();
+            if (alias != null) {
+                properties.setProperty("alias", alias);
+            }
+            if (!lastUpdatedUtc.isEmpty()) {
+                properties.setProperty("lastUpdatedUtc", lastUpdatedUtc);
+            }
+            if (!lastSwitchUtc.isEmpty()) {
+                properties.setProperty("lastSwitchUtc", lastSwitchUtc);
+            }
+            return properties;
+        }
+    }
+
+    // What the check command saw: the raw generation line, the manifest if it was printed and the folders on disk.
+    public record Check(String generation, ProfileManifest manifest, List<String> folders) {
+        public boolean matches(ProfileManifest candidate) {
+            return candidate != null
+                    && Long.toString(candidate.generation()).equals(generation)
+                    && new HashSet<>(candidate.folders()).equals(new HashSet<>(folders));
+        }
+
+        // A lost generation restarts from the clock, so a client that cached an old one cannot see it repeated.
+        public long nextGeneration() {
+            try {
+                return Math.max(0, Long.parseLong(generation)) + 1;
+            } catch (NumberFormatException e) {
+                return Instant.now().toEpochMilli();
+            }
+        }
+    }
+
+    public ProfileManifest(long generation, List<Entry> entries) {
+        this.generation = generation;
+        this.entries = List.copyOf(entries);
+    }
+
+    public long generation() {
+        return generation;
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    public List<String> folders() {
+        return entries.stream().map(Entry::folder).toList();
+    }
+
+    // What one change by the tool did to the profile folders: renames from old to new folder name, metadata fields
+    // written, keyed by the folder name after the renames, and new folders whose metadata is read on the device.
+    public record Change(Map<String, String> renames, Map<String, Map<String, String>> fields, List<String> added) {
+        public static Change renamed(Map<String, String> renames) {
+            return new Change(renames, Map.of(), List.of());
+        }
+    }
+
+    // Prints the generation and the profile folders, and the manifest itself unless its generation is the known one.
+    public static String checkScript(String filesDir, Long knownGeneration) {
+        String known = knownGeneration == null ? "-" : Long.toString(knownGeneration);
+        return "cd " + ShellEscaper.quote(filesDir) + " || exit 1\n"
+                + "m=" + ShellEscaper.quote(FILE) + "\n"
+                + READ_GENERATION
+                + "printf '%s%s\\n' '" + GENERATION_MARKER + "' \"$g\"\n"
+                + "if [ \"$g\" != " + ShellEscaper.quote(known) + " ] && [ -f \"$m\" ]; then\n"
+                + "  echo '" + MANIFEST_MARKER + "'; cat \"$m\"; printf '\\n%s\\n' '" + MANIFEST_END_MARKER + "'\n"
+                + "fi\n"
+                + "echo '" + FOLDERS_MARKER + "'\n"
+                + "for d in persistent*; do [ -d \"$d\" ] && printf '%s\\n' \"$d\"; done\n"
+                + "exit 0\n";
+    }
+
+    public static Check parseCheck(String output) {
+        String generation = "";
+        StringBuilder manifest = null;
+        boolean inManifest = false;
+        boolean inFolders = false;
+        List<String> folders = new ArrayList<>();
+        for (String line : output.split("\\R", -1)) {
+            if (inManifest) {
+                if (line.equals(MANIFEST_END_MARKER)) {
+                    inManifest = false;
+                } else {
+                    manifest.append(line).append('\n');
+                }
+            } else if (inFolders) {
+                if (!line.isBlank()) {
+                    folders.add(line.strip());
+                }
+            } else if (line.startsWith(GENERATION_MARKER)) {
+                generation = line.substring(GENERATION_MARKER.length()).strip();
+            } else if (line.equals(MANIFEST_MARKER)) {
+                manifest = new StringBuilder();
+                inManifest = true;
+            } else if (line.equals(FOLDERS_MARKER)) {
+                inFolders = true;
+            }
+        }
+        ProfileManifest parsed = manifest == null || inManifest ? null : parse(manifest.toString());
+        return new Check(generation, parsed, folders);
+    }
+
+    // Null when the text is not a complete, current manifest, which makes the caller rebuild it.
+    public static ProfileManifest parse(String text) {
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(text));
+            if (!FORMAT.equals(properties.getProperty("format"))) {
+                return null;
+            }
+            long generation = Long.parseLong(properties.getProperty("generation", ""));
+            long built = Long.parseLong(properties.getProperty("built", ""));
+            int count = Integer.parseInt(properties.getProperty("count", ""));
+            if (generation < 0 || built != generation || count < 0 || count > properties.size()) {
+                return null;
+            }
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String folder = properties.getProperty(i + ".folder");
+                if (folder == null || !folder.startsWith("persistent")) {
+                    return null;
+                }
+                entries.add(new Entry(folder, properties.getProperty(i + ".alias"),
+                        properties.getProperty(i + ".lastUpdatedUtc", ""),
+                        properties.getProperty(i + ".lastSwitchUtc", ""),
+                        Boolean.parseBoolean(properties.getProperty(i + ".missing"))));
+            }
+            return new ProfileManifest(generation, entries);
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    public byte[] serialize() {
+        Properties properties = new Properties();
+        properties.setProperty("format", FORMAT);
+        properties.setProperty("generation", Long.toString(generation));
+        properties.setProperty("built", Long.toString(generation));
+        properties.setProperty("count", Integer.toString(entries.size()));
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            properties.setProperty(i + ".folder", entry.folder());
+            if (entry.alias() != null) {
+                properties.setProperty(i + ".alias", entry.alias());
+            }
+            if (!entry.lastUpdatedUtc().isEmpty()) {
+                properties.setProperty(i + ".lastUpdatedUtc", entry.lastUpdatedUtc());
+            }
+            if (!entry.lastSwitchUtc().isEmpty()) {
+                properties.setProperty(i + ".lastSwitchUtc", entry.lastSwitchUtc());
+            }
+            if (entry.metadataMissing()) {
+                properties.setProperty(i + ".missing", "true");
+            }
+        }
+        return new MetadataSerializer().serialize(properties);
+    }
+
+    // Replaces the manifest with the uploaded file only if nobody bumped the generation since it was read.
+    public static String installScript(String filesDir, String uploaded, String expectedGeneration) {
+        return "cd " + ShellEscaper.quote(filesDir) + " || exit 1\n"
+                + "m=" + ShellEscaper.quote(FILE) + "\n"
+                + READ_GENERATION
+                + "if [ \"$g\" = " + ShellEscaper.quote(expectedGeneration) + " ]; then\n"
+                + "  mv " + ShellEscaper.quote(uploaded) + " \"$m\"\n"
+                + "else\n"
+                + "  rm -f " + ShellEscaper.quote(uploaded) + "; exit 3\n"
+                + "fi\n";
+    }
+
+    // Appended to a change that succeeded. A current manifest gets the same renames and fields as the folders and stays
+    // current under the next generation; a stale one, or one the change cannot be applied to, only gets the bump.
+    public static String updateScript(String filesDir, String metadataFile, Change change) {
+        Map<String, String> originals = new HashMap<>();
+        change.renames().forEach((from, to) -> originals.put(to, from));
+        Set<String> lookups = new LinkedHashSet<>(change.renames().keySet());
+        change.fields().keySet().forEach(folder -> lookups.add(originals.getOrDefault(folder, folder)));
+        boolean applicable = change.renames().values().stream().allMatch(folder -> folder.startsWith("persistent"))
+                && change.added().stream().allMatch(folder -> folder.startsWith("persistent"));
+        if (!applicable) {
+            return bumpScript(filesDir);
+        }
+
+        Map<String, String> index = new HashMap<>();
+        StringBuilder find = new StringBuilder();
+        StringBuilder edit = new StringBuilder();
+        StringBuilder append = new StringBuilder();
+        for (String folder : lookups) {
+            String variable = "i" + index.size();
+            index.put(folder, variable);
+            find.append("      ").append(variable).append("=$(sed -n ")
+                    .append(ShellEscaper.quote("s/^\\([0-9][0-9]*\\)\\.folder=" + regex(escaped(folder)) + "$/\\1/p"))
+                    .append(" \"$m\" | head -n 1); [ -n \"$").append(variable).append("\" ] || ok=0\n");
+        }
+        change.renames().forEach((from, to) -> edit.append(expression(index.get(from),
+                "s/^", "\\.folder=.*/", ".folder=" + replacement(escaped(to)) + "/")));
+        change.fields().forEach((folder, fields) -> {
+            String variable = index.get(originals.getOrDefault(folder, folder));
+            // A missing metadata file is created by the write with other keys than the manifest can know.
+            find.append("      grep -q \"^$").append(variable).append("\\.missing=\" \"$m\" && ok=0\n");
+            fields.forEach((field, value) -> {
+                if (FIELDS.contains(field)) {
+                    edit.append(expression(variable, "/^", "\\." + field + "=/d"));
+                    append.append("        printf '%s.%s\\n' \"$").append(variable).append("\" ")
+                            .append(ShellEscaper.quote(field + "=" + escaped(value))).append('\n');
+                }
+            });
+        });
+        if (!change.added().isEmpty()) {
+            find.append("      c=$(sed -n 's/^count=//p' \"$m\" | head -n 1)\n")
+                    .append("      case \"$c\" in ''|*[!0-9]*) ok=0 ;; esac\n");
+            edit.append("        e=\"$e;s/^count=.*/count=$((c + ").append(change.added().size()).append("))/\"\n");
+            for (int i = 0; i < change.added().size(); i++) {
+                String folder = change.added().get(i);
+                String metadata = ShellEscaper.quote(filesDir + "/" + folder + "/" + metadataFile);
+                append.append("        k=$((c + ").append(i).append("))\n")
+                        .append("        printf '%s.%s\\n' \"$k\" ")
+                        .append(ShellEscaper.quote("folder=" + escaped(folder))).append('\n')
+                        .append("        if [ -f ").append(metadata).append(" ]; then sed -n");
+                for (String field : FIELDS) {
+                    append.append(" -e \"s/^").append(field).append("=/$k.").append(field).append("=/p\"");
+                }
+                append.append(' ').append(metadata).append("; else printf '%s.missing=true\\n' \"$k\"; fi\n");
+            }
+        }
+        return "m=" + ShellEscaper.quote(filesDir + "/" + FILE) + "\n"
+                + "if [ -f \"$m\" ]; then\n"
+                + "  " + READ_GENERATION
+                + "  b=$(sed -n 's/^built=//p' \"$m\" 2>/dev/null | head -n 1)\n"
+                + "  case \"$g\" in\n"
+                + "    ''|*[!0-9]*) rm -f \"$m\" ;;\n"
+                + "    *)\n"
+                + "      n=$((g + 1)); e=\"s/^generation=.*/generation=$n/\"; ok=1\n"
+                + "      [ \"$b\" = \"$g\" ] && [ -z \"$" + STALE_VARIABLE + "\" ] || ok=0\n"
+                + find
+                + "      if [ $ok = 1 ]; then\n"
+                + "        e=\"$e;s/^built=.*/built=$n/\"\n"
+                + edit
+                + "        { sed \"$e\" \"$m\"\n"
+                + append
+                + "        } > \"$m.tmp\" && mv \"$m.tmp\" \"$m\"\n"
+                + "      else\n"
+                + "        sed \"$e\" \"$m\" > \"$m.tmp\" && mv \"$m.tmp\" \"$m\"\n"
+                + "      fi ;;\n"
+                + "  esac\n"
+                + "fi\n"
+                + "true\n";
+    }
+
+    // Appended to a change outside manifest mode, so switching to that mode later cannot trust a manifest that missed
+    // the change.
+    public static String discardScript(String filesDir) {
+        return "rm -f " + ShellEscaper.quote(filesDir + "/" + FILE) + "\n";
+    }
+
+    // Marks the body stale under a new generation. A manifest with a damaged generation is removed so the next refresh
+    // rebuilds it.
+    public static String bumpScript(String filesDir) {
+        return "m=" + ShellEscaper.quote(filesDir + "/" + FILE) + "\n"
+                + "if [ -f \"$m\" ]; then\n"
+                + "  " + READ_GENERATION
+                + "  case \"$g\" in\n"
+                + "    ''|*[!0-9]*) rm -f \"$m\" ;;\n"
+                + "    *) sed \"s/^generation=.*/generation=$((g + 1))/\" \"$m\" > \"$m.tmp\""
+                + " && mv \"$m.tmp\" \"$m\" ;;\n"
+                + "  esac\n"
+                + "fi\n"
+                + "true\n";
+    }
+
+    // Appends one sed expression to $e; the parts are literal text joined by the entry index held in variable.
+    private static String expression(String variable, String... parts) {
+        StringBuilder line = new StringBuilder("        e=\"$e;\"");
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                line.append("\"$").append(variable).append('"');
+            }
+            line.append(ShellEscaper.quote(parts[i]));
+        }
+        return line.append('\n').toString();
+    }
+
+    // The value as Properties.store writes it into the manifest.
+    private static String escaped(String value) {
+        Properties single = new Properties();
+        single.setProperty("v", value);
+        String line = new String(new MetadataSerializer().serialize(single), StandardCharsets.ISO_8859_1);
+        return line.substring(2).replaceAll("\\R+$", "");
+    }
+
+    private static String regex(String text) {
+        return text.replaceAll("[\\\\.\\[\\]*^$/]", "\\\\$0");
+    }
+
+    private static String replacement(String text) {
+        return text.replaceAll("[\\\\&/]", "\\\\$0");
+    }
+}
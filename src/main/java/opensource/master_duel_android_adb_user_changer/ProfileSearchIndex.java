@@ -0,0 +1,224 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+// In-memory search over a profile list, kept up to date from the list's change events. Every profile gets a slot;
+// each trigram of its lower-cased folder name and alias maps to a bit set of slots, and switch times map to slots in a
+// sorted map. A query intersects the bit sets of its trigrams and only checks those candidates by substring. The
+// current query's result is kept as a bit set and updated with the list, so a FilteredList can use test() as a
+// predicate that never has to be replaced for list changes.
+final class ProfileSearchIndex {
+    private static final int GRAM = 3;
+
+    private final List<UserProfile> slots = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<Long> switchTimes = new ArrayList<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final Map<String, Integer> slotByFolder = new HashMap<>();
+    private final Map<String, BitSet> grams = new HashMap<>();
+    private final NavigableMap<Long, BitSet> bySwitchTime = new TreeMap<>();
+    private final BitSet live = new BitSet();
+    private List<String> queryTerms = List.of();
+    private long queryLow = Long.MIN_VALUE;
+    private long queryHigh = Long.MAX_VALUE;
+    private BitSet queryResult;
+
+    ProfileSearchIndex(ObservableList<UserProfile> source) {
+        source.forEach(this::add);
+        source.addListener((ListChangeListener<UserProfile>) change -> {
+            // Removals first: a refresh can remove and re-add the same folder in different parts of one change.
+            List<UserProfile> removed = new ArrayList<>();
+            List<UserProfile> added = new ArrayList<>();
+            while (change.next()) {
+                if (change.wasRemoved()) {
+                    removed.addAll(change.getRemoved());
+                }
+                if (change.wasAdded()) {
+                    added.addAll(change.getAddedSubList());
+                }
+            }
+            removed.forEach(this::remove);
+            added.forEach(this::add);
+        });
+    }
+
+    int size() {
+        return live.cardinality();
+    }
+
+    // Matches profiles whose folder or alias contains every whitespace-separated term and whose last switch lies in
+    // [from, to]; either bound may be null. Returns false when there is nothing to filter by.
+    boolean setQuery(String text, Instant from, Instant to) {
+        List<String> terms = new ArrayList<>();
+        for (String term : (text == null ? "" : text).toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        queryTerms = List.copyOf(terms);
+        queryLow = from == null ? Long.MIN_VALUE : from.toEpochMilli();
+        queryHigh = to == null ? Long.MAX_VALUE : to.toEpochMilli();
+        queryResult = terms.isEmpty() && from == null && to == null ? null : search(from != null || to != null);
+        return queryResult != null;
+    }
+
+    int matchCount() {
+        return queryResult == null ? size() : queryResult.cardinality();
+    }
+
+    boolean test(UserProfile profile) {
+        if (queryResult == null) {
+            return true;
+        }
+        Integer slot = slotByFolder.get(profile.getFolderName());
+        if (slot != null && slots.get(slot) == profile) {
+            return queryResult.get(slot);
+        }
+        // Not indexed yet, if a list listener runs before this index's own: checked directly.
+        return matchesQuery(key(profile), parseTime(profile.getLastSwitchUtc()));
+    }
+
+    private BitSet search(boolean byTime) {
+        List<String> terms = queryTerms;
+        BitSet result = (BitSet) live.clone();
+        if (byTime) {
+            BitSet inRange = new BitSet();
+            bySwitchTime.subMap(queryLow, true, queryHigh, true).values().forEach(inRange::or);
+            result.and(inRange);
+        }
+        for (String term : terms) {
+            for (int i = 0; i + GRAM <= term.length() && !result.isEmpty(); i++) {
+                BitSet posting = grams.get(term.substring(i, i + GRAM));
+                if (posting == null) {
+                    return new BitSet();
+                }
+                result.and(posting);
+            }
+        }
+        // Trigrams only narrow the candidates; terms shorter than a trigram are checked here directly.
+        for (int slot = result.nextSetBit(0); slot >= 0; slot = result.nextSetBit(slot + 1)) {
+            if (!containsTerms(keys.get(slot))) {
+                result.clear(slot);
+            }
+        }
+        return result;
+    }
+
+    private boolean matchesQuery(String key, Long switched) {
+        boolean unbounded = queryLow == Long.MIN_VALUE && queryHigh == Long.MAX_VALUE;
+        boolean inRange = switched == null ? unbounded : switched >= queryLow && switched <= queryHigh;
+        return inRange && containsTerms(key);
+    }
+
+    private boolean containsTerms(String key) {
+        for (String term : queryTerms) {
+            if (!key.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(UserProfile profile) {
+        Integer previous = slotByFolder.get(profile.getFolderName());
+        if (previous != null) {
+            remove(slots.get(previous));
+        }
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = slots.size();
+            slots.add(profile);
+            keys.add(null);
+            switchTimes.add(null);
+        } else {
+            slot = freeSlots.pop();
+            slots.set(slot, profile);
+        }
+        String key = key(profile);
+        keys.set(slot, key);
+        for (String gram : grams(key)) {
+            grams.computeIfAbsent(gram, unused -> new BitSet()).set(slot);
+        }
+        Long switched = parseTime(profile.getLastSwitchUtc());
+        switchTimes.set(slot, switched);
+        if (switched != null) {
+            bySwitchTime.computeIfAbsent(switched, unused -> new BitSet()).set(slot);
+        }
+        slotByFolder.put(profile.getFolderName(), slot);
+        live.set(slot);
+        if (queryResult != null) {
+            queryResult.set(slot, matchesQuery(key, switched));
+        }
+    }
+
+    private void remove(UserProfile profile) {
+        Integer slot = slotByFolder.get(profile.getFolderName());
+        if (slot == null || slots.get(slot) != profile) {
+            return;
+        }
+        for (String gram : grams(keys.get(slot))) {
+            BitSet posting = grams.get(gram);
+            posting.clear(slot);
+            if (posting.isEmpty()) {
+                grams.remove(gram);
+            }
+        }
+        Long switched = switchTimes.get(slot);
+        if (switched != null) {
+            BitSet posting = bySwitchTime.get(switched);
+            posting.clear(slot);
+            if (posting.isEmpty()) {
+                bySwitchTime.remove(switched);
+            }
+        }
+        slotByFolder.remove(profile.getFolderName());
+        slots.set(slot, null);
+        keys.set(slot, null);
+        switchTimes.set(slot, null);
+        live.clear(slot);
+        if (queryResult != null) {
+            queryResult.clear(slot);
+        }
+        freeSlots.push(slot);
+    }
+
+    // The separator cannot be typed into the search box, so no term matches across folder and alias.
+    private static String key(UserProfile profile) {
+        return (profile.getFolderName() + '\u0000' + profile.getAlias()).toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> grams(String key) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            result.add(key.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    private static Long parseTime(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Instant.parse(value.strip()).toEpochMilli();
+        } catch (DateTimeParseException | ArithmeticException e) {
+            return null;
+        }
+    }
+}
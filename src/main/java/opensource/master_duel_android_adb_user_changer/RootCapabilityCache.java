@@ -0,0 +1,35 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class RootCapabilityCache {
+    private final Map<String, Long> verifiedAt = new ConcurrentHashMap<>();
+
+    Duration age(String serial, Duration ttl) {
+        Long timestamp = verifiedAt.get(serial);
+        if (timestamp == null || ttl.isZero() || ttl.isNegative()) {
+            return null;
+        }
+        Duration age = Duration.ofNanos(System.nanoTime() - timestamp);
+        if (age.compareTo(ttl) >= 0) {
+            verifiedAt.remove(serial, timestamp);
+            return null;
+        }
+        return age;
+    }
+
+    void markVerified(String serial) {
+        verifiedAt.put(serial, System.nanoTime());
+    }
+
+    void invalidate(String serial) {
+        verifiedAt.remove(serial);
+    }
+
+    void retainOnly(Collection<String> serials) {
+        verifiedAt.keySet().retainAll(serials);
+    }
+}
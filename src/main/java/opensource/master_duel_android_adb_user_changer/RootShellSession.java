@@ -0,0 +1,180 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class RootShellSession implements Closeable {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final String serial;
+    private final AdbShellChannel channel;
+    private final BufferedReader reader;
+    private final OutputStream output;
+    private final ScheduledExecutorService watchdog;
+    private final String sessionId;
+    private volatile boolean closed;
+
+    private RootShellSession(String serial, AdbShellChannel channel, ScheduledExecutorService watchdog) {
+        this.serial = serial;
+        this.channel = channel;
+        this.reader = new BufferedReader(new InputStreamReader(channel.getInputStream(), StandardCharsets.UTF_8));
+        this.output = channel.getOutputStream();
+        this.watchdog = watchdog;
+        this.sessionId = Long.toHexString(System.nanoTime()) + Long.toHexString(SEQUENCE.incrementAndGet());
+    }
+
+    static RootShellSession open(AdbClient client, String serial, Duration timeout, ScheduledExecutorService watchdog)
+            throws IOException {
+        AdbShellChannel channel = client.openShell(serial, "su");
+        RootShellSession session = new RootShellSession(serial, channel, watchdog);
+        try {
+            session.output.write("exec 3>&1\n".getBytes(StandardCharsets.UTF_8));
+            CommandResult id = session.executeAll(List.of("id"), timeout, CommandOutputListener.NONE).get(0);
+            if (!id.isSuccess() || !id.getStdout().contains("uid=0")) {
+                throw new IOException("su session did not start as root: " + id.toDisplayString());
+            }
+            return session;
+        } catch (IOException ex) {
+            session.close();
+            throw ex;
+        }
+    }
+
+    boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    synchronized List<CommandResult> executeAll(List<String> commands, Duration timeout, CommandOutputListener listener)
+            throws IOException {
+        if (!isOpen()) {
+            throw new SessionClosedException("Root shell session for " + serial + " is closed.");
+        }
+
+        List<String> markers = new ArrayList<>();
+        StringBuilder script = new StringBuilder();
+        for (String command : commands) {
+            String marker = "__MDAUC_" + sessionId + "_" + SEQUENCE.incrementAndGet();
+            markers.add(marker);
+            script.append("__e=$( ( ").append(command).append("\n) 2>&1 1>&3 ); ")
+                    .append("printf '\\n%s%d\\n%s\\n%s\\n' '").append(marker).append("_RC:' \"$?\" \"$__e\" '")
+                    .append(marker).append("_END'\n");
+        }
+
+        ScheduledFuture<?> guard = watchdog.schedule(this::close,
+                timeout.multipliedBy(Math.max(1, commands.size())).toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            try {
+                output.write(script.toString().getBytes(StandardCharsets.UTF_8));
+                output.flush();
+            } catch (IOException ex) {
+                close();
+                throw new SessionClosedException("Root shell session for " + serial + " is gone: " + ex.getMessage());
+            }
+
+            List<CommandResult> results = new ArrayList<>();
+            for (int i = 0; i < commands.size(); i++) {
+                results.add(readResult(commands.get(i), markers.get(i), listener));
+            }
+            return results;
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        } finally {
+            guard.cancel(false);
+        }
+    }
+
+    private CommandResult readResult(String command, String marker, CommandOutputListener listener)
+            throws IOException {
+        String exitPrefix = marker + "_RC:";
+        String endLine = marker + "_END";
+
+        StringBuilder stdout = new StringBuilder();
+        int exitCode;
+        int pendingBlankLines = 0;
+        while (true) {
+            String line = readLine();
+            if (line.startsWith(exitPrefix)) {
+                exitCode = parseExitCode(line.substring(exitPrefix.length()));
+                break;
+            }
+            stdout.append(line).append('\n');
+            // Trailing blank lines are mostly the framing newline, so only forward them once more output follows.
+            if (line.isEmpty()) {
+                pendingBlankLines++;
+                continue;
+            }
+            for (; pendingBlankLines > 0; pendingBlankLines--) {
+                listener.onLine(CommandOutputListener.Stream.STDOUT, "");
+            }
+            listener.onLine(CommandOutputListener.Stream.STDOUT, line);
+        }
+
+        StringBuilder stderr = new StringBuilder();
+        while (true) {
+            String line = readLine();
+            if (line.equals(endLine)) {
+                break;
+            }
+            stderr.append(line).append('\n');
+            if (!line.isEmpty()) {
+                listener.onLine(CommandOutputListener.Stream.STDERR, line);
+            }
+        }
+
+        return new CommandResult(exitCode, dropLastNewline(stdout), dropLastNewline(stderr),
+                "su[session " + serial + "] " + command);
+    }
+
+    private String readLine() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Root shell session for " + serial + " ended unexpectedly.");
+        }
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private static int parseExitCode(String text) {
+        try {
+            return Integer.parseInt(text.strip());
+        } catch (NumberFormatException ex) {
+            return 1;
+        }
+    }
+
+    private static String dropLastNewline(StringBuilder builder) {
+        if (!builder.isEmpty() && builder.charAt(builder.length() - 1) == '\n') {
+            builder.setLength(builder.length() - 1);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to release.
+        }
+    }
+
+    static class SessionClosedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SessionClosedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+class RootShellSessionPool implements Closeable {
+    private static final Duration RETRY_BACKOFF = Duration.ofSeconds(30);
+
+    private final Map<String, RootShellSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final Map<String, Long> unavailableUntil = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("root-shell-watchdog").factory());
+
+    List<CommandResult> executeAll(AdbClient client, String serial, List<String> commands, Duration timeout,
+                                   CommandOutputListener listener) throws IOException {
+        synchronized (locks.computeIfAbsent(serial, key -> new Object())) {
+            RootShellSession session = sessions.get(serial);
+            if (session != null) {
+                try {
+                    return session.executeAll(commands, timeout, listener);
+                } catch (RootShellSession.SessionClosedException ex) {
+                    sessions.remove(serial, session);
+                } catch (IOException ex) {
+                    sessions.remove(serial, session);
+                    return lostResults(serial, commands, ex);
+                }
+            }
+
+            Long blockedUntil = unavailableUntil.get(serial);
+            if (blockedUntil != null && System.nanoTime() - blockedUntil < 0) {
+                throw new IOException("Root shell session for " + serial + " is unavailable; retrying later.");
+            }
+
+            try {
+                session = RootShellSession.open(client, serial, timeout, watchdog);
+            } catch (IOException ex) {
+                unavailableUntil.put(serial, System.nanoTime() + RETRY_BACKOFF.toNanos());
+                throw ex;
+            }
+            unavailableUntil.remove(serial);
+            sessions.put(serial, session);
+            try {
+                return session.executeAll(commands, timeout, listener);
+            } catch (IOException ex) {
+                sessions.remove(serial, session);
+                return lostResults(serial, commands, ex);
+            }
+        }
+    }
+
+    void close(String serial) {
+        RootShellSession session = sessions.remove(serial);
+        unavailableUntil.remove(serial);
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    void retainOnly(Collection<String> serials) {
+        for (String serial : new ArrayList<>(sessions.keySet())) {
+            if (!serials.contains(serial)) {
+                close(serial);
+            }
+        }
+    }
+
+    void closeAll() {
+        for (String serial : new ArrayList<>(sessions.keySet())) {
+            close(serial);
+        }
+    }
+
+    @Override
+    public void close() {
+        closeAll();
+        watchdog.shutdownNow();
+    }
+
+    private static List<CommandResult> lostResults(String serial, List<String> commands, IOException cause) {
+        List<CommandResult> results = new ArrayList<>();
+        for (String command : commands) {
+            results.add(new CommandResult(1, "", "Root shell session lost: " + cause.getMessage(),
+                    "su[session " + serial + "] " + command));
+        }
+        return results;
+    }
+}
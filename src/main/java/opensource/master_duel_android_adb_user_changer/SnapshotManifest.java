@@ -0,0 +1,112 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One snapshot in a BackupRepository: a "key=value" header, a blank line, then one tab-separated line per tar entry:
+// type, octal mode, mtime, size, SHA-1 of the file, path and the comma-separated SHA-256 ids of its chunks
+// (the link target for symlinks). Listing only reads the header.
+record SnapshotManifest(String id, String serial, String folder, String createdUtc, int files, long logicalBytes,
+                        long newBytes, long skippedBytes, List<Entry> entries) {
+    static final String FORMAT = "mdauc-snapshot 1";
+
+    record Entry(TarEntry tar, String sha1, List<String> chunks) {
+    }
+
+    void write(Writer out) throws IOException {
+        out.write(FORMAT + "\n");
+        for (Map.Entry<String, String> field : header().entrySet()) {
+            out.write(field.getKey() + "=" + escape(field.getValue()) + "\n");
+        }
+        out.write("\n");
+        for (Entry entry : entries) {
+            TarEntry tar = entry.tar();
+            String target = tar.type() == TarEntry.SYMLINK ? escape(tar.linkName()) : String.join(",", entry.chunks());
+            out.write(tar.type() + "\t" + Integer.toOctalString(tar.mode()) + "\t" + tar.modifiedEpochSeconds() + "\t"
+                    + tar.size() + "\t" + (entry.sha1().isEmpty() ? "-" : entry.sha1()) + "\t" + escape(tar.path())
+                    + "\t" + target + "\n");
+        }
+    }
+
+    static SnapshotManifest read(BufferedReader in, boolean headerOnly) throws IOException {
+        if (!FORMAT.equals(in.readLine())) {
+            throw new IOException("Not a snapshot manifest.");
+        }
+        Map<String, String> header = new LinkedHashMap<>();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            int equals = line.indexOf('=');
+            if (equals > 0) {
+                header.put(line.substring(0, equals), unescape(line.substring(equals + 1)));
+            }
+        }
+        List<Entry> entries = new ArrayList<>();
+        while (!headerOnly && (line = in.readLine()) != null) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 7 || fields[0].length() != 1) {
+                throw new IOException("Corrupt manifest line: " + line);
+            }
+            char type = fields[0].charAt(0);
+            boolean symlink = type == TarEntry.SYMLINK;
+            try {
+                TarEntry tar = new TarEntry(unescape(fields[5]), type, Integer.parseInt(fields[1], 8),
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3]), symlink ? unescape(fields[6]) : "");
+                List<String> chunks = symlink || fields[6].isEmpty() ? List.of() : List.of(fields[6].split(","));
+                entries.add(new Entry(tar, "-".equals(fields[4]) ? "" : fields[4], chunks));
+            } catch (NumberFormatException ex) {
+                throw new IOException("Corrupt manifest line: " + line);
+            }
+        }
+        try {
+            return new SnapshotManifest(header.getOrDefault("id", ""), header.getOrDefault("serial", ""),
+                    header.getOrDefault("folder", ""), header.getOrDefault("created", ""),
+                    Integer.parseInt(header.getOrDefault("files", "0")),
+                    Long.parseLong(header.getOrDefault("bytes", "0")),
+                    Long.parseLong(header.getOrDefault("newBytes", "0")),
+                    Long.parseLong(header.getOrDefault("skippedBytes", "0")), entries);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Corrupt manifest header.");
+        }
+    }
+
+    private Map<String, String> header() {
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("id", id);
+        header.put("serial", serial);
+        header.put("folder", folder);
+        header.put("created", createdUtc);
+        header.put("files", String.valueOf(files));
+        header.put("bytes", String.valueOf(logicalBytes));
+        header.put("newBytes", String.valueOf(newBytes));
+        header.put("skippedBytes", String.valueOf(skippedBytes));
+        return header;
+    }
+
+    private static String escape(String value) {
+        return value.replace("%", "%25").replace("\t", "%09").replace("\n", "%0A").replace("\r", "%0D");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder text = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            String code = value.charAt(i) == '%' && i + 2 < value.length() ? value.substring(i + 1, i + 3) : "";
+            switch (code) {
+                case "25" -> text.append('%');
+                case "09" -> text.append('\t');
+                case "0A" -> text.append('\n');
+                case "0D" -> text.append('\r');
+                default -> {
+                    text.append(value.charAt(i));
+                    continue;
+                }
+            }
+            i += 2;
+        }
+        return text.toString();
+    }
+}
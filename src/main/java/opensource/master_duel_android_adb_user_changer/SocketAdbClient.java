@@ -0,0 +1,268 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+public class SocketAdbClient implements AdbClient {
+    private static final String EXIT_MARKER_PREFIX = "__ADB_EXIT_";
+    private static final Duration SESSION_IDLE_LIMIT = Duration.ofDays(1);
+    private static final int SHELL_V2_STDIN = 0;
+    private static final int SHELL_V2_STDOUT = 1;
+    private static final int SHELL_V2_STDERR = 2;
+    private static final int SHELL_V2_EXIT = 3;
+    private static final int SHELL_V2_CLOSE_STDIN = 4;
+    private static final int SHELL_V2_HEADER_BYTES = 5;
+    // Older adbd reads a packet into a 4 KiB buffer; anything it sends back fits in one adb message.
+    private static final int SHELL_V2_MAX_STDIN = 4096 - SHELL_V2_HEADER_BYTES;
+    private static final int SHELL_V2_MAX_PACKET = 1024 * 1024;
+
+    private final String host;
+    private final int port;
+    private final AdbClient fallback;
+    private final int maxCapturedBytes;
+    private final MetricsRegistry metrics;
+
+    public SocketAdbClient(String host, int port, AdbClient fallback) {
+        this(host, port, fallback, OutputCollector.DEFAULT_MAX_BYTES);
+    }
+
+    public SocketAdbClient(String host, int port, AdbClient fallback, int maxCapturedBytes) {
+        this(host, port, fallback, maxCapturedBytes, null);
+    }
+
+    public SocketAdbClient(String host, int port, AdbClient fallback, int maxCapturedBytes, MetricsRegistry metrics) {
+        this.host = host;
+        this.port = port;
+        this.fallback = fallback;
+        this.maxCapturedBytes = maxCapturedBytes;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CommandResult run(List<String> args, Duration timeout, byte[] input, CommandOutputListener listener) {
+        String commandLine = "adb@" + host + ":" + port + " " + String.join(" ", args);
+        String serial = null;
+        int index = 0;
+        if (args.size() >= 2 && "-s".equals(args.get(0))) {
+            serial = args.get(1);
+            index = 2;
+        }
+        if (index >= args.size()) {
+            return CommandResult.failure("No adb command given.", "");
+        }
+        String verb = args.get(index);
+        String remoteCommand = String.join(" ", args.subList(index + 1, args.size()));
+
+        try {
+            return switch (verb) {
+                case "version" -> version(timeout, commandLine);
+                case "devices" -> devices(args.contains("-l"), timeout, commandLine);
+                case "shell" -> input == null
+                        ? shell(serial, remoteCommand, timeout, commandLine, listener)
+                        : shellWithInput(serial, remoteCommand, input, timeout, commandLine, listener);
+                case "exec-out", "exec-in" -> input == null
+                        ? exec(serial, remoteCommand, timeout, commandLine, listener)
+                        : shellWithInput(serial, remoteCommand, input, timeout, commandLine, listener);
+                default -> unsupported(args, timeout, input, commandLine, listener);
+            };
+        } catch (ConnectException ex) {
+            if (fallback != null) {
+                return fallback.run(args, timeout, input, listener);
+            }
+            return new CommandResult(1, "adb server not reachable at " + host + ":" + port, ex.getMessage(), commandLine);
+        } catch (IOException ex) {
+            return new CommandResult(1, ex.getMessage(), "", commandLine);
+        }
+    }
+
+    @Override
+    public AdbShellChannel openShell(String serial, String command) throws IOException {
+        AdbSocketConnection connection;
+        try {
+            connection = openService(serial, "shell:" + command, DEFAULT_TIMEOUT);
+        } catch (ConnectException ex) {
+            if (fallback != null) {
+                return fallback.openShell(serial, command);
+            }
+            throw ex;
+        }
+        connection.extendDeadline(SESSION_IDLE_LIMIT);
+        return connection.asShellChannel();
+    }
+
+    @Override
+    public AdbShellChannel openExec(String serial, String command) throws IOException {
+        AdbSocketConnection connection;
+        try {
+            connection = openService(serial, "exec:" + command, DEFAULT_TIMEOUT);
+        } catch (ConnectException ex) {
+            if (fallback != null) {
+                return fallback.openExec(serial, command);
+            }
+            throw ex;
+        }
+        return connection.asShellChannel(DEFAULT_TIMEOUT);
+    }
+
+    @Override
+    public AdbShellChannel openExecIn(String serial, String command) throws IOException {
+        return openExec(serial, command);
+    }
+
+    private CommandResult version(Duration timeout, String commandLine) throws IOException {
+        try (AdbSocketConnection connection = AdbSocketConnection.open(host, port, timeout)) {
+            connection.sendRequest("host:version");
+            int version = Integer.parseInt(connection.readLengthPrefixed(), 16);
+            String stdout = "Android Debug Bridge version 1.0." + version + "\n"
+                    + "Server: " + host + ":" + port + " (socket transport)\n";
+            return new CommandResult(0, stdout, "", commandLine);
+        }
+    }
+
+    private CommandResult devices(boolean longFormat, Duration timeout, String commandLine) throws IOException {
+        try (AdbSocketConnection connection = AdbSocketConnection.open(host, port, timeout)) {
+            connection.sendRequest(longFormat ? "host:devices-l" : "host:devices");
+            String stdout = "List of devices attached\n" + connection.readLengthPrefixed();
+            return new CommandResult(0, stdout, "", commandLine);
+        }
+    }
+
+    private CommandResult shell(String serial, String command, Duration timeout, String commandLine,
+                                CommandOutputListener listener) throws IOException {
+        if (command.isBlank()) {
+            return new CommandResult(1, "Interactive shell is not supported by the socket transport.", "", commandLine);
+        }
+        String marker = exitMarker();
+        try (AdbSocketConnection connection = openService(serial, "shell:" + framed(command, marker), timeout)) {
+            return readFramed(connection, marker, true, commandLine, listener);
+        }
+    }
+
+    // The exec service has no exit status either, so it gets the same trailer as shell commands.
+    private CommandResult exec(String serial, String command, Duration timeout, String commandLine,
+                               CommandOutputListener listener) throws IOException {
+        String marker = exitMarker();
+        try (AdbSocketConnection connection = openService(serial, "exec:" + framed(command, marker), timeout)) {
+            return readFramed(connection, marker, false, commandLine, listener);
+        }
+    }
+
+    // adb ends a shell or exec stream as soon as the client closes stdin, before the command has exited, so no
+    // trailer could be read back. The shell v2 protocol (adbd since Android 7) frames stdin, stdout and stderr in
+    // packets, has a packet for the end of stdin and reports the exit status itself.
+    private CommandResult shellWithInput(String serial, String command, byte[] input, Duration timeout,
+                                         String commandLine, CommandOutputListener listener) throws IOException {
+        try (AdbSocketConnection connection = openService(serial, "shell,v2,raw:" + command, timeout)) {
+            for (int offset = 0; offset < input.length; offset += SHELL_V2_MAX_STDIN) {
+                writePacket(connection, SHELL_V2_STDIN, input, offset, Math.min(SHELL_V2_MAX_STDIN,
+                        input.length - offset));
+            }
+            writePacket(connection, SHELL_V2_CLOSE_STDIN, input, 0, 0);
+
+            OutputCollector stdout = new OutputCollector(CommandOutputListener.Stream.STDOUT, maxCapturedBytes,
+                    listener);
+            OutputCollector stderr = new OutputCollector(CommandOutputListener.Stream.STDERR, maxCapturedBytes,
+                    listener);
+            Integer exitCode = null;
+            byte[] header = new byte[SHELL_V2_HEADER_BYTES];
+            while (exitCode == null && connection.readFully(header)) {
+                int length = ByteBuffer.wrap(header, 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                if (length < 0 || length > SHELL_V2_MAX_PACKET) {
+                    throw new AdbSocketConnection.AdbProtocolException("Invalid shell packet length: " + length);
+                }
+                byte[] data = new byte[length];
+                if (!connection.readFully(data)) {
+                    break;
+                }
+                switch (header[0]) {
+                    case SHELL_V2_STDOUT -> stdout.write(data, 0, length);
+                    case SHELL_V2_STDERR -> stderr.write(data, 0, length);
+                    case SHELL_V2_EXIT -> exitCode = length > 0 ? data[0] & 0xff : 1;
+                    default -> {
+                        // Window size changes and unknown packets carry nothing for a raw command.
+                    }
+                }
+            }
+            stdout.flushLine();
+            stderr.flushLine();
+            if (exitCode == null) {
+                return new CommandResult(1, stdout.text(), "Exit status missing from shell output.", commandLine);
+            }
+            return new CommandResult(exitCode, stdout.text(), stderr.text(), commandLine);
+        }
+    }
+
+    private static void writePacket(AdbSocketConnection connection, int id, byte[] data, int offset, int length)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SHELL_V2_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) id).putInt(length);
+        connection.write(header.array());
+        connection.write(data, offset, length);
+    }
+
+    private static String exitMarker() {
+        return EXIT_MARKER_PREFIX + UUID.randomUUID().toString().replace("-", "") + ":";
+    }
+
+    private static String framed(String command, String marker) {
+        return command + "; printf '\\n%s%d\\n' '" + marker + "' $?";
+    }
+
+    // Both services merge stderr into stdout, so getStderr() of these results is always empty on this transport.
+    // adbd only allocates a pty for a shell: without a command, but before Android 7 it ran every shell: command in
+    // one, which turned newlines into CRLF; shell output is normalized for those. exec output is passed unchanged.
+    private CommandResult readFramed(AdbSocketConnection connection, String marker, boolean pty, String commandLine,
+                                     CommandOutputListener listener) throws IOException {
+        OutputCollector output = new OutputCollector(CommandOutputListener.Stream.STDOUT, maxCapturedBytes, listener);
+        output.hideLinesStartingWith(marker);
+        connection.readToEnd(output);
+        output.flushLine();
+        String text = pty ? output.text().replace("\r\n", "\n") : output.text();
+        String exitLine = output.hiddenLine();
+        if (exitLine == null) {
+            return new CommandResult(1, text, "Exit status missing from shell output.", commandLine);
+        }
+        int exitCode;
+        try {
+            exitCode = Integer.parseInt(exitLine.substring(marker.length()).strip());
+        } catch (NumberFormatException ex) {
+            exitCode = 1;
+        }
+        int markerIndex = text.lastIndexOf("\n" + marker);
+        return new CommandResult(exitCode, markerIndex < 0 ? text : text.substring(0, markerIndex), "", commandLine);
+    }
+
+    private CommandResult unsupported(List<String> args, Duration timeout, byte[] input, String commandLine,
+                                      CommandOutputListener listener) {
+        if (fallback != null) {
+            return fallback.run(args, timeout, input, listener);
+        }
+        return new CommandResult(1, "Unsupported by socket transport: " + String.join(" ", args), "", commandLine);
+    }
+
+    private AdbSocketConnection openService(String serial, String service, Duration timeout) throws IOException {
+        long startedAt = System.nanoTime();
+        AdbSocketConnection connection = AdbSocketConnection.open(host, port, timeout);
+        try {
+            connection.sendRequest(serial == null ? "host:transport-any" : "host:transport:" + serial);
+            connection.sendRequest(service);
+            recordConnect(serial, startedAt, true);
+            return connection;
+        } catch (IOException ex) {
+            recordConnect(serial, startedAt, false);
+            connection.close();
+            throw ex;
+        }
+    }
+
+    private void recordConnect(String serial, long startedAt, boolean success) {
+        if (metrics != null) {
+            metrics.record("connect", serial, System.nanoTime() - startedAt, success);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package opensource.master_duel_android_adb_user_changer;
+
+public enum SwitchMode {
+    DEVICE_SCRIPT("One device-side script"),
+    CLIENT_STEPS("One command per step");
+
+    private final String label;
+
+    SwitchMode(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
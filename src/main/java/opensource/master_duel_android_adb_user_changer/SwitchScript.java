@@ -0,0 +1,182 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class SwitchScript {
+    private static final String STEP_MARKER = "@@MDAUC_STEP:";
+
+    private SwitchScript() {
+    }
+
+    // manifestUpdate runs only once the folders are in place; see ProfileManifest.updateScript.
+    public static String switchUser(String filesDir, String metadataFile, String targetFolder, String tempFolder,
+                                    String nowUtc, String manifestUpdate) {
+        return header(filesDir, targetFolder)
+                + "P=" + ShellEscaper.quote(tempFolder) + "\n"
+                + "mv persistent \"$P\"; rc=$?; step park-active $rc; [ $rc -eq 0 ] || exit 3\n"
+                + "mv \"$T\" persistent; rc=$?; step activate-target $rc\n"
+                + "if [ $rc -ne 0 ]; then mv \"$P\" persistent; step rollback $?; exit 4; fi\n"
+                + "mv \"$P\" \"$T\"; rc=$?; step archive-active $rc\n"
+                + "if [ $rc -ne 0 ]; then mv persistent \"$T\" && mv \"$P\" persistent; step rollback $?; exit 5; fi\n"
+                + metadataUpdate(metadataFile, nowUtc, manifestUpdate);
+    }
+
+    public static String switchUserAndArchiveActive(String filesDir, String metadataFile, String targetFolder,
+                                                    String archiveFolder, String nowUtc, String manifestUpdate) {
+        return header(filesDir, targetFolder)
+                + "A=" + ShellEscaper.quote(archiveFolder) + "\n"
+                + "if [ -d persistent ]; then\n"
+                + "  if [ -e \"$A\" ]; then step check-archive 1; exit 3; fi\n"
+                + "  step check-archive 0\n"
+                + "  mv persistent \"$A\"; rc=$?; step archive-active $rc; [ $rc -eq 0 ] || exit 4\n"
+                + "  mv \"$T\" persistent; rc=$?; step activate-target $rc\n"
+                + "  if [ $rc -ne 0 ]; then mv \"$A\" persistent; step rollback $?; exit 5; fi\n"
+                + "else\n"
+                + "  mv \"$T\" persistent; rc=$?; step activate-target $rc; [ $rc -eq 0 ] || exit 5\n"
+                + "fi\n"
+                + metadataUpdate(metadataFile, nowUtc, manifestUpdate);
+    }
+
+    // Extracts stdin into stagingDir. The exit status is published by rename and the shell's pid is recorded, so the
+    // scripts below can wait for the extract to end: exec-in returns once stdin is sent, not when tar exits.
+    public static String extractCommand(String stagingDir) {
+        String s = ShellEscaper.quote(stagingDir);
+        return "rm -rf " + s + " && mkdir -p " + s + " && echo $$ > " + s + ".pid"
+                + " && { tar -xf - -C " + s + "; echo $? > " + s + ".exit.tmp; mv " + s + ".exit.tmp " + s + ".exit; }";
+    }
+
+    // Waits while the extracting shell is alive and has not published its exit status, at most ten minutes.
+    private static String awaitExtract() {
+        return "P=$(cat \"$S.pid\" 2>/dev/null); i=0\n"
+                + "while [ ! -f \"$S.exit\" ] && [ $i -lt 3000 ] && [ -n \"$P\" ] && kill -0 \"$P\" 2>/dev/null; do\n"
+                + "  sleep 0.2; i=$((i + 1))\n"
+                + "done\n";
+    }
+
+    private static String cleanupFunction() {
+        return "cleanup() { rm -rf \"$S\" \"$S.exit\" \"$S.exit.tmp\" \"$S.pid\"; }\n";
+    }
+
+    // Removes a staging folder after a failed upload, once the extract that may still be writing into it has ended.
+    public static String discardRestore(String stagingDir) {
+        return "S=" + ShellEscaper.quote(stagingDir) + "\n"
+                + cleanupFunction()
+                + awaitExtract()
+                + "cleanup\n";
+    }
+
+    // Runs after the archive was sent to extractCommand and moves the profile into place with the app's owner and
+    // SELinux context, since tar as root restores neither.
+    public static String restoreProfile(String filesDir, String stagingDir, String sourceFolder, String targetFolder,
+                                        String manifestUpdate) {
+        return "step() { printf '" + STEP_MARKER + "%s:%d\\n' \"$1\" \"$2\"; }\n"
+                + "S=" + ShellEscaper.quote(stagingDir) + "\n"
+                + cleanupFunction()
+                + awaitExtract()
+                + "rc=$(cat \"$S.exit\" 2>/dev/null); [ \"$rc\" = 0 ]; rc=$?; step extract $rc\n"
+                + "[ $rc -eq 0 ] || { cleanup; exit 1; }\n"
+                + "[ -d \"$S\"/" + ShellEscaper.quote(sourceFolder) + " ]; rc=$?; step check-staged $rc\n"
+                + "[ $rc -eq 0 ] || { cleanup; exit 2; }\n"
+                + "cd " + ShellEscaper.quote(filesDir) + "; rc=$?; step enter-files-dir $rc\n"
+                + "[ $rc -eq 0 ] || { cleanup; exit 3; }\n"
+                + "T=" + ShellEscaper.quote(targetFolder) + "\n"
+                + "if [ -e \"$T\" ]; then step check-restore-target 1; cleanup; exit 4; fi\n"
+                + "step check-restore-target 0\n"
+                + "mv \"$S\"/" + ShellEscaper.quote(sourceFolder) + " \"$T\"; rc=$?; step move-restored $rc\n"
+                + "[ $rc -eq 0 ] || { cleanup; exit 5; }\n"
+                + "cleanup\n"
+                + "chown -R \"$(stat -c %u:%g .)\" \"$T\"; rc=$?; step chown $rc; [ $rc -eq 0 ] || exit 6\n"
+                + "restorecon -R \"$T\"; rc=$?; step restorecon $rc; [ $rc -eq 0 ] || exit 7\n"
+                + manifestUpdate
+                + "exit 0\n";
+    }
+
+    public static CommandResult restoreResult(CommandResult raw, String targetFolder) {
+        return toResult(raw, "Restore", targetFolder, targetFolder);
+    }
+
+    public static CommandResult toResult(CommandResult raw, String targetFolder, String archiveFolder) {
+        return toResult(raw, "Switch", targetFolder, archiveFolder);
+    }
+
+    private static CommandResult toResult(CommandResult raw, String operation, String targetFolder,
+                                          String archiveFolder) {
+        List<CommandResult.Step> steps = new ArrayList<>();
+        StringBuilder output = new StringBuilder();
+        for (String line : raw.getStdout().split("\\R")) {
+            if (line.startsWith(STEP_MARKER)) {
+                String step = line.substring(STEP_MARKER.length());
+                int separator = step.lastIndexOf(':');
+                if (separator > 0) {
+                    steps.add(new CommandResult.Step(step.substring(0, separator),
+                            parseExitCode(step.substring(separator + 1))));
+                }
+            } else if (!line.isBlank()) {
+                output.append(line).append('\n');
+            }
+        }
+
+        if (raw.isSuccess()) {
+            return new CommandResult(0, operation + " completed\n" + output, raw.getStderr(), raw.getCommandLine(),
+                    steps);
+        }
+
+        String message = operation + " failed.";
+        for (CommandResult.Step step : steps) {
+            if (!step.isSuccess()) {
+                message = failureMessage(step.name(), targetFolder, archiveFolder);
+                break;
+            }
+        }
+        boolean rolledBack = steps.stream().anyMatch(step -> "rollback".equals(step.name()) && step.isSuccess());
+        if (rolledBack) {
+            message += "\nChanges were rolled back on the device.";
+        }
+        return new CommandResult(raw.getExitCode(), message + "\n" + output, raw.getStderr(), raw.getCommandLine(),
+                steps);
+    }
+
+    private static String header(String filesDir, String targetFolder) {
+        return "step() { printf '" + STEP_MARKER + "%s:%d\\n' \"$1\" \"$2\"; }\n"
+                + "cd " + ShellEscaper.quote(filesDir) + "; rc=$?; step enter-files-dir $rc; [ $rc -eq 0 ] || exit 1\n"
+                + "T=" + ShellEscaper.quote(targetFolder) + "\n"
+                + "if [ -d \"$T\" ]; then step check-target 0; else step check-target 1; exit 2; fi\n";
+    }
+
+    private static String metadataUpdate(String metadataFile, String nowUtc, String manifestUpdate) {
+        return "M=persistent/" + ShellEscaper.quote(metadataFile) + "\n"
+                + "if [ -f \"$M\" ]; then grep -v '^lastSwitchUtc=' \"$M\" > \"$M.tmp\";"
+                + " else printf 'alias=persistent\\n' > \"$M.tmp\"; fi\n"
+                + "printf 'lastSwitchUtc=%s\\n' " + ShellEscaper.quote(nowUtc) + " >> \"$M.tmp\" && mv \"$M.tmp\" \"$M\"\n"
+                + "rc=$?; step update-metadata $rc; [ $rc -eq 0 ] || " + ProfileManifest.STALE_VARIABLE + "=1\n"
+                + manifestUpdate
+                + "exit 0\n";
+    }
+
+    private static String failureMessage(String step, String targetFolder, String archiveFolder) {
+        return switch (step) {
+            case "enter-files-dir" -> "Master Duel files folder not found.";
+            case "check-target" -> "Target folder not found: " + targetFolder;
+            case "check-archive" -> "Archive folder already exists: " + archiveFolder;
+            case "park-active", "archive-active" -> "Could not move the active profile.";
+            case "activate-target" -> "Could not activate " + targetFolder + ".";
+            case "rollback" -> "Rollback failed; check the files folder on the device.";
+            case "extract" -> "tar could not extract the archive on the device.";
+            case "check-staged" -> "The archive did not contain the expected profile folder.";
+            case "check-restore-target" -> "Folder already exists: " + targetFolder;
+            case "move-restored" -> "Could not move the restored profile into place.";
+            case "chown" -> "Restored " + targetFolder + " but could not give it to the app user.";
+            case "restorecon" -> "Restored " + targetFolder + " but could not reset its SELinux context.";
+            default -> "Switch failed at step " + step + ".";
+        };
+    }
+
+    private static int parseExitCode(String text) {
+        try {
+            return Integer.parseInt(text.strip());
+        } catch (NumberFormatException ex) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package opensource.master_duel_android_adb_user_changer;
+
+record TarEntry(String path, char type, int mode, long modifiedEpochSeconds, long size, String linkName) {
+    static final char FILE = '0';
+    static final char SYMLINK = '2';
+    static final char DIRECTORY = '5';
+
+    boolean isFile() {
+        return type == FILE;
+    }
+
+    boolean isDirectory() {
+        return type == DIRECTORY;
+    }
+
+    String topLevelFolder() {
+        String normalized = path;
+        while (normalized.startsWith("./")) {
+            normalized = normalized.substring(2);
+        }
+        int separator = normalized.indexOf('/');
+        return separator < 0 ? normalized : normalized.substring(0, separator);
+    }
+}
@@ -0,0 +1,128 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Reads the ustar/GNU subset that Android's toybox tar and GNU tar write: regular files, directories, symlinks,
+// GNU long names and pax path records. Hard links and sparse files are rejected.
+class TarReader {
+    static final int BLOCK = 512;
+
+    private final InputStream in;
+    private long remaining;
+    private long padding;
+
+    TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    TarEntry next() throws IOException {
+        skipContent();
+        String longName = null;
+        String longLink = null;
+        byte[] header = new byte[BLOCK];
+        while (true) {
+            if (in.readNBytes(header, 0, BLOCK) != BLOCK) {
+                throw new IOException("Tar stream ended without an end-of-archive block.");
+            }
+            if (isZero(header)) {
+                return null;
+            }
+            char type = header[156] == 0 ? TarEntry.FILE : (char) header[156];
+            long size = octal(header, 124, 12);
+            if (type == 'L' || type == 'K' || type == 'x') {
+                String value = new String(readPadded(size), StandardCharsets.UTF_8);
+                if (type == 'L') {
+                    longName = value.replace("\0", "");
+                } else if (type == 'K') {
+                    longLink = value.replace("\0", "");
+                } else {
+                    String paxPath = paxValue(value, "path");
+                    longName = paxPath != null ? paxPath : longName;
+                    String paxLink = paxValue(value, "linkpath");
+                    longLink = paxLink != null ? paxLink : longLink;
+                }
+                continue;
+            }
+            if (type == 'g') {
+                readPadded(size);
+                continue;
+            }
+            if (type != TarEntry.FILE && type != '7' && type != TarEntry.DIRECTORY && type != TarEntry.SYMLINK) {
+                throw new IOException("Unsupported tar entry type '" + type + "'.");
+            }
+            String name = string(header, 0, 100);
+            String prefix = string(header, 345, 155);
+            String path = longName != null ? longName : prefix.isEmpty() ? name : prefix + "/" + name;
+            String link = longLink != null ? longLink : string(header, 157, 100);
+            boolean file = type == TarEntry.FILE || type == '7';
+            remaining = file ? size : 0;
+            padding = file ? (BLOCK - size % BLOCK) % BLOCK : 0;
+            return new TarEntry(path, file ? TarEntry.FILE : type, (int) octal(header, 100, 8), octal(header, 136, 12),
+                    file ? size : 0, type == TarEntry.SYMLINK ? link : "");
+        }
+    }
+
+    // Content of the entry returned by the last next(); reading past it returns -1.
+    int read(byte[] target, int offset, int length) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int read = in.read(target, offset, (int) Math.min(length, remaining));
+        if (read < 0) {
+            throw new IOException("Tar stream ended inside an entry.");
+        }
+        remaining -= read;
+        return read;
+    }
+
+    private void skipContent() throws IOException {
+        in.skipNBytes(remaining + padding);
+        remaining = 0;
+        padding = 0;
+    }
+
+    private byte[] readPadded(long size) throws IOException {
+        byte[] data = in.readNBytes((int) size);
+        in.skipNBytes((BLOCK - size % BLOCK) % BLOCK);
+        return data;
+    }
+
+    private static String paxValue(String records, String key) {
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            int equals = record.indexOf('=');
+            if (space > 0 && equals > space && record.substring(space + 1, equals).equals(key)) {
+                return record.substring(equals + 1);
+            }
+        }
+        return null;
+    }
+
+    private static String string(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long octal(byte[] header, int offset, int length) throws IOException {
+        String value = string(header, offset, length).strip();
+        try {
+            return value.isEmpty() ? 0 : Long.parseLong(value, 8);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a tar archive.");
+        }
+    }
+
+    static boolean isZero(byte[] data) {
+        for (byte value : data) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
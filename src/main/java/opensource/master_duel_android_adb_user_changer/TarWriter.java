@@ -0,0 +1,91 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Writes ustar headers, with GNU long-name records for paths over 100 bytes, which toybox tar extracts.
+class TarWriter {
+    private static final int BLOCK = TarReader.BLOCK;
+
+    private final OutputStream out;
+    private long remaining;
+    private long padding;
+
+    TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void putEntry(TarEntry entry) throws IOException {
+        closeEntry();
+        byte[] path = entry.path().getBytes(StandardCharsets.UTF_8);
+        if (path.length > 100) {
+            writeHeader("././@LongLink", 'L', 0644, 0, path.length + 1, "");
+            out.write(path);
+            out.write(new byte[BLOCK - path.length % BLOCK]);
+        }
+        byte[] link = entry.linkName().getBytes(StandardCharsets.UTF_8);
+        if (link.length > 100) {
+            writeHeader("././@LongLink", 'K', 0644, 0, link.length + 1, "");
+            out.write(link);
+            out.write(new byte[BLOCK - link.length % BLOCK]);
+        }
+        writeHeader(entry.path(), entry.type(), entry.mode(), entry.modifiedEpochSeconds(), entry.size(),
+                entry.linkName());
+        remaining = entry.size();
+        padding = (BLOCK - entry.size() % BLOCK) % BLOCK;
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        if (length > remaining) {
+            throw new IOException("Entry content is longer than its declared size.");
+        }
+        out.write(data, offset, length);
+        remaining -= length;
+    }
+
+    void finish() throws IOException {
+        closeEntry();
+        out.write(new byte[2 * BLOCK]);
+        out.flush();
+    }
+
+    private void closeEntry() throws IOException {
+        if (remaining != 0) {
+            throw new IOException("Entry content is shorter than its declared size.");
+        }
+        out.write(new byte[(int) padding]);
+        padding = 0;
+    }
+
+    private void writeHeader(String path, char type, int mode, long modified, long size, String linkName)
+            throws IOException {
+        byte[] header = new byte[BLOCK];
+        put(header, 0, 100, path);
+        put(header, 100, 8, String.format("%07o", mode & 07777));
+        put(header, 108, 8, "0000000");
+        put(header, 116, 8, "0000000");
+        put(header, 124, 12, String.format("%011o", size));
+        put(header, 136, 12, String.format("%011o", Math.max(0, modified)));
+        header[156] = (byte) type;
+        put(header, 157, 100, linkName);
+        put(header, 257, 6, "ustar");
+        put(header, 263, 2, "00");
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte value : header) {
+            checksum += value & 0xff;
+        }
+        put(header, 148, 8, String.format("%06o", checksum));
+        header[154] = 0;
+        header[155] = ' ';
+        out.write(header);
+    }
+
+    private static void put(byte[] header, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+}
@@ -1,18 +1,29 @@
 package opensource.master_duel_android_adb_user_changer;
 
+import java.util.Objects;
+
 public class UserProfile {
     private final String folderName;
     private final String alias;
     private final boolean active;
     private final String metadataPath;
     private final String warning;
+    private final String lastUpdatedUtc;
+    private final String lastSwitchUtc;
 
     public UserProfile(String folderName, String alias, boolean active, String metadataPath, String warning) {
+        this(folderName, alias, active, metadataPath, warning, "", "");
+    }
+
+    public UserProfile(String folderName, String alias, boolean active, String metadataPath, String warning,
+                       String lastUpdatedUtc, String lastSwitchUtc) {
         this.folderName = folderName;
         this.alias = alias;
         this.active = active;
         this.metadataPath = metadataPath;
         this.warning = warning;
+        this.lastUpdatedUtc = lastUpdatedUtc == null ? "" : lastUpdatedUtc;
+        this.lastSwitchUtc = lastSwitchUtc == null ? "" : lastSwitchUtc;
     }
 
     public static UserProfile error(String message) {
@@ -39,15 +50,51 @@ public class UserProfile {
         return warning;
     }
 
+    public String getLastUpdatedUtc() {
+        return lastUpdatedUtc;
+    }
+
+    public String getLastSwitchUtc() {
+        return lastSwitchUtc;
+    }
+
     public String toDetailedString() {
         StringBuilder builder = new StringBuilder();
         builder.append("Folder: ").append(folderName).append("\n");
         builder.append("Alias: ").append(alias).append("\n");
         builder.append("Active: ").append(active).append("\n");
         builder.append("Metadata: ").append(metadataPath).append("\n");
+        if (!lastUpdatedUtc.isBlank()) {
+            builder.append("Last Updated: ").append(lastUpdatedUtc).append("\n");
+        }
+        if (!lastSwitchUtc.isBlank()) {
+            builder.append("Last Switch: ").append(lastSwitchUtc).append("\n");
+        }
         if (warning != null && !warning.isBlank()) {
             builder.append("Warning: ").append(warning);
         }
         return builder.toString();
     }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof UserProfile profile)) {
+            return false;
+        }
+        return active == profile.active
+                && folderName.equals(profile.folderName)
+                && Objects.equals(alias, profile.alias)
+                && Objects.equals(metadataPath, profile.metadataPath)
+                && Objects.equals(warning, profile.warning)
+                && lastUpdatedUtc.equals(profile.lastUpdatedUtc)
+                && lastSwitchUtc.equals(profile.lastSwitchUtc);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(folderName, alias, active, metadataPath, warning, lastUpdatedUtc, lastSwitchUtc);
+    }
 }
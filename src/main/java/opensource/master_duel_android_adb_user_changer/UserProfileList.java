@@ -0,0 +1,106 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import javafx.collections.ModifiableObservableListBase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Observable list of profiles that applies a refresh as a keyed diff by folder. Unchanged rows keep their objects, and
+// all removals, replacements and insertions of one refresh reach listeners as a single change.
+final class UserProfileList extends ModifiableObservableListBase<UserProfile> {
+    private final List<UserProfile> items = new ArrayList<>();
+
+    record MergeResult(int added, int replaced, int removed, int moved) {
+        boolean isEmpty() {
+            return added == 0 && replaced == 0 && removed == 0 && moved == 0;
+        }
+    }
+
+    // Brings the list into the order and content of profiles. Rows are matched by folder name; duplicate folders in
+    // profiles keep the first one.
+    MergeResult merge(List<UserProfile> profiles) {
+        Map<String, UserProfile> wanted = new HashMap<>();
+        List<UserProfile> ordered = new ArrayList<>(profiles.size());
+        for (UserProfile profile : profiles) {
+            if (wanted.putIfAbsent(profile.getFolderName(), profile) == null) {
+                ordered.add(profile);
+            }
+        }
+        int added = 0;
+        int replaced = 0;
+        int removed = 0;
+        int moved = 0;
+        beginChange();
+        try {
+            for (int i = items.size() - 1; i >= 0; i--) {
+                if (!wanted.containsKey(items.get(i).getFolderName())) {
+                    remove(i);
+                    removed++;
+                }
+            }
+            Set<String> present = new HashSet<>();
+            for (UserProfile item : items) {
+                present.add(item.getFolderName());
+            }
+            for (int i = 0; i < ordered.size(); i++) {
+                UserProfile profile = ordered.get(i);
+                String folder = profile.getFolderName();
+                if (i < items.size() && items.get(i).getFolderName().equals(folder)) {
+                    if (!items.get(i).equals(profile)) {
+                        set(i, profile);
+                        replaced++;
+                    }
+                } else if (present.contains(folder)) {
+                    // Out of order compared with the device listing; rare, so a linear search is fine.
+                    remove(indexOfFolder(folder, i + 1));
+                    add(i, profile);
+                    moved++;
+                } else {
+                    add(i, profile);
+                    added++;
+                }
+            }
+        } finally {
+            endChange();
+        }
+        return new MergeResult(added, replaced, removed, moved);
+    }
+
+    private int indexOfFolder(String folder, int from) {
+        for (int i = from; i < items.size(); i++) {
+            if (items.get(i).getFolderName().equals(folder)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Folder not in list: " + folder);
+    }
+
+    @Override
+    public UserProfile get(int index) {
+        return items.get(index);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    protected void doAdd(int index, UserProfile element) {
+        items.add(index, element);
+    }
+
+    @Override
+    protected UserProfile doSet(int index, UserProfile element) {
+        return items.set(index, element);
+    }
+
+    @Override
+    protected UserProfile doRemove(int index) {
+        return items.remove(index);
+    }
+}
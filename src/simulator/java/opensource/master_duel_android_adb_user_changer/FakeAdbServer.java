@@ -0,0 +1,489 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class FakeAdbServer implements Closeable {
+    private static final int SERVER_VERSION = 41;
+
+    private final Path root;
+    private final Path binDir;
+    private final Map<String, FakeDevice> devices = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Tracker> trackers = ConcurrentHashMap.newKeySet();
+    private volatile FaultInjector faults = FaultInjector.NONE;
+    private ServerSocket serverSocket;
+
+    public FakeAdbServer(Path root) throws IOException {
+        this.root = root;
+        this.binDir = root.resolve("bin");
+        Files.createDirectories(binDir);
+        installTools();
+    }
+
+    public FakeDevice addDevice(String serial) throws IOException {
+        FakeDevice device = new FakeDevice(serial, root.resolve("devices").resolve(serial));
+        devices.put(serial, device);
+        notifyTrackers();
+        return device;
+    }
+
+    public void removeDevice(String serial) {
+        if (devices.remove(serial) != null) {
+            notifyTrackers();
+        }
+    }
+
+    public void setDeviceState(String serial, String state) {
+        FakeDevice device = devices.get(serial);
+        if (device != null && !state.equals(device.getState())) {
+            device.setState(state);
+            notifyTrackers();
+        }
+    }
+
+    // Every period the last device goes offline, disappears, then comes back, like a flaky USB cable.
+    public void startHotplug(Duration period) {
+        String serial = devices.keySet().stream().max(String::compareTo).orElse(null);
+        if (serial == null) {
+            return;
+        }
+        FakeDevice device = devices.get(serial);
+        executor.submit(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(period);
+                    setDeviceState(serial, "offline");
+                    Thread.sleep(period.dividedBy(2));
+                    removeDevice(serial);
+                    Thread.sleep(period);
+                    device.setState("device");
+                    devices.put(serial, device);
+                    notifyTrackers();
+                }
+            } catch (InterruptedException ignored) {
+                // Server closed.
+            }
+            return null;
+        });
+    }
+
+    public void setFaultInjector(FaultInjector faults) {
+        this.faults = faults == null ? FaultInjector.NONE : faults;
+    }
+
+    public void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        executor.submit(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.submit(() -> handle(socket));
+            } catch (IOException ex) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            FakeDevice selected = null;
+            while (true) {
+                String request = readRequest(input);
+                if (request == null) {
+                    return;
+                }
+                if (request.equals("host:version")) {
+                    okay(output);
+                    writeLengthPrefixed(output, String.format("%04x", SERVER_VERSION));
+                    return;
+                }
+                if (request.equals("host:devices") || request.equals("host:devices-l")) {
+                    faults.delay("devices");
+                    okay(output);
+                    writeLengthPrefixed(output, deviceList(request.endsWith("-l")));
+                    return;
+                }
+                if (request.equals("host:track-devices") || request.equals("host:track-devices-l")) {
+                    okay(output);
+                    Tracker tracker = new Tracker(output, request.endsWith("-l"));
+                    trackers.add(tracker);
+                    try {
+                        tracker.send(deviceList(tracker.longFormat()));
+                        while (input.read() >= 0) {
+                            // Clients never send anything after the request; EOF means they hung up.
+                        }
+                    } finally {
+                        trackers.remove(tracker);
+                    }
+                    return;
+                }
+                if (request.equals("host:transport-any")) {
+                    selected = devices.values().stream().findFirst().orElse(null);
+                    if (selected == null) {
+                        fail(output, "no devices/emulators found");
+                        return;
+                    }
+                    okay(output);
+                    continue;
+                }
+                if (request.startsWith("host:transport:")) {
+                    selected = devices.get(request.substring("host:transport:".length()));
+                    if (selected == null) {
+                        fail(output, "device '" + request.substring("host:transport:".length()) + "' not found");
+                        return;
+                    }
+                    okay(output);
+                    continue;
+                }
+                if (selected != null && (request.startsWith("shell") || request.startsWith("exec:"))
+                        && request.contains(":")) {
+                    String service = request.substring(0, request.indexOf(':'));
+                    boolean v2 = List.of(service.split(",")).contains("v2");
+                    boolean shell = service.startsWith("shell");
+                    String command = request.substring(request.indexOf(':') + 1);
+                    faults.delay(FaultInjector.commandKind(command));
+                    if (faults.shouldFail()) {
+                        fail(output, "device '" + selected.getSerial() + "' offline");
+                        return;
+                    }
+                    okay(output);
+                    if (faults.shouldDrop()) {
+                        // Closing right after OKAY looks like a cable pulled once the command was accepted.
+                        return;
+                    }
+                    if (v2) {
+                        runShellV2(selected, command, input, output);
+                    } else {
+                        runOnDevice(selected, command, socket, input, output, shell);
+                    }
+                    return;
+                }
+                fail(output, "unknown host service: " + request);
+                return;
+            }
+        } catch (IOException ignored) {
+            // Client went away; nothing to report in a fake server.
+        }
+    }
+
+    // Like adb, the whole stream is closed once the client has closed its side: output of a command still running
+    // after that is lost, but the command itself keeps running.
+    private void runOnDevice(FakeDevice device, String command, Socket socket, InputStream socketInput,
+                             OutputStream socketOutput, boolean rewriteText) throws IOException {
+        Process process = startProcess(device, command, true);
+        AtomicBoolean inputEnded = new AtomicBoolean();
+
+        executor.submit(() -> {
+            try (OutputStream stdin = process.getOutputStream()) {
+                byte[] buffer = new byte[8192];
+                StringBuilder pending = new StringBuilder();
+                int read;
+                while ((read = socketInput.read(buffer)) >= 0) {
+                    if (!rewriteText) {
+                        stdin.write(buffer, 0, read);
+                        stdin.flush();
+                        continue;
+                    }
+                    pending.append(new String(buffer, 0, read, StandardCharsets.ISO_8859_1));
+                    int lastNewline = pending.lastIndexOf("\n");
+                    if (lastNewline >= 0) {
+                        faults.delay("session");
+                        stdin.write(device.toHostCommand(pending.substring(0, lastNewline + 1))
+                                .getBytes(StandardCharsets.ISO_8859_1));
+                        stdin.flush();
+                        pending.delete(0, lastNewline + 1);
+                    }
+                }
+                stdin.write(device.toHostCommand(pending.toString()).getBytes(StandardCharsets.ISO_8859_1));
+            } catch (IOException ignored) {
+                // The command exited or the client closed the connection.
+            }
+            inputEnded.set(true);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed.
+            }
+        });
+
+        try (InputStream stdout = process.getInputStream()) {
+            if (!rewriteText) {
+                stdout.transferTo(socketOutput);
+                return;
+            }
+            copyOutput(device, stdout, data -> {
+                socketOutput.write(data);
+                socketOutput.flush();
+            });
+        } finally {
+            if (!inputEnded.get()) {
+                process.destroy();
+            }
+        }
+    }
+
+    // Shell protocol v2: every chunk is a packet of a one-byte id, a little-endian length and the data. The client
+    // sends stdin and a close-stdin packet; the server sends stdout, stderr and finally the exit status.
+    private void runShellV2(FakeDevice device, String command, InputStream socketInput, OutputStream socketOutput)
+            throws IOException {
+        Process process = startProcess(device, command, false);
+        executor.submit(() -> {
+            try (OutputStream stdin = process.getOutputStream()) {
+                while (true) {
+                    byte[] header = socketInput.readNBytes(5);
+                    if (header.length < 5) {
+                        return;
+                    }
+                    int length = ByteBuffer.wrap(header, 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                    byte[] data = socketInput.readNBytes(length);
+                    if (header[0] == 4) {
+                        return;
+                    }
+                    if (header[0] == 0) {
+                        stdin.write(data);
+                        stdin.flush();
+                    }
+                }
+            } catch (IOException ignored) {
+                // The command exited or the client closed the connection.
+            }
+        });
+
+        try {
+            Future<?> stderr = executor.submit(() -> {
+                copyOutput(device, process.getErrorStream(), data -> writePacket(socketOutput, 2, data));
+                return null;
+            });
+            copyOutput(device, process.getInputStream(), data -> writePacket(socketOutput, 1, data));
+            stderr.get();
+            writePacket(socketOutput, 3, new byte[]{(byte) process.waitFor()});
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof IOException io ? io : new IOException(ex.getCause());
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private Process startProcess(FakeDevice device, String command, boolean mergeStderr) throws IOException {
+        List<String> shell = new ArrayList<>(List.of("/bin/sh"));
+        if (!command.isBlank()) {
+            shell.add("-c");
+            shell.add(device.toHostCommand(command));
+        }
+        ProcessBuilder builder = new ProcessBuilder(shell);
+        builder.redirectErrorStream(mergeStderr);
+        builder.directory(device.getRoot().toFile());
+        builder.environment().put("PATH", binDir + ":" + System.getenv().getOrDefault("PATH", "/usr/bin:/bin"));
+        builder.environment().put("FAKE_ADB_PROPS", device.getPropsFile().toString());
+        return builder.start();
+    }
+
+    // Host paths in the output are turned back into device paths, a line at a time so none is split.
+    private static void copyOutput(FakeDevice device, InputStream output, ChunkWriter target) throws IOException {
+        byte[] buffer = new byte[8192];
+        StringBuilder pending = new StringBuilder();
+        int read;
+        while ((read = output.read(buffer)) >= 0) {
+            pending.append(new String(buffer, 0, read, StandardCharsets.ISO_8859_1));
+            int lastNewline = pending.lastIndexOf("\n");
+            if (lastNewline >= 0 || pending.length() > 65536) {
+                int end = lastNewline >= 0 ? lastNewline + 1 : pending.length();
+                target.write(device.toDeviceOutput(pending.substring(0, end)).getBytes(StandardCharsets.ISO_8859_1));
+                pending.delete(0, end);
+            }
+        }
+        if (!pending.isEmpty()) {
+            target.write(device.toDeviceOutput(pending.toString()).getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private static void writePacket(OutputStream output, int id, byte[] data) throws IOException {
+        synchronized (output) {
+            output.write(ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN).put((byte) id).putInt(data.length)
+                    .array());
+            output.write(data);
+            output.flush();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkWriter {
+        void write(byte[] data) throws IOException;
+    }
+
+    private String deviceList(boolean longFormat) {
+        StringBuilder builder = new StringBuilder();
+        for (FakeDevice device : devices.values()) {
+            builder.append(longFormat ? device.describe() : device.getSerial() + "\t" + device.getState()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private void notifyTrackers() {
+        for (Tracker tracker : trackers) {
+            try {
+                tracker.send(deviceList(tracker.longFormat()));
+            } catch (IOException ex) {
+                trackers.remove(tracker);
+            }
+        }
+    }
+
+    private void installTools() throws IOException {
+        writeTool("su", """
+                #!/bin/sh
+                if [ "$1" = "-c" ]; then
+                  shift
+                  exec /bin/sh -c "$*"
+                fi
+                exec /bin/sh
+                """);
+        writeTool("id", """
+                #!/bin/sh
+                echo "uid=0(root) gid=0(root) groups=0(root) context=u:r:magisk:s0"
+                """);
+        writeTool("getprop", """
+                #!/bin/sh
+                if [ $# -eq 0 ]; then
+                  while IFS='=' read -r key value; do
+                    printf '[%s]: [%s]\\n' "$key" "$value"
+                  done < "$FAKE_ADB_PROPS"
+                else
+                  grep "^$1=" "$FAKE_ADB_PROPS" | head -n 1 | cut -d= -f2-
+                fi
+                """);
+        writeTool("restorecon", """
+                #!/bin/sh
+                exit 0
+                """);
+        writeTool("getenforce", """
+                #!/bin/sh
+                echo Enforcing
+                """);
+    }
+
+    private void writeTool(String name, String script) throws IOException {
+        Path tool = binDir.resolve(name);
+        Files.writeString(tool, script, StandardCharsets.UTF_8);
+        Files.setPosixFilePermissions(tool, PosixFilePermissions.fromString("rwxr-xr-x"));
+    }
+
+    private record Tracker(OutputStream output, boolean longFormat) {
+        void send(String deviceList) throws IOException {
+            synchronized (output) {
+                writeLengthPrefixed(output, deviceList);
+            }
+        }
+    }
+
+    private static String readRequest(InputStream input) throws IOException {
+        byte[] header = input.readNBytes(4);
+        if (header.length < 4) {
+            return null;
+        }
+        int length = Integer.parseInt(new String(header, StandardCharsets.US_ASCII), 16);
+        return new String(input.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static void okay(OutputStream output) throws IOException {
+        output.write("OKAY".getBytes(StandardCharsets.US_ASCII));
+        output.flush();
+    }
+
+    private static void fail(OutputStream output, String message) throws IOException {
+        output.write("FAIL".getBytes(StandardCharsets.US_ASCII));
+        writeLengthPrefixed(output, message);
+    }
+
+    private static void writeLengthPrefixed(OutputStream output, String payload) throws IOException {
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        output.write(String.format("%04x", data.length).getBytes(StandardCharsets.US_ASCII));
+        output.write(data);
+        output.flush();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args, Map.of("--port", "15037", "--devices", "1", "--profiles", "3"));
+        FakeAdbServer server = startFromOptions(options);
+        System.out.println("Fake adb server listening on localhost:" + server.getPort()
+                + " with " + server.devices.size() + " device(s), " + server.faults);
+        Thread.currentThread().join();
+    }
+
+    static FakeAdbServer startFromOptions(Map<String, String> options) throws IOException {
+        Path root = options.containsKey("--root")
+                ? Path.of(options.get("--root"))
+                : Files.createTempDirectory("fake-adb");
+        FakeAdbServer server = new FakeAdbServer(root);
+        server.setFaultInjector(new FaultInjector(
+                FaultInjector.parseLatency(options.get("--latency")),
+                Long.parseLong(options.getOrDefault("--jitter", "0")),
+                Double.parseDouble(options.getOrDefault("--fail-rate", "0")),
+                Double.parseDouble(options.getOrDefault("--drop-rate", "0"))));
+        int deviceCount = Integer.parseInt(options.getOrDefault("--devices", "1"));
+        int profiles = Integer.parseInt(options.getOrDefault("--profiles", "3"));
+        for (int i = 1; i <= deviceCount; i++) {
+            server.addDevice(String.format("fake-%04d", i)).seedProfiles(profiles);
+        }
+        server.start(Integer.parseInt(options.getOrDefault("--port", "0")));
+        if (options.containsKey("--hotplug")) {
+            server.startHotplug(Duration.ofSeconds(Long.parseLong(options.get("--hotplug"))));
+        }
+        return server;
+    }
+
+    static Map<String, String> parseOptions(String[] args, Map<String, String> defaults) {
+        Map<String, String> options = new HashMap<>(defaults);
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            boolean flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+            options.put(args[i], flag ? "true" : args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,106 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class FakeDevice {
+    static final String MASTER_DUEL_FILES = "/data/data/jp.konami.masterduel/files";
+    static final String METADATA_FILE = "master-duel-android-adb-user-changer-metadata.properties";
+
+    private static final Pattern DATA_PATH = Pattern.compile("(?<![\\w./-])/data/");
+
+    private final String serial;
+    private final Path root;
+    private final Path propsFile;
+    private volatile String state = "device";
+
+    public FakeDevice(String serial, Path root) throws IOException {
+        this.serial = serial;
+        this.root = root;
+        this.propsFile = root.resolve("build.prop");
+        Files.createDirectories(filesDir());
+        Files.createDirectories(root.resolve("data/local/tmp"));
+        if (!Files.exists(propsFile)) {
+            writeProps(defaultProps(serial));
+        }
+    }
+
+    public String getSerial() {
+        return serial;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Path getPropsFile() {
+        return propsFile;
+    }
+
+    public Path filesDir() {
+        return root.resolve(MASTER_DUEL_FILES.substring(1));
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public String describe() {
+        return serial + "\t" + state + " product:fake_" + serial + " model:Fake_Device device:fake transport_id:1";
+    }
+
+    public void seedProfiles(int archivedCount) throws IOException {
+        seedProfile("persistent", "Main");
+        for (int i = 1; i <= archivedCount; i++) {
+            seedProfile("persistent_archived_" + (1700000000000L + i), "Archived " + i);
+        }
+    }
+
+    public void seedProfile(String folder, String alias) throws IOException {
+        Path dir = filesDir().resolve(folder);
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("player.dat"), "player data for " + alias + "\n", StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve(METADATA_FILE),
+                "alias=" + alias + "\nlastUpdatedUtc=2024-01-01T00\\:00\\:00Z\n",
+                StandardCharsets.ISO_8859_1);
+    }
+
+    String toHostCommand(String command) {
+        Matcher matcher = DATA_PATH.matcher(command);
+        return matcher.replaceAll(Matcher.quoteReplacement(root.toString() + "/data/"));
+    }
+
+    String toDeviceOutput(String output) {
+        return output.replace(root.toString(), "");
+    }
+
+    private void writeProps(Map<String, String> props) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        props.forEach((key, value) -> builder.append(key).append('=').append(value).append('\n'));
+        Files.writeString(propsFile, builder.toString(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> defaultProps(String serial) {
+        Map<String, String> props = new LinkedHashMap<>();
+        props.put("ro.product.model", "Fake Device");
+        props.put("ro.product.manufacturer", "FakeAdb");
+        props.put("ro.build.version.release", "14");
+        props.put("ro.build.version.sdk", "34");
+        props.put("ro.build.display.id", "fake-" + serial);
+        props.put("ro.product.cpu.abi", "x86_64");
+        props.put("ro.product.cpu.abilist", "x86_64,arm64-v8a");
+        props.put("ro.boot.selinux", "enforcing");
+        props.put("ro.serialno", serial);
+        return props;
+    }
+}
@@ -0,0 +1,74 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class FaultInjector {
+    public static final FaultInjector NONE = new FaultInjector(Map.of(), 0, 0, 0);
+
+    private final Map<String, Long> latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final double dropRate;
+
+    public FaultInjector(Map<String, Long> latencyMillis, long jitterMillis, double failureRate, double dropRate) {
+        this.latencyMillis = Map.copyOf(latencyMillis);
+        this.jitterMillis = Math.max(0, jitterMillis);
+        this.failureRate = failureRate;
+        this.dropRate = dropRate;
+    }
+
+    // Accepts "40" for every command or "default=20,su=60,devices=2" for per-command latency.
+    public static Map<String, Long> parseLatency(String spec) {
+        Map<String, Long> latency = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return latency;
+        }
+        for (String part : spec.split(",")) {
+            int separator = part.indexOf('=');
+            if (separator < 0) {
+                latency.put("default", Long.parseLong(part.strip()));
+            } else {
+                latency.put(part.substring(0, separator).strip(), Long.parseLong(part.substring(separator + 1).strip()));
+            }
+        }
+        return latency;
+    }
+
+    public static String commandKind(String command) {
+        String trimmed = command.strip();
+        int end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end)) && trimmed.charAt(end) != ';') {
+            end++;
+        }
+        return end == 0 ? "shell" : trimmed.substring(0, end);
+    }
+
+    public void delay(String kind) {
+        long base = latencyMillis.getOrDefault(kind, latencyMillis.getOrDefault("default", 0L));
+        long jitter = jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+        if (base + jitter <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(base + jitter);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean shouldFail() {
+        return failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate;
+    }
+
+    public boolean shouldDrop() {
+        return dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate;
+    }
+
+    @Override
+    public String toString() {
+        return "latency " + (latencyMillis.isEmpty() ? "none" : latencyMillis) + " ms, jitter " + jitterMillis
+                + " ms, failure rate " + failureRate + ", drop rate " + dropRate;
+    }
+}
@@ -0,0 +1,121 @@
+package opensource.master_duel_android_adb_user_changer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class SimulatorLoadTest {
+    private final Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = FakeAdbServer.parseOptions(args, Map.of(
+                "--devices", "200", "--profiles", "5", "--rounds", "3", "--parallelism", "64",
+                "--latency", "default=15,su=40,devices=5", "--jitter", "10"));
+        int rounds = Integer.parseInt(options.get("--rounds"));
+        int parallelism = Integer.parseInt(options.get("--parallelism"));
+
+        try (FakeAdbServer server = FakeAdbServer.startFromOptions(options)) {
+            AdbSettings settings = new AdbSettings();
+            settings.transportProperty().set(AdbTransport.SOCKET);
+            settings.serverAddressProperty().set("localhost:" + server.getPort());
+            settings.persistentRootShellProperty().set(!options.containsKey("--no-session"));
+            Path journal = Files.createTempFile("metadata-journal", ".properties");
+            try (AdbService adbService = new AdbService(settings, journal)) {
+                new SimulatorLoadTest().run(adbService, rounds, parallelism);
+            } finally {
+                Files.deleteIfExists(journal);
+            }
+        }
+    }
+
+    private void run(AdbService adbService, int rounds, int parallelism) throws Exception {
+        List<String> serials = timed("listDevices",
+                () -> adbService.listDevices().stream().map(DeviceInfo::getSerial).toList());
+        System.out.println("Devices: " + serials.size() + ", rounds: " + rounds + ", parallelism: " + parallelism);
+
+        Semaphore permits = new Semaphore(parallelism);
+        long startedAt = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String serial : serials) {
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < rounds; round++) {
+                        permits.acquire();
+                        try {
+                            runRound(adbService, serial, round);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+
+        int operations = latencies.values().stream().mapToInt(List::size).sum();
+        System.out.printf("Finished %d operations in %.1f s (%.1f ops/s)%n",
+                operations, elapsedMillis / 1000.0, operations * 1000.0 / Math.max(1, elapsedMillis));
+        System.out.printf("%-14s %7s %7s %9s %9s %9s %9s%n", "operation", "count", "failed", "p50 ms", "p95 ms",
+                "p99 ms", "max ms");
+        for (String operation : List.of("listDevices", "refresh", "switch", "archive")) {
+            List<Long> samples = latencies.getOrDefault(operation, List.of());
+            if (samples.isEmpty()) {
+                continue;
+            }
+            List<Long> sorted = new ArrayList<>(samples);
+            Collections.sort(sorted);
+            System.out.printf("%-14s %7d %7d %9.1f %9.1f %9.1f %9.1f%n", operation, sorted.size(),
+                    failures.getOrDefault(operation, new AtomicInteger()).get(),
+                    percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                    sorted.get(sorted.size() - 1) / 1000.0);
+        }
+    }
+
+    private void runRound(AdbService adbService, String serial, int round) {
+        List<UserProfile> profiles = timed("refresh", () -> adbService.listUsers(serial));
+        if (round % 3 == 2) {
+            timed("archive", () -> adbService.archiveActive(serial));
+            return;
+        }
+        profiles.stream()
+                .filter(profile -> !profile.isActive() && !"(error)".equals(profile.getFolderName()))
+                .findFirst()
+                .ifPresent(target -> timed("switch",
+                        () -> adbService.activateProfile(serial, target.getFolderName())));
+    }
+
+    private <T> T timed(String operation, Supplier<T> body) {
+        long startedAt = System.nanoTime();
+        T value = body.get();
+        long micros = (System.nanoTime() - startedAt) / 1000;
+        latencies.computeIfAbsent(operation, key -> Collections.synchronizedList(new ArrayList<>())).add(micros);
+        boolean failed = value instanceof CommandResult result
+                ? !result.isSuccess()
+                : value instanceof List<?> list && list.stream().anyMatch(item ->
+                        item instanceof UserProfile profile && "(error)".equals(profile.getFolderName()));
+        if (failed) {
+            failures.computeIfAbsent(operation, key -> new AtomicInteger()).incrementAndGet();
+        }
+        return value;
+    }
+
+    private static double percentile(List<Long> sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1000.0;
+    }
+}